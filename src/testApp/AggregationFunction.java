@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package testApp;
+
+/**
+ * The aggregation functions of the <code>AggregationService</code>. Each
+ * function is computed from the partial aggregates of the subtrees.
+ *
+ * @author Evangelos
+ */
+public enum AggregationFunction {
+    SUM, COUNT, MIN, MAX;
+
+    /**
+     * Returns the partial aggregate of a single peer.
+     *
+     * @param value the local value of the peer
+     * @return the partial aggregate
+     */
+    public double initial(double value){
+        return this==COUNT ? 1 : value;
+    }
+
+    /**
+     * Combines two partial aggregates.
+     *
+     * @param a the first partial aggregate
+     * @param b the second partial aggregate
+     * @return the combined partial aggregate
+     */
+    public double combine(double a, double b){
+        switch(this){
+            case MIN:
+                return Math.min(a, b);
+            case MAX:
+                return Math.max(a, b);
+            default:
+                return a+b;
+        }
+    }
+}
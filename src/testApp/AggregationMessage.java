@@ -18,14 +18,62 @@
 
 package testApp;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import protopeer.network.Message;
+import protopeer.network.NetworkAddress;
+import tree.MessageCodec;
 
 /**
  * It carries the aggregate over the tree. It is uses also for the broadcast of
  * the global balue.
  *
+ * The aggregates carry the version of their subtree, the sum of the versions
+ * of the local values in it. The broadcast carries the version of the global
+ * value and the address of the root. Both carry the round of the aggregation,
+ * so that messages of an aggregation replaced after a change of the tree are
+ * ignored.
+ *
+ * The message is written in the compact binary encoding of <code>MessageCodec</code>.
+ *
  * @author Evangelos
  */
-public class AggregationMessage extends Message{
+public class AggregationMessage extends Message implements Externalizable{
     public double aggregate;
+    public int version;
+    public NetworkAddress root;
+    public int round;
+
+    /**
+     * Writes the message in the compact binary encoding of <code>MessageCodec</code>.
+     *
+     * @param out the output
+     * @throws IOException if writing fails
+     */
+    public void writeExternal(ObjectOutput out) throws IOException {
+        MessageCodec codec=new MessageCodec();
+        codec.writeHeader(out, this);
+        out.writeDouble(this.aggregate);
+        MessageCodec.writeVarInt(out, this.version);
+        codec.writeAddress(out, this.root);
+        MessageCodec.writeVarInt(out, this.round);
+    }
+
+    /**
+     * Reads the message from the compact binary encoding of <code>MessageCodec</code>.
+     *
+     * @param in the input
+     * @throws IOException if reading fails
+     * @throws ClassNotFoundException if an object of an unknown type is read
+     */
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        MessageCodec codec=new MessageCodec();
+        codec.readHeader(in, this);
+        this.aggregate=in.readDouble();
+        this.version=MessageCodec.readVarInt(in);
+        this.root=codec.readAddress(in);
+        this.round=MessageCodec.readVarInt(in);
+    }
 }
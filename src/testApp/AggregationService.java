@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package testApp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.log4j.Logger;
+import protopeer.BasePeerlet;
+import protopeer.Finger;
+import protopeer.network.Message;
+import protopeer.time.Timer;
+import protopeer.time.TimerListener;
+import protopeer.util.quantities.Time;
+import dsutil.protopeer.services.topology.trees.TreeApplicationInterface;
+
+/**
+ * An aggregation service running many concurrent queries over the same tree.
+ * Each peer keeps a vector of local values, the attributes, and a query
+ * aggregates an attribute with an <code>AggregationFunction</code>.
+ *
+ * The messages of all the queries are multiplexed per tree edge: in every tick,
+ * a peer sends at most one <code>PartialBatchMessage</code> to its parent with
+ * the partial aggregates of the queries completed in its subtree, and at most
+ * one <code>QueryBatchMessage</code> to each child with the queries started and
+ * the global results. In this way, the messages per edge do not grow with the
+ * number of concurrent queries. The cost is a delay of up to one tick per hop.
+ *
+ * Queries are issued by the root after the tree view is set.
+ *
+ * @author Evangelos
+ */
+public class AggregationService extends BasePeerlet implements TreeApplicationInterface{
+
+    private static final Logger logger = Logger.getLogger(AggregationService.class);
+
+    private Finger parent=null;
+    private List<Finger> children=new ArrayList<Finger>();
+    private double[] values;
+    private int tick;
+    private int nextQueryId=0;
+    private int messages=0;
+    private Map<Integer,PendingAggregate> pending=new HashMap<Integer,PendingAggregate>();
+    private Map<Integer,Double> results=new HashMap<Integer,Double>();
+    private List<Integer> startIds=new ArrayList<Integer>();
+    private List<Integer> startAttributes=new ArrayList<Integer>();
+    private List<AggregationFunction> startFunctions=new ArrayList<AggregationFunction>();
+    private List<Integer> resultIds=new ArrayList<Integer>();
+    private List<Double> resultValues=new ArrayList<Double>();
+    private List<Integer> partialIds=new ArrayList<Integer>();
+    private List<Double> partialValues=new ArrayList<Double>();
+
+    /**
+     * A query waiting for the partial aggregates of the children.
+     */
+    private static class PendingAggregate{
+        AggregationFunction function;
+        double partial;
+        int waiting;
+    }
+
+    /**
+     * Initializes the aggregation service.
+     *
+     * @param values the local values of the peer, one per attribute
+     * @param tick the period in milliseconds in which the batched messages are
+     * sent
+     */
+    public AggregationService(double[] values, int tick){
+        this.values=values;
+        this.tick=tick;
+    }
+
+    /**
+     * Starts the periodic sending of the batched messages.
+     */
+    @Override
+    public void start() {
+        super.start();
+        Timer tickTimer=getPeer().getClock().createNewTimer();
+        tickTimer.addTimerListener(new TimerListener() {
+            public void timerExpired(Timer timer) {
+                flush();
+                timer.schedule(Time.inMilliseconds(tick));
+            }
+        });
+        tickTimer.schedule(Time.inMilliseconds(this.tick));
+    }
+
+    /**
+     * Sets the parent provided by the <code>TreeProvider</code>.
+     *
+     * @param parent the finger of the parent
+    */
+    public void setParent(Finger parent){
+        this.parent=parent;
+    }
+
+    /**
+     * Sets the children provided by the <code>TreeProvider</code>.
+     *
+     * @param children the fingers of the children
+    */
+    public void setChildren(List<Finger> children){
+        this.children.addAll(children);
+    }
+
+    /**
+     * Sets the tree view provided by the <code>TreeProvider</code>.
+     *
+     * @param parent the finger of the parent
+     * @param children the fingers of the children
+    */
+    public void setTreeView(Finger parent, List<Finger> children){
+        this.parent=parent;
+        this.children.clear();
+        this.children.addAll(children);
+    }
+
+    /**
+     * Starts a query at the root.
+     *
+     * @param attribute the index of the aggregated local value
+     * @param function the aggregation function
+     * @return the identifier of the query
+     */
+    public int query(int attribute, AggregationFunction function){
+        int queryId=this.nextQueryId++;
+        this.startQuery(queryId, attribute, function);
+        return queryId;
+    }
+
+    /**
+     * Initializes the partial aggregate with the local value and queues the
+     * query for the children.
+     *
+     * @param queryId the identifier of the query
+     * @param attribute the index of the aggregated local value
+     * @param function the aggregation function
+     */
+    private void startQuery(int queryId, int attribute, AggregationFunction function){
+        PendingAggregate aggregate=new PendingAggregate();
+        aggregate.function=function;
+        aggregate.partial=function.initial(this.values[attribute]);
+        aggregate.waiting=this.children.size();
+        this.pending.put(queryId, aggregate);
+        if(!this.children.isEmpty()){
+            this.startIds.add(queryId);
+            this.startAttributes.add(attribute);
+            this.startFunctions.add(function);
+        }
+        this.completeQuery(queryId);
+    }
+
+    /**
+     * Queues the partial aggregate of the subtree for the parent, or the
+     * global result for the children at the root, if all children have sent
+     * their partial aggregates.
+     *
+     * @param queryId the identifier of the query
+     */
+    private void completeQuery(int queryId){
+        PendingAggregate aggregate=this.pending.get(queryId);
+        if(aggregate.waiting>0){
+            return;
+        }
+        this.pending.remove(queryId);
+        if(this.parent==null){
+            this.setResult(queryId, aggregate.partial);
+        }
+        else{
+            this.partialIds.add(queryId);
+            this.partialValues.add(aggregate.partial);
+        }
+    }
+
+    /**
+     * Keeps the global result and queues it for the children.
+     *
+     * @param queryId the identifier of the query
+     * @param result the global result
+     */
+    private void setResult(int queryId, double result){
+        this.results.put(queryId, result);
+        if(!this.children.isEmpty()){
+            this.resultIds.add(queryId);
+            this.resultValues.add(result);
+        }
+    }
+
+    /**
+     * Combines the partial aggregates of a child.
+     *
+     * @param message the batch of the child
+     */
+    private void runPassiveState(PartialBatchMessage message){
+        for(int i=0; i<message.queryIds.length; i++){
+            PendingAggregate aggregate=this.pending.get(message.queryIds[i]);
+            if(aggregate==null){
+                logger.debug("Partial aggregate of an unknown query: "+message.queryIds[i]);
+                continue;
+            }
+            aggregate.partial=aggregate.function.combine(aggregate.partial, message.partials[i]);
+            aggregate.waiting--;
+            this.completeQuery(message.queryIds[i]);
+        }
+    }
+
+    /**
+     * Starts the queries and keeps the results sent by the parent.
+     *
+     * @param message the batch of the parent
+     */
+    private void runPassiveState(QueryBatchMessage message){
+        for(int i=0; i<message.startIds.length; i++){
+            this.startQuery(message.startIds[i], message.attributes[i], message.functions[i]);
+        }
+        for(int i=0; i<message.resultIds.length; i++){
+            this.setResult(message.resultIds[i], message.results[i]);
+        }
+    }
+
+    /**
+     * Sends the queued partial aggregates to the parent and the queued queries
+     * and results to the children, in one message per edge.
+     */
+    private void flush(){
+        if(!this.partialIds.isEmpty() && this.parent!=null){
+            PartialBatchMessage message=new PartialBatchMessage();
+            message.queryIds=toIntArray(this.partialIds);
+            message.partials=toDoubleArray(this.partialValues);
+            getPeer().sendMessage(this.parent.getNetworkAddress(), message);
+            this.messages++;
+        }
+        this.partialIds.clear();
+        this.partialValues.clear();
+        if(!this.startIds.isEmpty() || !this.resultIds.isEmpty()){
+            int[] ids=toIntArray(this.startIds);
+            int[] attributes=toIntArray(this.startAttributes);
+            AggregationFunction[] functions=this.startFunctions.toArray(new AggregationFunction[this.startFunctions.size()]);
+            int[] completed=toIntArray(this.resultIds);
+            double[] globals=toDoubleArray(this.resultValues);
+            for(Finger child:this.children){
+                QueryBatchMessage message=new QueryBatchMessage();
+                message.startIds=ids;
+                message.attributes=attributes;
+                message.functions=functions;
+                message.resultIds=completed;
+                message.results=globals;
+                getPeer().sendMessage(child.getNetworkAddress(), message);
+                this.messages++;
+            }
+        }
+        this.startIds.clear();
+        this.startAttributes.clear();
+        this.startFunctions.clear();
+        this.resultIds.clear();
+        this.resultValues.clear();
+    }
+
+    private static int[] toIntArray(List<Integer> list){
+        int[] array=new int[list.size()];
+        for(int i=0; i<array.length; i++){
+            array[i]=list.get(i);
+        }
+        return array;
+    }
+
+    private static double[] toDoubleArray(List<Double> list){
+        double[] array=new double[list.size()];
+        for(int i=0; i<array.length; i++){
+            array[i]=list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Returns the global result of a query.
+     *
+     * @param queryId the identifier of the query
+     * @return the global result or null if it is not received yet
+     */
+    public Double getResult(int queryId){
+        return this.results.get(queryId);
+    }
+
+    /**
+     * @return true if the peer is the root of the tree
+     */
+    public boolean isRoot(){
+        return this.parent==null && !this.children.isEmpty();
+    }
+
+    /**
+     * @return the number of batched messages sent by the peer
+     */
+    public int getMessages(){
+        return this.messages;
+    }
+
+    /**
+     * Handles incoming messages of type <code>PartialBatchMessage</code> and
+     * <code>QueryBatchMessage</code>.
+     *
+     * @param message the incoming message.
+    */
+    @Override
+    public void handleIncomingMessage(Message message) {
+        if (message instanceof PartialBatchMessage) {
+            this.runPassiveState((PartialBatchMessage) message);
+        }
+        if (message instanceof QueryBatchMessage) {
+            this.runPassiveState((QueryBatchMessage) message);
+        }
+    }
+}
@@ -19,16 +19,21 @@
 package testApp;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.apache.log4j.Logger;
 import protopeer.BasePeerlet;
 import protopeer.Finger;
 import protopeer.Peer;
 import protopeer.network.Message;
+import protopeer.network.NetworkAddress;
 import protopeer.time.Timer;
 import protopeer.time.TimerListener;
 import protopeer.util.quantities.Time;
 import dsutil.protopeer.services.topology.trees.TreeApplicationInterface;
+import tree.TreeViewAdapter;
+import tree.TreeViewHandle;
 
 /**
  * A simple testing application. Nodes keep a value and they aggregate over a
@@ -39,7 +44,26 @@ import dsutil.protopeer.services.topology.trees.TreeApplicationInterface;
  * (i) idle, (ii) waiting for the tree view before it the aggregation starts,
  * (iii) waiting aggregates from the children, (iv) waiting a broadcast message
  * from the parent containing the global value, (v) the node has completed the
- * aggregation.
+ * aggregation. Instead of waiting for a fixed time after the tree view, the
+ * aggregation can start from the subtree ready event of the tree view handle.
+ *
+ * After the aggregation, the peers keep caches for repeated queries of the
+ * global value. Each peer caches the aggregates of its children with their
+ * versions, and a change of a local value with <code>setValue</code> updates
+ * the cached aggregates along the path to the root with an
+ * <code>AggregateUpdate</code>, so that the global value cached at the root is
+ * always current. The other peers cache the global value they last received
+ * for a time-to-live. A query is answered from the local cache while it is
+ * fresh, otherwise from the cache of the root in a single hop, without a new
+ * pass over the tree.
+ *
+ * A change of the tree view, e.g. after a repair or a rotation of the root,
+ * restarts the aggregation with a new round. The peer sends an
+ * <code>AggregationRestart</code> with the round to its children, and every
+ * peer that receives a restart or an aggregation message of a later round
+ * starts that round too. The restarts reach the subtree and the aggregates of
+ * the round the path to the root, whose broadcast reaches all the other
+ * peers. Messages of earlier rounds are ignored.
  *
  * @author Evangelos
  */
@@ -54,6 +78,22 @@ public class Aggregator extends BasePeerlet implements TreeApplicationInterface{
     private double aggregate;
     private double global;
     private int childrCounter;
+    private List<AggregationMessage> earlyAggregates=new ArrayList<AggregationMessage>();
+    private int version;
+    private int subtreeVersion;
+    private Map<NetworkAddress,double[]> childAggregates=new HashMap<NetworkAddress,double[]>();
+    private int ttl;
+    private int globalVersion;
+    private double globalTime;
+    private NetworkAddress root;
+    private Map<Integer,Double> results=new HashMap<Integer,Double>();
+    private int nextQueryId=0;
+    private int queryMessages=0;
+    private int updateMessages=0;
+    private int round=0;
+    private Timer activeStateTimer;
+    private boolean startOnSubtreeReady=false;
+    private boolean pendingUpdate=false;
 
     private enum AggregationState{
         IDLE,
@@ -74,13 +114,48 @@ public class Aggregator extends BasePeerlet implements TreeApplicationInterface{
      * received the tree view.
     */
     public Aggregator(double value, int T){
+        this(value, T, 0);
+    }
+
+    /**
+     * Initializes the aggregator with caching of the global value.
+     *
+     * @param value the local value of the peer
+     * @param T a waiting time for starting the aggregation after receiving the
+     * tree view. This delay gurantees that all the other peers have also
+     * received the tree view.
+     * @param ttl the time in milliseconds the cached global value answers the
+     * queries of the local peer, 0 for asking the root every time
+    */
+    public Aggregator(double value, int T, int ttl){
         this.value=value;
         this.T=T;
+        this.ttl=ttl;
         this.aggregate=0;
         this.childrCounter=0;
         this.global=0;
     }
 
+    /**
+     * Initializes the aggregator that starts when the subtree of the peer is
+     * ready instead of after a fixed waiting time. A leaf sends its aggregate
+     * as soon as its tree view is delivered, and a peer keeps the aggregates
+     * that arrive before its tree view.
+     *
+     * @param value the local value of the peer
+     * @param handle the tree view handle of the tree middleware of the peer
+    */
+    public Aggregator(double value, TreeViewHandle handle){
+        this(value, 0, 0);
+        this.startOnSubtreeReady=true;
+        handle.addListener(new TreeViewAdapter() {
+            @Override
+            public void subtreeReady(int subtreeSize){
+                sendLeafAggregate();
+            }
+        });
+    }
+
     /**
      * Initializes the peer with creating the peer identifier and setting the
      * status to idle.
@@ -121,15 +196,67 @@ public class Aggregator extends BasePeerlet implements TreeApplicationInterface{
     }
 
     /**
-     * Sets the tree view provided by the <code>TreeProvider</code>.
+     * Sets the tree view provided by the <code>TreeProvider</code>. A new tree
+     * view, e.g. after the tree is repaired, replaces the previous one and
+     * restarts the aggregation. The round stays the same if the peer has not
+     * sent or counted an aggregate in it yet, otherwise a new round starts.
      *
      * @param parent the finger of the parent
      * @param children the fingers of the children
     */
     public void setTreeView(Finger parent, List<Finger> children){
         this.parent=parent;
+        this.children.clear();
         this.children.addAll(children);
-        this.runActiveState();
+        if(this.state==AggregationState.WAITING_TREE_VIEW ||
+                (this.state==AggregationState.WAITING_AGGREGATES && this.childrCounter==0)){
+            this.startRound(this.round, true);
+        }
+        else{
+            this.startRound(this.round+1, true);
+        }
+    }
+
+    /**
+     * Starts a round of the aggregation with the current tree view. Apart from
+     * the first round, the restart is sent to the children. The
+     * aggregates that arrived before the tree view are counted and the active
+     * state is scheduled again. A round started by a tree neighbor does not
+     * wait for the tree view of the other peers, as the neighbor is already
+     * in the round. A round of a new tree view waits for the subtree ready
+     * event, if the aggregator starts with it.
+     *
+     * @param round the round of the aggregation
+     * @param newView true if the round starts with a new tree view
+    */
+    private void startRound(int round, boolean newView){
+        this.round=round;
+        this.aggregate=0;
+        this.subtreeVersion=0;
+        this.childrCounter=0;
+        this.childAggregates.clear();
+        this.pendingUpdate=false;
+        this.state=AggregationState.WAITING_AGGREGATES;
+        if(round>0){
+            AggregationRestart restart=new AggregationRestart();
+            restart.round=round;
+            for(Finger child:this.children){
+                getPeer().sendMessage(child.getNetworkAddress(), restart);
+            }
+        }
+        List<AggregationMessage> early=new ArrayList<AggregationMessage>(this.earlyAggregates);
+        this.earlyAggregates.clear();
+        for(AggregationMessage message:early){
+            this.runPassiveState(message);
+        }
+        if(newView && this.startOnSubtreeReady){
+            if(this.activeStateTimer!=null && this.activeStateTimer.isScheduled()){
+                this.activeStateTimer.cancel();
+            }
+        }
+        else{
+            this.runActiveState(newView ? this.T : 0);
+        }
     }
 
     /**
@@ -137,23 +264,68 @@ public class Aggregator extends BasePeerlet implements TreeApplicationInterface{
      * after receiving tree view. If the peer is a leaf, it triggers the
      * sending of an <code>AggregationMessage</code>.
      *
-     * The aggregator leaves the state of waiting the tree view and enters the
-     * waiting for aggregates. At the end of the active state, it waits for a
-     * broadcast.
-    */
-    private void runActiveState(){
-        Timer activeStateTimer=getPeer().getClock().createNewTimer();
-        activeStateTimer.addTimerListener(new TimerListener() {
-            public void timerExpired(Timer timer) {
-                state=AggregationState.WAITING_AGGREGATES;
-                if(children.size()==0 && parent!=null){
-                    AggregationMessage message=createMessage();
-                    getPeer().sendMessage(parent.getNetworkAddress(), message);
-                    state=AggregationState.WAITING_BROADCAST;
+     * The aggregator is already waiting for aggregates since it received the
+     * tree view, so that aggregates of children that started earlier are not
+     * lost. At the end of the active state, a leaf waits for a broadcast. A
+     * single timer is rescheduled for every round, so that a leaf sends one
+     * aggregate per round.
+     *
+     * @param delay the delay in milliseconds of the active state
+    */
+    private void runActiveState(int delay){
+        if(this.activeStateTimer==null){
+            this.activeStateTimer=getPeer().getClock().createNewTimer();
+            this.activeStateTimer.addTimerListener(new TimerListener() {
+                public void timerExpired(Timer timer) {
+                    sendLeafAggregate();
                 }
+            });
+        }
+        this.activeStateTimer.schedule(Time.inMilliseconds(delay));
+    }
+
+    /**
+     * Sends the aggregate of a leaf to the parent, if the leaf has not sent it
+     * in the current round yet.
+    */
+    private void sendLeafAggregate(){
+        if(this.state==AggregationState.WAITING_AGGREGATES && this.children.size()==0 && this.parent!=null){
+            AggregationMessage message=this.createMessage();
+            getPeer().sendMessage(this.parent.getNetworkAddress(), message);
+            this.state=AggregationState.WAITING_BROADCAST;
+        }
+    }
+
+    /**
+     * Starts a later round of a tree neighbor. Before the tree view, the
+     * round is kept for the first round of the peer.
+     *
+     * @param restart the restart of a tree neighbor
+    */
+    private void runPassiveState(AggregationRestart restart){
+        if(this.state==AggregationState.IDLE || restart.round<=this.round){
+            return;
+        }
+        if(this.state==AggregationState.WAITING_TREE_VIEW){
+            this.round=restart.round;
+            return;
+        }
+        this.startRound(restart.round, false);
+    }
+
+    /**
+     * Checks whether a peer is a child in the current tree view.
+     *
+     * @param address the address of the peer
+     * @return true if the peer is a child
+    */
+    private boolean isChild(NetworkAddress address){
+        for(Finger child:this.children){
+            if(child.getNetworkAddress().equals(address)){
+                return true;
             }
-        });
-        activeStateTimer.schedule(Time.inMilliseconds(this.T));
+        }
+        return false;
     }
 
     /**
@@ -162,21 +334,45 @@ public class Aggregator extends BasePeerlet implements TreeApplicationInterface{
      * @param receivedMess the received <code>AggregationMessage</code>
     */
     private void runPassiveState(AggregationMessage receivedMess){
+        if(this.state!=AggregationState.IDLE && this.state!=AggregationState.WAITING_TREE_VIEW){
+            if(receivedMess.round<this.round){
+                logger.debug("Ignoring a message of an earlier round.");
+                return;
+            }
+            if(receivedMess.round>this.round){
+                this.startRound(receivedMess.round, false);
+            }
+        }
         switch(state){
             case IDLE:
                 logger.debug("Peer has not been initialized yet: State Idle.");
                 break;
             case WAITING_TREE_VIEW:
-                logger.debug("Tree view is still expected: State Waiting Tree View.");
+                logger.debug("Tree view is still expected: State Waiting Tree View. The aggregate is kept until the tree view arrives.");
+                this.earlyAggregates.add(receivedMess);
                 break;
             case WAITING_AGGREGATES:
+                if(this.childAggregates.containsKey(receivedMess.getSourceAddress())){
+                    logger.debug("Ignoring a repeated aggregate of a child.");
+                    break;
+                }
+                if(!this.isChild(receivedMess.getSourceAddress())){
+                    logger.debug("Aggregate of a peer that is not a child yet. The aggregate is kept until the tree view changes.");
+                    this.earlyAggregates.add(receivedMess);
+                    break;
+                }
                 this.childrCounter++;
                 this.aggregate+=receivedMess.aggregate;
+                this.subtreeVersion+=receivedMess.version;
+                this.childAggregates.put(receivedMess.getSourceAddress(), new double[]{receivedMess.aggregate, receivedMess.version});
                 if(this.childrCounter==this.children.size()){
                     this.state=AggregationState.WAITING_BROADCAST;
                     AggregationMessage sentMess=this.createMessage();
                     if(parent==null){
                         this.global=this.aggregate;
+                        this.cacheGlobal(sentMess.version);
+                        this.root=getPeer().getNetworkAddress();
+                        sentMess.root=this.root;
                         for(Finger child:this.children){
                             getPeer().sendMessage(child.getNetworkAddress(), sentMess);
                         }
@@ -189,10 +385,16 @@ public class Aggregator extends BasePeerlet implements TreeApplicationInterface{
                 break;
             case WAITING_BROADCAST:
                 this.global=receivedMess.aggregate;
+                this.cacheGlobal(receivedMess.version);
+                this.root=receivedMess.root;
                 for(Finger child:this.children){
                     getPeer().sendMessage(child.getNetworkAddress(), receivedMess);
                 }
                 this.state=AggregationState.COMPLETE;
+                if(this.pendingUpdate){
+                    this.pendingUpdate=false;
+                    this.updateSubtree();
+                }
                 break;
             case COMPLETE:
                 logger.debug("Peer is not responding: State Complete.");
@@ -203,6 +405,182 @@ public class Aggregator extends BasePeerlet implements TreeApplicationInterface{
         }
     }
 
+    /**
+     * Changes the local value. After the aggregation, the new aggregate of the
+     * subtree is sent to the parent, so that the caches up to the root stay
+     * current. A change after the aggregate of the round is sent but before
+     * the broadcast is sent when the broadcast arrives.
+     *
+     * @param value the new local value
+    */
+    public void setValue(double value){
+        this.value=value;
+        this.version++;
+        this.updateOrDefer();
+    }
+
+    /**
+     * Updates the subtree after the aggregation, or defers the update until
+     * the broadcast if the aggregate of the round is already sent.
+    */
+    private void updateOrDefer(){
+        if(this.state==AggregationState.COMPLETE){
+            this.updateSubtree();
+        }
+        else if(this.state==AggregationState.WAITING_BROADCAST){
+            this.pendingUpdate=true;
+        }
+    }
+
+    /**
+     * Recomputes the aggregate of the subtree from the local value and the
+     * cached aggregates of the children. The root caches it as the global
+     * value, the other peers send it to their parent.
+    */
+    private void updateSubtree(){
+        double subtreeAggregate=this.value;
+        int version=this.version;
+        for(double[] childAggregate:this.childAggregates.values()){
+            subtreeAggregate+=childAggregate[0];
+            version+=(int)childAggregate[1];
+        }
+        if(this.parent==null){
+            this.global=subtreeAggregate;
+            this.cacheGlobal(version);
+        }
+        else{
+            AggregateUpdate update=new AggregateUpdate();
+            update.aggregate=subtreeAggregate;
+            update.version=version;
+            getPeer().sendMessage(this.parent.getNetworkAddress(), update);
+            this.updateMessages++;
+        }
+    }
+
+    /**
+     * Caches a newer aggregate of a child and updates the subtree.
+     *
+     * @param update the update of the child
+    */
+    private void runPassiveState(AggregateUpdate update){
+        if(this.state!=AggregationState.WAITING_BROADCAST && this.state!=AggregationState.COMPLETE){
+            logger.debug("Ignoring an update of an earlier round.");
+            return;
+        }
+        double[] cached=this.childAggregates.get(update.getSourceAddress());
+        if(cached!=null && cached[1]>=update.version){
+            logger.debug("Ignoring an older update of a child.");
+            return;
+        }
+        this.childAggregates.put(update.getSourceAddress(), new double[]{update.aggregate, update.version});
+        this.updateOrDefer();
+    }
+
+    /**
+     * Queries the global value. The query is answered right away at the root
+     * or from a fresh cache, otherwise the root is asked. The result is
+     * available with <code>getResult</code>.
+     *
+     * @return the identifier of the query
+     * @throws IllegalStateException if the aggregation is not complete yet
+    */
+    public int query(){
+        if(this.state!=AggregationState.COMPLETE){
+            throw new IllegalStateException("The global value is not known yet.");
+        }
+        int queryId=this.nextQueryId++;
+        if(this.parent==null || getPeer().getClock().getCurrentTime()-this.globalTime<=this.ttl){
+            this.results.put(queryId, this.global);
+        }
+        else{
+            AggregateQuery query=new AggregateQuery();
+            query.queryId=queryId;
+            getPeer().sendMessage(this.root!=null ? this.root : this.parent.getNetworkAddress(), query);
+            this.queryMessages++;
+        }
+        return queryId;
+    }
+
+    /**
+     * Answers a query with the cached global value.
+     *
+     * @param query the query of a peer
+    */
+    private void runPassiveState(AggregateQuery query){
+        AggregateReply reply=new AggregateReply();
+        reply.queryId=query.queryId;
+        reply.global=this.global;
+        reply.version=this.globalVersion;
+        getPeer().sendMessage(query.getSourceAddress(), reply);
+        this.queryMessages++;
+    }
+
+    /**
+     * Caches the global value of a reply and keeps it as the result of the
+     * query.
+     *
+     * @param reply the reply to a query of the local peer
+    */
+    private void runPassiveState(AggregateReply reply){
+        if(reply.version>=this.globalVersion){
+            this.global=reply.global;
+            this.cacheGlobal(reply.version);
+        }
+        this.results.put(reply.queryId, reply.global);
+    }
+
+    /**
+     * Stamps the cached global value with its version and the current time.
+     *
+     * @param version the version of the global value
+    */
+    private void cacheGlobal(int version){
+        this.globalVersion=version;
+        this.globalTime=getPeer().getClock().getCurrentTime();
+    }
+
+    /**
+     * Returns the result of a query of the local peer.
+     *
+     * @param queryId the identifier of the query
+     * @return the global value or null if the reply has not arrived yet
+    */
+    public Double getResult(int queryId){
+        return this.results.get(queryId);
+    }
+
+    /**
+     * @return the number of query and reply messages sent by the peer
+    */
+    public int getQueryMessages(){
+        return this.queryMessages;
+    }
+
+    /**
+     * @return the number of update messages sent by the peer
+    */
+    public int getUpdateMessages(){
+        return this.updateMessages;
+    }
+
+    /**
+     * Checks whether the aggregator has received the global value.
+     *
+     * @return true if the aggregation is complete at the local peer
+    */
+    public boolean isComplete(){
+        return this.state==AggregationState.COMPLETE;
+    }
+
+    /**
+     * Returns the global value broadcasted by the root.
+     *
+     * @return the global aggregate
+    */
+    public double getGlobal(){
+        return this.global;
+    }
+
     /**
      * Creates an <code>AggregationMessage</code> by updating the aggregate and
      * adding it to the message.
@@ -213,11 +591,15 @@ public class Aggregator extends BasePeerlet implements TreeApplicationInterface{
         AggregationMessage message=new AggregationMessage();
         this.aggregate+=this.value;
         message.aggregate=this.aggregate;
+        message.version=this.subtreeVersion+this.version;
+        message.round=this.round;
         return message;
     }
 
     /**
-     * Handles incoming messages of type <code>AggregationMessage</code>.
+     * Handles incoming messages of type <code>AggregationMessage</code> and
+     * <code>AggregationRestart</code> and the update, query and reply messages
+     * of the caches.
      *
      * @param message the incoming message.
     */
@@ -226,6 +608,18 @@ public class Aggregator extends BasePeerlet implements TreeApplicationInterface{
         if (message instanceof AggregationMessage) {
                 this.runPassiveState((AggregationMessage) message);
         }
+        if (message instanceof AggregationRestart) {
+                this.runPassiveState((AggregationRestart) message);
+        }
+        if (message instanceof AggregateUpdate) {
+                this.runPassiveState((AggregateUpdate) message);
+        }
+        if (message instanceof AggregateQuery) {
+                this.runPassiveState((AggregateQuery) message);
+        }
+        if (message instanceof AggregateReply) {
+                this.runPassiveState((AggregateReply) message);
+        }
     }
 
 }
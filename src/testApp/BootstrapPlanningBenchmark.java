@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+
+package testApp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+import dsutil.generic.RankPriority;
+import dsutil.protopeer.FingerDescriptor;
+import dsutil.protopeer.services.topology.trees.DescriptorType;
+import dsutil.protopeer.services.topology.trees.TreeType;
+import protopeer.Finger;
+import protopeer.RingIdentifier;
+import protopeer.network.IntegerNetworkAddress;
+import tree.BalanceType;
+import tree.centralized.server.TreeTopologyGenerator;
+import tree.centralized.server.TreeViewFacilitator;
+
+/**
+ * Measures the time from the last request to the built tree in the
+ * <code>TreeServer</code>, with the peers organized in a batch when the Nth
+ * request arrives, as before, and with each peer added to the generator as its
+ * request arrives. For the incremental planning, the time spent while waiting
+ * for the requests is reported as well. The times are the minimum over the
+ * repetitions.
+ *
+ * Before measuring, the incrementally planned tree is checked to have the same
+ * parent and children for every peer as the tree built in a batch.
+ *
+ * Usage: <code>BootstrapPlanningBenchmark [N1,N2,...] [repetitions]</code>
+ *
+ * @author Evangelos
+ */
+public class BootstrapPlanningBenchmark {
+
+    private static int[] networkSizes=new int[]{1000,10000,100000};
+    private static int repetitions=10;
+    private static final RankPriority priority=RankPriority.HIGH_RANK;
+    private static final DescriptorType descriptor=DescriptorType.RANK;
+    private static final TreeType type=TreeType.SORTED_HtL;
+    private static final BalanceType balance=BalanceType.WEIGHT_BALANCED;
+    private static final Random random=new Random(1);
+
+    public static void main(String[] args) {
+        if(args.length>0){
+            String[] sizes=args[0].split(",");
+            networkSizes=new int[sizes.length];
+            for(int i=0; i<sizes.length; i++){
+                networkSizes[i]=Integer.parseInt(sizes[i]);
+            }
+        }
+        if(args.length>1){
+            repetitions=Integer.parseInt(args[1]);
+        }
+        System.out.println("N\tbatch build(ms)\tplanned build(ms)\twaiting phase(ms)\tdegree histogram");
+        for(int N:networkSizes){
+            List<FingerDescriptor> requests=new ArrayList<FingerDescriptor>();
+            for(int i=0; i<N; i++){
+                FingerDescriptor peer=new FingerDescriptor(new Finger(new IntegerNetworkAddress(i), new RingIdentifier(random.nextDouble())));
+                peer.addDescriptor(DescriptorType.RANK, random.nextDouble());
+                peer.addDescriptor(DescriptorType.NODE_DEGREE, 2+random.nextInt(4));
+                requests.add(peer);
+            }
+            check(requests);
+            double batch=Double.MAX_VALUE;
+            double planned=Double.MAX_VALUE;
+            double waiting=Double.MAX_VALUE;
+            TreeTopologyGenerator generator=null;
+            for(int r=0; r<repetitions; r++){
+                Set<FingerDescriptor> peers=new HashSet<FingerDescriptor>();
+                generator=new TreeTopologyGenerator(priority, descriptor, type, balance);
+                for(FingerDescriptor peer:requests){
+                    peers.add(peer);
+                }
+                long last=System.nanoTime();
+                generator.generateTopology(peers);
+                batch=Math.min(batch, (System.nanoTime()-last)/1e6);
+
+                peers=new HashSet<FingerDescriptor>();
+                generator=new TreeTopologyGenerator(priority, descriptor, type, balance);
+                long start=System.nanoTime();
+                for(FingerDescriptor peer:requests){
+                    peers.add(peer);
+                    generator.addPeer(peer);
+                }
+                last=System.nanoTime();
+                generator.generateTopology(peers);
+                planned=Math.min(planned, (System.nanoTime()-last)/1e6);
+                waiting=Math.min(waiting, (last-start)/1e6);
+            }
+            System.out.println(N+"\t"+batch+"\t"+planned+"\t"+waiting+"\t"+generator.getDegreeHistogram());
+        }
+    }
+
+    /**
+     * Checks that the planned tree is the same as the tree built in a batch.
+     */
+    private static void check(List<FingerDescriptor> requests){
+        Set<FingerDescriptor> peers=new HashSet<FingerDescriptor>(requests);
+        TreeTopologyGenerator batchGenerator=new TreeTopologyGenerator(priority, descriptor, type, balance);
+        Set<Entry<FingerDescriptor,TreeViewFacilitator>> batch=batchGenerator.generateTopology(peers);
+        TreeTopologyGenerator plannedGenerator=new TreeTopologyGenerator(priority, descriptor, type, balance);
+        for(FingerDescriptor peer:requests){
+            plannedGenerator.addPeer(peer);
+        }
+        if(!plannedGenerator.getDegreeHistogram().equals(batchGenerator.getDegreeHistogram())){
+            throw new IllegalStateException("The degree histograms differ.");
+        }
+        Map<FingerDescriptor,TreeViewFacilitator> planned=new HashMap<FingerDescriptor,TreeViewFacilitator>();
+        for(Entry<FingerDescriptor,TreeViewFacilitator> view:plannedGenerator.generateTopology(peers)){
+            planned.put(view.getKey(), view.getValue());
+        }
+        if(planned.size()!=batch.size()){
+            throw new IllegalStateException("The planned tree has "+planned.size()+" peers instead of "+batch.size());
+        }
+        for(Entry<FingerDescriptor,TreeViewFacilitator> view:batch){
+            TreeViewFacilitator plannedView=planned.get(view.getKey());
+            if(plannedView==null || !equals(view.getValue().getParent(), plannedView.getParent()) ||
+                    !view.getValue().getChildren().equals(plannedView.getChildren())){
+                throw new IllegalStateException("The planned view of "+view.getKey()+" differs.");
+            }
+        }
+    }
+
+    private static boolean equals(Object a, Object b){
+        return a==null ? b==null : a.equals(b);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+
+package testApp;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import protopeer.network.Message;
+import tree.MessageCodec;
+
+/**
+ * Acknowledges to the parent of the <code>TreeBroadcaster</code> that a chunk
+ * has been forwarded to all the children and is no longer buffered. A leaf
+ * acknowledges a chunk when it receives it. The acknowledgement returns a
+ * credit of the window of the parent to the child.
+ *
+ * The message is written in the compact binary encoding of <code>MessageCodec</code>.
+ *
+ * @author Evangelos
+ */
+public class BroadcastAck extends Message implements Externalizable{
+    public int broadcastId;
+    public int index;
+
+    /**
+     * Writes the message in the compact binary encoding of <code>MessageCodec</code>.
+     *
+     * @param out the output
+     * @throws IOException if writing fails
+     */
+    public void writeExternal(ObjectOutput out) throws IOException {
+        MessageCodec codec=new MessageCodec();
+        codec.writeHeader(out, this);
+        MessageCodec.writeVarInt(out, this.broadcastId);
+        MessageCodec.writeVarInt(out, this.index);
+    }
+
+    /**
+     * Reads the message from the compact binary encoding of <code>MessageCodec</code>.
+     *
+     * @param in the input
+     * @throws IOException if reading fails
+     * @throws ClassNotFoundException if an object of an unknown type is read
+     */
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        MessageCodec codec=new MessageCodec();
+        codec.readHeader(in, this);
+        this.broadcastId=MessageCodec.readVarInt(in);
+        this.index=MessageCodec.readVarInt(in);
+    }
+}
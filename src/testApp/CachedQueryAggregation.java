@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package testApp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import protopeer.BasePeerlet;
+import protopeer.Experiment;
+import protopeer.Peer;
+import protopeer.PeerFactory;
+import dsutil.generic.RankPriority;
+import protopeer.SimulatedExperiment;
+import protopeer.network.NetworkAddress;
+import protopeer.servers.bootstrap.SimplePeerIdentifierGenerator;
+import protopeer.time.Timer;
+import protopeer.time.TimerListener;
+import protopeer.util.quantities.Time;
+import dsutil.protopeer.services.topology.trees.DescriptorType;
+import dsutil.protopeer.services.topology.trees.TreeProvider;
+import dsutil.protopeer.services.topology.trees.TreeType;
+import tree.BalanceType;
+import tree.centralized.client.TreeClient;
+import tree.centralized.server.TreeServer;
+
+/**
+ * Queries the global value repeatedly, as a read-heavy dashboard does, while
+ * the local values of some peers change. After the aggregation, one of a few
+ * dashboard peers queries every query period and a random peer changes its
+ * value every update period, in the middle of a query period. For each
+ * time-to-live of the cached global value, the experiment reports the fraction of the queries answered from the local cache, the
+ * query messages per query, the update messages, and the fraction of the
+ * results equal to the exact sum with the largest error. Without the caches,
+ * every query is a new aggregation of 2(N-1) messages.
+ *
+ * Usage: <code>CachedQueryAggregation [ttl1,ttl2,...]</code>
+ *
+ * @author Evangelos
+ */
+public class CachedQueryAggregation extends SimulatedExperiment {
+
+    //Simulation Parameters
+    private final static int N=100;
+    private final static int[] v=new int[]{3};
+    private final static int T=1000;
+    private final static int bootstrapDuration=5;
+    private final static int queryPeriod=100;
+    private final static int updatePeriod=1000;
+    private final static int queries=600;
+    private final static int dashboards=5;
+    private static int[] ttls=new int[]{0,1000,5000};
+
+    private static final RankPriority priority=RankPriority.HIGH_RANK;
+    private static final DescriptorType descriptor=DescriptorType.RANK;
+    private static final TreeType type=TreeType.SORTED_HtL;
+    private static final BalanceType balance=BalanceType.WEIGHT_BALANCED;
+
+    public static void main(String[] args) {
+        if(args.length>0){
+            String[] values=args[0].split(",");
+            ttls=new int[values.length];
+            for(int i=0; i<values.length; i++){
+                ttls[i]=Integer.parseInt(values[i]);
+            }
+        }
+        System.out.println("System started.");
+        Experiment.initEnvironment();
+        System.out.println("ttl(ms)\tqueries\tlocal\tmessages/query\tupdate messages\texact\tmax error\tfull aggregation messages");
+        for(int ttl:ttls){
+            run(ttl);
+        }
+        System.out.println("System finished.");
+    }
+
+    /**
+     * Runs the queries and the updates for a time-to-live and prints the
+     * measurements.
+     *
+     * @param ttl the time-to-live of the cached global value
+     */
+    private static void run(final int ttl){
+        final List<Aggregator> aggregators=new ArrayList<Aggregator>();
+        final double[] values=new double[N];
+        CachedQueryAggregation exp=new CachedQueryAggregation();
+        exp.init();
+        final Random random=new Random(N);
+        final NetworkAddress serverAddress=exp.getAddressToBindTo(0);
+        final Dashboard dashboard=new Dashboard(aggregators, values, random);
+        PeerFactory peerFactory=new PeerFactory() {
+            public Peer createPeer(int peerIndex, Experiment experiment) {
+                Peer newPeer = new Peer(peerIndex);
+                if (peerIndex == 0) {
+                    newPeer.addPeerlet(new TreeServer(N, priority, descriptor, type, balance));
+                    newPeer.addPeerlet(dashboard);
+                }
+                newPeer.addPeerlet(new TreeClient(serverAddress, new SimplePeerIdentifierGenerator(), random.nextDouble(), v[random.nextInt(v.length)]));
+                newPeer.addPeerlet(new TreeProvider());
+                values[peerIndex]=random.nextDouble();
+                Aggregator aggregator=new Aggregator(values[peerIndex], T, ttl);
+                aggregators.add(aggregator);
+                newPeer.addPeerlet(aggregator);
+                return newPeer;
+            }
+        };
+        exp.initPeers(0,N,peerFactory);
+        exp.startPeers(0,N);
+        exp.runSimulation(Time.inSeconds(bootstrapDuration+queries*queryPeriod/1000+1));
+        int queryMessages=0;
+        int updateMessages=0;
+        for(Aggregator aggregator:aggregators){
+            queryMessages+=aggregator.getQueryMessages();
+            updateMessages+=aggregator.getUpdateMessages();
+        }
+        System.out.println(ttl+"\t"+dashboard.queries+"\t"+(double)dashboard.local/dashboard.queries+"\t"+
+                (double)queryMessages/dashboard.queries+"\t"+updateMessages+"\t"+(double)dashboard.exact/dashboard.queries+"\t"+
+                dashboard.maxError+"\t"+2*(N-1));
+    }
+
+    /**
+     * Issues the queries and the updates after the aggregation and checks the
+     * results. Every half query period, it alternates between checking the
+     * result of the last query and changing a value, if it is time for an
+     * update, and issuing a new query.
+     */
+    private static class Dashboard extends BasePeerlet{
+
+        private List<Aggregator> aggregators;
+        private double[] values;
+        private Random random;
+        private Aggregator querier;
+        private int queryId=-1;
+        private double sum;
+        private int tick=0;
+        int queries=0;
+        int local=0;
+        int exact=0;
+        double maxError=0;
+
+        public Dashboard(List<Aggregator> aggregators, double[] values, Random random){
+            this.aggregators=aggregators;
+            this.values=values;
+            this.random=random;
+        }
+
+        @Override
+        public void start() {
+            super.start();
+            Timer timer=getPeer().getClock().createNewTimer();
+            timer.addTimerListener(new TimerListener() {
+                public void timerExpired(Timer timer) {
+                    if(queries<CachedQueryAggregation.queries || queryId>=0){
+                        runTick();
+                        timer.schedule(Time.inMilliseconds(queryPeriod/2));
+                    }
+                }
+            });
+            timer.schedule(Time.inSeconds(bootstrapDuration));
+        }
+
+        private void runTick(){
+            if(this.tick++%2==0){
+                if(this.queryId>=0){
+                    Double result=this.querier.getResult(this.queryId);
+                    double error=result==null ? Double.POSITIVE_INFINITY : Math.abs(result-this.sum);
+                    if(error<1e-9){
+                        this.exact++;
+                    }
+                    this.maxError=Math.max(this.maxError, error);
+                    this.queryId=-1;
+                }
+                if(this.queries%(updatePeriod/queryPeriod)==0 && this.queries<CachedQueryAggregation.queries){
+                    int peer=this.random.nextInt(N);
+                    this.values[peer]=this.random.nextDouble();
+                    this.aggregators.get(peer).setValue(this.values[peer]);
+                }
+            }
+            else if(this.queries<CachedQueryAggregation.queries){
+                this.sum=0;
+                for(double value:this.values){
+                    this.sum+=value;
+                }
+                this.querier=this.aggregators.get(this.random.nextInt(dashboards));
+                this.queryId=this.querier.query();
+                if(this.querier.getResult(this.queryId)!=null){
+                    this.local++;
+                }
+                this.queries++;
+            }
+        }
+    }
+}
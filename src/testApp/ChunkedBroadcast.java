@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+
+package testApp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import protopeer.Experiment;
+import protopeer.Peer;
+import protopeer.PeerFactory;
+import dsutil.generic.RankPriority;
+import protopeer.SimulatedExperiment;
+import protopeer.network.NetworkAddress;
+import protopeer.network.NetworkInterfaceFactory;
+import protopeer.network.delayloss.DelayLossNetworkInterfaceFactory;
+import protopeer.network.delayloss.UniformDelayModel;
+import protopeer.servers.bootstrap.SimplePeerIdentifierGenerator;
+import protopeer.util.quantities.Time;
+import dsutil.protopeer.services.topology.trees.DescriptorType;
+import dsutil.protopeer.services.topology.trees.TreeProvider;
+import dsutil.protopeer.services.topology.trees.TreeType;
+import tree.BalanceType;
+import tree.centralized.client.TreeClient;
+import tree.centralized.server.TreeServer;
+
+/**
+ * Broadcasts a large payload over the tree with the <code>TreeBroadcaster</code>
+ * for different chunk sizes. A chunk of the size of the payload is the store
+ * and forward broadcast, as the one of the <code>Aggregator</code>. The network
+ * has a constant latency per hop and every peer an uplink of limited
+ * bandwidth. For each chunk size, the experiment reports the time the last peer
+ * has the payload, the fraction of the peers with the correct payload, the
+ * messages and the maximum number of chunks buffered at a peer, together with
+ * the estimates depth x payload time and payload time + depth x chunk time of
+ * the store and forward and the pipelined broadcast. The estimates assume that
+ * every peer on the deepest path has the maximum number of children.
+ *
+ * Usage: <code>ChunkedBroadcast [chunkSize1,chunkSize2,...] [window]</code>
+ *
+ * @author Evangelos
+ */
+public class ChunkedBroadcast extends SimulatedExperiment {
+
+    //Simulation Parameters
+    private final static int N=100;
+    private final static int[] v=new int[]{3};
+    private final static int bootstrapDuration=5;
+    private final static int runDuration=120;
+    private final static int payloadLength=1<<20;
+    private static int window=4;
+    private final static double bandwidth=1250;
+    private final static double latency=20;
+    private static int[] chunkSizes=new int[]{payloadLength,1<<16,1<<14,1<<12};
+
+    private static final RankPriority priority=RankPriority.HIGH_RANK;
+    private static final DescriptorType descriptor=DescriptorType.RANK;
+    private static final TreeType type=TreeType.SORTED_HtL;
+    private static final BalanceType balance=BalanceType.WEIGHT_BALANCED;
+
+    public static void main(String[] args) {
+        if(args.length>0){
+            String[] sizes=args[0].split(",");
+            chunkSizes=new int[sizes.length];
+            for(int i=0; i<sizes.length; i++){
+                chunkSizes[i]=Integer.parseInt(sizes[i]);
+            }
+        }
+        if(args.length>1){
+            window=Integer.parseInt(args[1]);
+        }
+        System.out.println("System started.");
+        Experiment.initEnvironment();
+        System.out.println("chunk(bytes)\tdelivery(ms)\tcoverage\tmessages\tmax buffered chunks\theight\tstore and forward estimate(ms)\tpipelined estimate(ms)");
+        for(int chunkSize:chunkSizes){
+            run(chunkSize);
+        }
+        System.out.println("System finished.");
+    }
+
+    /**
+     * Uses a constant latency per hop.
+     *
+     * @return the factory of the network interfaces
+     */
+    @Override
+    public NetworkInterfaceFactory createNetworkInterfaceFactory() {
+        return new DelayLossNetworkInterfaceFactory(getEventScheduler(), new UniformDelayModel(latency, latency));
+    }
+
+    /**
+     * Runs the broadcast for a chunk size and prints the measurements.
+     *
+     * @param chunkSize the size of a chunk in bytes
+     */
+    private static void run(final int chunkSize){
+        final List<TreeBroadcaster> broadcasters=new ArrayList<TreeBroadcaster>();
+        ChunkedBroadcast exp=new ChunkedBroadcast();
+        exp.init();
+        final Random random=new Random(N);
+        final NetworkAddress serverAddress=exp.getAddressToBindTo(0);
+        final TreeServer server=new TreeServer(N, priority, descriptor, type, balance);
+        PeerFactory peerFactory=new PeerFactory() {
+            public Peer createPeer(int peerIndex, Experiment experiment) {
+                Peer newPeer = new Peer(peerIndex);
+                if (peerIndex == 0) {
+                    newPeer.addPeerlet(server);
+                }
+                newPeer.addPeerlet(new TreeClient(serverAddress, new SimplePeerIdentifierGenerator(), random.nextDouble(), v[random.nextInt(v.length)]));
+                newPeer.addPeerlet(new TreeProvider());
+                TreeBroadcaster broadcaster=new TreeBroadcaster(chunkSize, window, bandwidth);
+                broadcasters.add(broadcaster);
+                newPeer.addPeerlet(broadcaster);
+                return newPeer;
+            }
+        };
+        exp.initPeers(0,N,peerFactory);
+        exp.startPeers(0,N);
+        exp.runSimulation(Time.inSeconds(bootstrapDuration));
+        byte[] payload=new byte[payloadLength];
+        random.nextBytes(payload);
+        TreeBroadcaster root=null;
+        for(TreeBroadcaster broadcaster:broadcasters){
+            if(broadcaster.isRoot()){
+                root=broadcaster;
+            }
+        }
+        int broadcastId=root.broadcast(payload);
+        double startTime=root.getDeliveryTime(broadcastId);
+        exp.runSimulation(Time.inSeconds(runDuration));
+        double deliveryTime=0;
+        int delivered=0;
+        int messages=0;
+        int maxBuffered=0;
+        for(TreeBroadcaster broadcaster:broadcasters){
+            if(Arrays.equals(payload, broadcaster.getPayload(broadcastId))){
+                delivered++;
+                deliveryTime=Math.max(deliveryTime, broadcaster.getDeliveryTime(broadcastId)-startTime);
+            }
+            messages+=broadcaster.getMessages();
+            maxBuffered=Math.max(maxBuffered, broadcaster.getMaxBufferedChunks());
+        }
+        int height=server.getTopologyStats().getHeight();
+        double payloadTime=v[0]*payloadLength/bandwidth+latency;
+        double chunkTime=v[0]*Math.min(chunkSize, payloadLength)/bandwidth+latency;
+        System.out.println(chunkSize+"\t"+deliveryTime+"\t"+(double)delivered/N+"\t"+messages+"\t"+maxBuffered+"\t"+height+"\t"+
+                height*payloadTime+"\t"+(payloadTime+(height-1)*chunkTime));
+    }
+}
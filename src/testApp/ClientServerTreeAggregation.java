@@ -18,10 +18,16 @@
 
 package testApp;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import protopeer.Experiment;
+import protopeer.MainConfiguration;
 import dsutil.protopeer.FingerDescriptor;
 import protopeer.Peer;
 import protopeer.PeerFactory;
@@ -30,47 +36,130 @@ import protopeer.SimulatedExperiment;
 import protopeer.network.NetworkAddress;
 import protopeer.servers.bootstrap.SimplePeerIdentifierGenerator;
 import protopeer.util.NetworkAddressPair;
+import protopeer.util.RandomnessSource;
 import protopeer.util.quantities.Time;
 import dsutil.protopeer.services.topology.trees.DescriptorType;
 import dsutil.protopeer.services.topology.trees.TreeProvider;
 import dsutil.protopeer.services.topology.trees.TreeType;
 import tree.BalanceType;
+import tree.centralized.TreeViewReply;
+import tree.centralized.TreeViewRequest;
 import tree.centralized.client.TreeClient;
+import tree.centralized.gateway.TreeGateway;
 import tree.centralized.server.TreeServer;
+import tree.centralized.server.TreeTopologyGenerator;
+import tree.trace.MessageTraceWriter;
+import tree.trace.MessageTracer;
 
 /**
  * Performs aggregation by acquiring a tree from the client-server bootstraping
  * mechanism.
  *
+ * The configuration can be given in the arguments, e.g. by the
+ * <code>ExperimentSweep</code>. All the randomness of the run derives from the
+ * seed, by default the master seed of the ProtoPeer configuration. The
+ * measurements are printed in a single tab separated line starting with
+ * <code>RESULT</code>: the height of the tree, the degree overshoot per parent,
+ * the fraction of peers that completed the aggregation and the fraction of
+ * peers with the correct global value. A run in which the tree server does
+ * not build a tree, e.g. as the node degrees are too low for the peers, ends
+ * with an exception and without a result.
+ *
+ * Optionally, the peers send their tree view requests through
+ * <code>TreeGateway</code>s, one per group of peers, instead of contacting the
+ * tree server directly.
+ *
+ * Optionally, the tree view requests and replies and the aggregation messages
+ * are recorded in a trace file, which the <code>MessageTraceReplayer</code>
+ * replays offline.
+ *
+ * Usage: <code>ClientServerTreeAggregation [N] [treeType] [balanceType] [degrees] [seed] [peersPerGateway] [trace]</code>,
+ * the degrees separated by commas, 0 peers per gateway for contacting the
+ * tree server directly.
+ *
  * @author Evangelos
  */
 public class ClientServerTreeAggregation extends SimulatedExperiment {
     
     //Simulation Parameters
     private final static int runDuration=400;
-    private final static int N=10;
-    private final static int[] v=new int[]{3};
+    private static int N=10;
+    private static int[] v=new int[]{3};
+    private static int peersPerGateway=0; // 0: peers contact the tree server directly
+    private final static int gatewayFlushDelay=500;
+    private final static int maxHeight=0; // 0: unbounded height
+    private final static int maxOvershoot=0;
     
     private static final RankPriority priority=RankPriority.HIGH_RANK;
     private static final DescriptorType descriptor=DescriptorType.RANK;
-    private static final TreeType type=TreeType.SORTED_HtL;
-    private static final BalanceType balance=BalanceType.LIST;
+    private static TreeType type=TreeType.SORTED_HtL;
+    private static BalanceType balance=BalanceType.LIST;
+    private static TreeServer server;
+    private static List<TreeGateway> gateways=new ArrayList<TreeGateway>();
+    private static List<Aggregator> aggregators=new ArrayList<Aggregator>();
+    private static double sum=0;
+    private static MessageTraceWriter traceWriter=null;
 
-    public static void main(String[] args) {
-        
+    public static void main(String[] args) throws IOException {
+        if(args.length>0){
+            N=Integer.parseInt(args[0]);
+        }
+        if(args.length>1){
+            type=TreeType.valueOf(args[1]);
+        }
+        if(args.length>2){
+            balance=BalanceType.valueOf(args[2]);
+        }
+        if(args.length>3){
+            String[] degrees=args[3].split(",");
+            v=new int[degrees.length];
+            for(int i=0; i<degrees.length; i++){
+                v[i]=Integer.parseInt(degrees[i]);
+            }
+        }
         System.out.println("System started.");
         Experiment.initEnvironment();
+        long seed=MainConfiguration.getSingleton().masterSeed;
+        if(args.length>4){
+            seed=Long.parseLong(args[4]);
+            RandomnessSource.init(seed);
+        }
+        if(args.length>5){
+            peersPerGateway=Integer.parseInt(args[5]);
+        }
+        if(args.length>6){
+            traceWriter=new MessageTraceWriter(new File(args[6]));
+        }
+        final Random random=new Random(seed);
         ClientServerTreeAggregation exp = new ClientServerTreeAggregation();
         exp.init();
         PeerFactory peerFactory=new PeerFactory() {
             public Peer createPeer(int peerIndex, Experiment experiment) {
                 Peer newPeer = new Peer(peerIndex);
+                if(traceWriter!=null){
+                    newPeer.addPeerlet(new MessageTracer(traceWriter, TreeViewRequest.class, TreeViewReply.class, AggregationMessage.class));
+                }
                 if (peerIndex == 0) {
-                   newPeer.addPeerlet(new TreeServer(N, priority, descriptor, type, balance));
+                   server=new TreeServer(N, priority, descriptor, type, balance, maxHeight, maxOvershoot);
+                   newPeer.addPeerlet(server);
+                }
+                NetworkAddress bootstrapAddress=Experiment.getSingleton().getAddressToBindTo(0);
+                if (peersPerGateway > 0 && peerIndex > 0) {
+                    int gatewayIndex=1+((peerIndex-1)/peersPerGateway)*peersPerGateway;
+                    if (peerIndex == gatewayIndex) {
+                        TreeGateway gateway=new TreeGateway(bootstrapAddress, Math.min(peersPerGateway, N-gatewayIndex), gatewayFlushDelay);
+                        gateways.add(gateway);
+                        newPeer.addPeerlet(gateway);
+                    }
+                    bootstrapAddress=Experiment.getSingleton().getAddressToBindTo(gatewayIndex);
                 }
-                newPeer.addPeerlet(new TreeClient(Experiment.getSingleton().getAddressToBindTo(0), new SimplePeerIdentifierGenerator(), Math.random(), v[(int)(Math.random()*v.length)]));
+                newPeer.addPeerlet(new TreeClient(bootstrapAddress, new SimplePeerIdentifierGenerator(), random.nextDouble(), v[random.nextInt(v.length)]));
                 newPeer.addPeerlet(new TreeProvider());
-                newPeer.addPeerlet(new Aggregator(Math.random(), 3000));
+                double value=random.nextDouble();
+                sum+=value;
+                Aggregator aggregator=new Aggregator(value, 3000);
+                aggregators.add(aggregator);
+                newPeer.addPeerlet(aggregator);
                 return newPeer;
             }
         };
@@ -78,6 +167,37 @@ public class ClientServerTreeAggregation extends SimulatedExperiment {
         exp.startPeers(0,N);
         //run the simulation
         exp.runSimulation(Time.inSeconds(runDuration));
+        if(traceWriter!=null){
+            traceWriter.close();
+        }
+        if(server.getTopologyStats()==null){
+            throw new IllegalStateException("The tree server did not build a tree of the "+N+" peers.");
+        }
+        TreeTopologyGenerator generator=server.getTopologyGenerator();
+        System.out.println("Tree height: "+generator.getHeight()+(generator.isHeightBoundMet() ? "" : " (height bound "+maxHeight+" not met)"));
+        System.out.println("Degree overshoot per parent: "+generator.getOvershoot()+", peers over their node degree: "+generator.getOvershoots().size());
+        System.out.println("Topology: "+server.getTopologyStats());
+        if(!gateways.isEmpty()){
+            int batches=0;
+            int batchedRequests=0;
+            for(TreeGateway gateway:gateways){
+                batches+=gateway.getBatches();
+                batchedRequests+=gateway.getBatchedRequests();
+            }
+            System.out.println("Gateways: "+gateways.size()+", batched requests: "+batchedRequests+" in "+batches+" batches");
+        }
+        int completed=0;
+        int correct=0;
+        for(Aggregator aggregator:aggregators){
+            if(aggregator.isComplete()){
+                completed++;
+                if(Math.abs(aggregator.getGlobal()-sum)<1e-9){
+                    correct++;
+                }
+            }
+        }
+        System.out.println("RESULT\t"+generator.getHeight()+"\t"+generator.getOvershoot()+"\t"+
+                (double)completed/N+"\t"+(double)correct/N);
 //        AETOSLogReplayer replayer=new AETOSLogReplayer("peersLog/"+folder.getName()+"/", 0, 50);
 
 
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package testApp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs a parameter sweep of the <code>ClientServerTreeAggregation</code> over
+ * network sizes, tree types, balance types, node degrees and the number of
+ * peers per <code>TreeGateway</code>, with several seeds per configuration, and merges the results in a single report.
+ *
+ * The experiments of ProtoPeer share the <code>Experiment</code> singleton and
+ * the global randomness source, so two of them cannot run in the same JVM at
+ * the same time. Each run is therefore an independent JVM with the same class
+ * path and working directory, and the runs are executed in parallel by a pool
+ * of threads, one per core by default. The randomness of each run derives
+ * from its seed, so a report is reproducible whatever the parallelism.
+ *
+ * The degree sets are separated by slashes and the degrees of a set by commas,
+ * e.g. <code>3/2,3,4,5</code>.
+ *
+ * A run that does not finish within the timeout, e.g. a topology that never
+ * converges, is killed and reported as failed, so that it does not hold a
+ * thread of the pool for the rest of the sweep.
+ *
+ * Usage: <code>ExperimentSweep [N1,N2,...] [types] [balances] [degreeSets] [peersPerGateway1,...] [seeds] [threads] [report] [timeout(s)]</code>
+ *
+ * @author Evangelos
+ */
+public class ExperimentSweep {
+
+    //Sweep Parameters
+    private static String[] networkSizes=new String[]{"10","100"};
+    private static String[] treeTypes=new String[]{"SORTED_HtL","RANDOM"};
+    private static String[] balanceTypes=new String[]{"WEIGHT_BALANCED","LIST"};
+    private static String[] degreeSets=new String[]{"3","2,3,4,5"};
+    private static String[] gatewaySizes=new String[]{"0","4"};
+    private static int seeds=2;
+    private static int threads=Runtime.getRuntime().availableProcessors();
+    private static String report=null;
+    private static int timeout=600;
+    private static final String experiment=ClientServerTreeAggregation.class.getName();
+
+    public static void main(String[] args) throws Exception {
+        if(args.length>0){
+            networkSizes=args[0].split(",");
+        }
+        if(args.length>1){
+            treeTypes=args[1].split(",");
+        }
+        if(args.length>2){
+            balanceTypes=args[2].split(",");
+        }
+        if(args.length>3){
+            degreeSets=args[3].split("/");
+        }
+        if(args.length>4){
+            gatewaySizes=args[4].split(",");
+        }
+        if(args.length>5){
+            seeds=Integer.parseInt(args[5]);
+        }
+        if(args.length>6){
+            threads=Integer.parseInt(args[6]);
+        }
+        if(args.length>7){
+            report=args[7];
+        }
+        if(args.length>8){
+            timeout=Integer.parseInt(args[8]);
+        }
+        List<String[]> configurations=new ArrayList<String[]>();
+        for(String N:networkSizes){
+            for(String type:treeTypes){
+                for(String balance:balanceTypes){
+                    for(String degrees:degreeSets){
+                        for(String gateways:gatewaySizes){
+                            for(int seed=1; seed<=seeds; seed++){
+                                configurations.add(new String[]{N, type, balance, degrees, Integer.toString(seed), gateways});
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        System.out.println("Running "+configurations.size()+" configurations with "+threads+" threads.");
+        long start=System.currentTimeMillis();
+        ExecutorService executor=Executors.newFixedThreadPool(threads);
+        List<Future<String>> results=new ArrayList<Future<String>>();
+        for(final String[] configuration:configurations){
+            results.add(executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return run(configuration);
+                }
+            }));
+        }
+        executor.shutdown();
+        PrintWriter out=new PrintWriter(System.out, true);
+        PrintWriter file=report==null ? null : new PrintWriter(new FileWriter(report));
+        String header="N\ttreeType\tbalanceType\tdegrees\tseed\tpeersPerGateway\theight\tovershoot\tcompleted\tcorrect";
+        print(out, file, header);
+        int failures=0;
+        for(int i=0; i<configurations.size(); i++){
+            String[] configuration=configurations.get(i);
+            String line=configuration[0]+"\t"+configuration[1]+"\t"+configuration[2]+"\t"+configuration[3]+"\t"+configuration[4]+"\t"+configuration[5]+"\t";
+            try{
+                line+=results.get(i).get();
+            }
+            catch(ExecutionException e){
+                failures++;
+                line+="FAILED: "+e.getCause().getMessage();
+            }
+            print(out, file, line);
+        }
+        if(file!=null){
+            file.close();
+        }
+        System.out.println("Sweep finished in "+(System.currentTimeMillis()-start)/1000.0+" s with "+failures+" failed runs.");
+    }
+
+    /**
+     * Runs a configuration in a new JVM and returns its measurements.
+     *
+     * @param configuration the arguments of the experiment
+     * @return the measurements of the <code>RESULT</code> line
+     * @throws IOException if the JVM cannot be started or does not print a
+     * result
+     * @throws InterruptedException if the thread is interrupted while waiting
+     * @throws TimeoutException if the JVM does not finish within the timeout
+     */
+    private static String run(String[] configuration) throws IOException, InterruptedException, TimeoutException{
+        List<String> command=new ArrayList<String>();
+        command.add(System.getProperty("java.home")+File.separator+"bin"+File.separator+"java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(experiment);
+        for(String argument:configuration){
+            command.add(argument);
+        }
+        ProcessBuilder builder=new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        Process process=builder.start();
+        final BufferedReader in=new BufferedReader(new InputStreamReader(process.getInputStream()));
+        final String[] results=new String[1];
+        Thread reader=new Thread(new Runnable() {
+            public void run() {
+                try{
+                    String line;
+                    while((line=in.readLine())!=null){
+                        if(line.startsWith("RESULT\t")){
+                            results[0]=line.substring("RESULT\t".length());
+                        }
+                    }
+                    in.close();
+                }
+                catch(IOException e){
+                    //the output is closed when the process is killed
+                }
+            }
+        });
+        reader.start();
+        if(!process.waitFor(timeout, TimeUnit.SECONDS)){
+            process.destroyForcibly().waitFor();
+            reader.join();
+            throw new TimeoutException("Killed after "+timeout+" s");
+        }
+        reader.join();
+        int exitCode=process.exitValue();
+        String result=results[0];
+        if(result==null){
+            throw new IOException("No result, exit code "+exitCode);
+        }
+        return result;
+    }
+
+    private static void print(PrintWriter out, PrintWriter file, String line){
+        out.println(line);
+        if(file!=null){
+            file.println(line);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package testApp;
+
+import protopeer.BasePeerlet;
+import protopeer.Experiment;
+import protopeer.network.Message;
+import protopeer.time.Timer;
+import protopeer.time.TimerListener;
+import protopeer.util.quantities.Time;
+import tree.centralized.server.CompactTreeTopology;
+
+/**
+ * A memory-lean aggregator for simulating millions of peers in a single JVM.
+ * The peer with index i of the experiment is the peer i of a shared
+ * <code>CompactTreeTopology</code> and has the value i of a shared array of
+ * values. Instead of a tree view with fingers, the aggregator reads its parent
+ * and children from the topology and resolves their addresses from their
+ * indices when sending. The state of a peer is the number of aggregates
+ * received and the aggregate.
+ *
+ * A leaf sends its value to the parent once all peers are started, so that
+ * the parent is started when it arrives. The timer of the leaf is not kept
+ * afterwards. A peer sends the
+ * aggregate of its subtree once all children reported, and the root
+ * broadcasts the global value, which every peer forwards to its children: one
+ * <code>AggregationMessage</code> per tree edge in each direction. The
+ * broadcast is told apart from the aggregates of the children, as the parent
+ * can only send it after it counted the aggregate of the peer.
+ *
+ * @author Evangelos
+ */
+public class LeanAggregator extends BasePeerlet{
+
+    private final CompactTreeTopology topology;
+    private final double[] values;
+    private int reports=0;
+    private double aggregate;
+    private boolean complete=false;
+
+    /**
+     * Initializes the aggregator over the shared topology and values.
+     *
+     * @param topology the topology of all the peers
+     * @param values the value of each peer
+    */
+    public LeanAggregator(CompactTreeTopology topology, double[] values){
+        this.topology=topology;
+        this.values=values;
+    }
+
+    /**
+     * Starts the aggregation: a leaf schedules sending its value to the parent
+     * after the start of all peers.
+     */
+    @Override
+    public void start() {
+        super.start();
+        int peer=getPeer().getIndexNumber();
+        this.aggregate=this.values[peer];
+        if(this.topology.getNumOfChildren(peer)==0){
+            Timer leafTimer=getPeer().getClock().createNewTimer();
+            leafTimer.addTimerListener(new TimerListener() {
+                public void timerExpired(Timer timer) {
+                    report();
+                }
+            });
+            leafTimer.schedule(Time.inMilliseconds(0));
+        }
+    }
+
+    /**
+     * Counts the aggregate of a child, or keeps and forwards the broadcast of
+     * the global value after all children reported.
+     *
+     * @param message the received message
+    */
+    @Override
+    public void handleIncomingMessage(Message message) {
+        if(!(message instanceof AggregationMessage) || this.complete){
+            return;
+        }
+        int peer=getPeer().getIndexNumber();
+        AggregationMessage received=(AggregationMessage)message;
+        if(this.reports<this.topology.getNumOfChildren(peer)){
+            this.aggregate+=received.aggregate;
+            this.reports++;
+            if(this.reports==this.topology.getNumOfChildren(peer)){
+                this.report();
+            }
+        }
+        else{
+            this.aggregate=received.aggregate;
+            this.broadcast();
+        }
+    }
+
+    /**
+     * Sends the aggregate of the subtree to the parent, or starts the
+     * broadcast at the root.
+     */
+    private void report(){
+        int parent=this.topology.getParent(getPeer().getIndexNumber());
+        if(parent<0){
+            this.broadcast();
+            return;
+        }
+        AggregationMessage message=new AggregationMessage();
+        message.aggregate=this.aggregate;
+        getPeer().sendMessage(Experiment.getSingleton().getAddressToBindTo(parent), message);
+    }
+
+    /**
+     * Completes the aggregation with the global value and sends it to the
+     * children.
+     */
+    private void broadcast(){
+        this.complete=true;
+        int peer=getPeer().getIndexNumber();
+        AggregationMessage message=new AggregationMessage();
+        message.aggregate=this.aggregate;
+        for(int i=0; i<this.topology.getNumOfChildren(peer); i++){
+            getPeer().sendMessage(Experiment.getSingleton().getAddressToBindTo(this.topology.getChild(peer, i)), message);
+        }
+    }
+
+    /**
+     * @return true if the peer received the global value
+     */
+    public boolean isComplete(){
+        return this.complete;
+    }
+
+    /**
+     * @return the aggregate of the subtree, or the global value after the
+     * aggregation
+     */
+    public double getAggregate(){
+        return this.aggregate;
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package testApp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.Map.Entry;
+import dsutil.generic.RankPriority;
+import dsutil.protopeer.FingerDescriptor;
+import dsutil.protopeer.services.topology.trees.DescriptorType;
+import dsutil.protopeer.services.topology.trees.TreeProvider;
+import dsutil.protopeer.services.topology.trees.TreeType;
+import protopeer.Experiment;
+import protopeer.Finger;
+import protopeer.Peer;
+import protopeer.PeerFactory;
+import protopeer.RingIdentifier;
+import protopeer.SimulatedExperiment;
+import protopeer.network.IntegerNetworkAddress;
+import protopeer.network.NetworkAddress;
+import protopeer.servers.bootstrap.SimplePeerIdentifierGenerator;
+import protopeer.util.quantities.Time;
+import tree.BalanceType;
+import tree.centralized.client.TreeClient;
+import tree.centralized.server.CompactTreeTopology;
+import tree.centralized.server.TreeServer;
+import tree.centralized.server.TreeTopologyAnalyzer;
+import tree.centralized.server.TreeTopologyGenerator;
+import tree.centralized.server.TreeTopologyStats;
+import tree.centralized.server.TreeViewFacilitator;
+
+/**
+ * A memory-lean mode of the client-server tree aggregation for simulating
+ * millions of peers in a single JVM. Both modes are ProtoPeer simulations
+ * with a <code>Peer</code> per peer and one message per tree edge in each
+ * direction, bottom-up for the aggregates and top-down for the broadcast of
+ * the global value.
+ *
+ * In the full mode, the peers run the <code>TreeClient</code>, the
+ * <code>TreeProvider</code> and the <code>Aggregator</code>, and the
+ * <code>TreeServer</code> builds the tree, as in the
+ * <code>ClientServerTreeAggregation</code>. In the lean mode, the tree is a
+ * <code>CompactTreeTopology</code> over shared arrays of ranks, node degrees
+ * and values, and each peer runs only a <code>LeanAggregator</code> that
+ * reads its parent and children from it. The topology of the lean mode is
+ * checked to be the same as the one of the generator, also by the
+ * <code>TreeTopologyAnalyzer</code>.
+ *
+ * The memory of each mode is measured on the same terms: the heap retained
+ * after the simulation, with the peers, their peerlets and the tree, divided
+ * by the number of peers. The experiment also prints the number of peers that
+ * fit in the maximum heap of the JVM at this cost, which shows whether a
+ * million peers can be simulated in the full mode.
+ *
+ * Usage: <code>LightweightTreeAggregation [N] [fullN]</code>
+ *
+ * @author Evangelos
+ */
+public class LightweightTreeAggregation extends SimulatedExperiment {
+
+    //Simulation Parameters
+    private static int N=1000000;
+    private static int fullN=100000;
+    private final static int[] v=new int[]{3};
+    private final static int runDuration=60;
+
+    private static final RankPriority priority=RankPriority.HIGH_RANK;
+    private static final DescriptorType descriptor=DescriptorType.RANK;
+    private static final TreeType type=TreeType.SORTED_HtL;
+    private static final BalanceType balance=BalanceType.WEIGHT_BALANCED;
+
+    public static void main(String[] args) {
+        if(args.length>0){
+            N=Integer.parseInt(args[0]);
+        }
+        if(args.length>1){
+            fullN=Integer.parseInt(args[1]);
+        }
+        System.out.println("System started.");
+        Experiment.initEnvironment();
+        checkTopology(Math.min(fullN, 10000));
+        System.out.println("Topologies: OK");
+        System.out.println("mode\tN\tbytes/peer\tpeers/max heap\theight\tmessages\tsimulation(ms)\tcorrect");
+        measureFull(fullN);
+        measureLean(N);
+        System.out.println("System finished.");
+    }
+
+    /**
+     * Builds the lean topology, simulates one aggregation with a
+     * <code>LeanAggregator</code> per peer and prints the measurements.
+     *
+     * @param N the number of peers
+     */
+    private static void measureLean(int N){
+        LightweightTreeAggregation exp=new LightweightTreeAggregation();
+        exp.init();
+        Random random=new Random(N);
+        long before=usedMemory();
+        long start=System.nanoTime();
+        double[] ranks=new double[N];
+        int[] degrees=new int[N];
+        final double[] values=new double[N];
+        double sum=0;
+        for(int i=0; i<N; i++){
+            ranks[i]=random.nextDouble();
+            degrees[i]=v[random.nextInt(v.length)];
+            values[i]=random.nextDouble();
+            sum+=values[i];
+        }
+        final CompactTreeTopology topology=new CompactTreeTopology(ranks, degrees, priority, type, balance, random);
+        final List<LeanAggregator> aggregators=new ArrayList<LeanAggregator>(N);
+        exp.initPeers(0, N, new PeerFactory() {
+            public Peer createPeer(int peerIndex, Experiment experiment) {
+                Peer newPeer=new Peer(peerIndex);
+                LeanAggregator aggregator=new LeanAggregator(topology, values);
+                aggregators.add(aggregator);
+                newPeer.addPeerlet(aggregator);
+                return newPeer;
+            }
+        });
+        exp.startPeers(0, N);
+        exp.runSimulation(Time.inSeconds(runDuration));
+        double simulationTime=(System.nanoTime()-start)/1e6;
+        long retained=(usedMemory()-before)/N;
+        boolean correct=true;
+        for(LeanAggregator aggregator:aggregators){
+            correct&=aggregator.isComplete() && Math.abs(aggregator.getAggregate()-sum)<=1e-9*Math.abs(sum);
+        }
+        System.out.println("lean\t"+N+"\t"+retained+"\t"+Runtime.getRuntime().maxMemory()/retained+"\t"+topology.getHeight()+"\t"+
+                2*(N-1)+"\t"+(long)simulationTime+"\t"+correct);
+    }
+
+    /**
+     * Simulates the tree construction by the tree server and one aggregation
+     * with the tree client, the tree provider and an aggregator per peer and
+     * prints the measurements.
+     *
+     * @param N the number of peers
+     */
+    private static void measureFull(final int N){
+        LightweightTreeAggregation exp=new LightweightTreeAggregation();
+        exp.init();
+        final Random random=new Random(N);
+        long before=usedMemory();
+        long start=System.nanoTime();
+        final List<TreeServer> servers=new ArrayList<TreeServer>();
+        final List<Aggregator> aggregators=new ArrayList<Aggregator>(N);
+        final double[] sum=new double[1];
+        final NetworkAddress serverAddress=exp.getAddressToBindTo(0);
+        exp.initPeers(0, N, new PeerFactory() {
+            public Peer createPeer(int peerIndex, Experiment experiment) {
+                Peer newPeer=new Peer(peerIndex);
+                if(peerIndex==0){
+                    servers.add(new TreeServer(N, priority, descriptor, type, balance));
+                    newPeer.addPeerlet(servers.get(0));
+                }
+                newPeer.addPeerlet(new TreeClient(serverAddress, new SimplePeerIdentifierGenerator(), random.nextDouble(), v[random.nextInt(v.length)]));
+                newPeer.addPeerlet(new TreeProvider());
+                double value=random.nextDouble();
+                sum[0]+=value;
+                Aggregator aggregator=new Aggregator(value, 3000);
+                aggregators.add(aggregator);
+                newPeer.addPeerlet(aggregator);
+                return newPeer;
+            }
+        });
+        exp.startPeers(0, N);
+        exp.runSimulation(Time.inSeconds(runDuration));
+        double simulationTime=(System.nanoTime()-start)/1e6;
+        long retained=(usedMemory()-before)/N;
+        boolean correct=true;
+        for(Aggregator aggregator:aggregators){
+            correct&=aggregator.isComplete() && Math.abs(aggregator.getGlobal()-sum[0])<=1e-9*Math.abs(sum[0]);
+        }
+        System.out.println("full\t"+N+"\t"+retained+"\t"+Runtime.getRuntime().maxMemory()/retained+"\t"+
+                servers.get(0).getTopologyGenerator().getHeight()+"\t"+2*(N-1)+"\t"+(long)simulationTime+"\t"+correct);
+    }
+
+    /**
+     * Checks that the lean topology has the same parents as the one of the
+     * topology generator.
+     *
+     * @param N the number of peers
+     */
+    private static void checkTopology(int N){
+        Random random=new Random(N);
+        double[] ranks=new double[N];
+        int[] degrees=new int[N];
+        FingerDescriptor[] descriptors=new FingerDescriptor[N];
+        Set<FingerDescriptor> peers=new HashSet<FingerDescriptor>();
+        for(int i=0; i<N; i++){
+            ranks[i]=random.nextDouble();
+            degrees[i]=2+random.nextInt(4);
+            descriptors[i]=descriptor(i, ranks[i], degrees[i]);
+            peers.add(descriptors[i]);
+        }
+        TreeTopologyGenerator generator=new TreeTopologyGenerator(priority, descriptor, type, balance);
+        Map<FingerDescriptor,TreeViewFacilitator> views=new HashMap<FingerDescriptor,TreeViewFacilitator>();
+        for(Entry<FingerDescriptor,TreeViewFacilitator> view:generator.generateTopology(peers)){
+            views.put(view.getKey(), view.getValue());
+        }
+        CompactTreeTopology topology=new CompactTreeTopology(ranks, degrees, priority, type, balance, random);
+        for(int i=0; i<N; i++){
+            FingerDescriptor parent=views.get(descriptors[i]).getParent();
+            int leanParent=topology.getParent(i);
+            if((parent==null) != (leanParent<0) || (parent!=null && !parent.equals(descriptors[leanParent]))){
+                throw new IllegalStateException("Parent of peer "+i+" differs from the topology generator.");
+            }
+        }
+        if(topology.getHeight()!=generator.getHeight()){
+            throw new IllegalStateException("Height differs from the topology generator.");
+        }
+        TreeTopologyAnalyzer analyzer=new TreeTopologyAnalyzer(priority, descriptor);
+        TreeTopologyStats stats=analyzer.analyze(views);
+        TreeTopologyStats leanStats=analyzer.analyze(topology);
+        if(!stats.toString().equals(leanStats.toString())){
+            throw new IllegalStateException("Stats differ from the topology generator: "+stats+" "+leanStats);
+        }
+    }
+
+    private static FingerDescriptor descriptor(int index, double rank, int degree){
+        FingerDescriptor descriptor=new FingerDescriptor(new Finger(new IntegerNetworkAddress(index), new RingIdentifier(rank)));
+        descriptor.addDescriptor(DescriptorType.RANK, rank);
+        descriptor.addDescriptor(DescriptorType.NODE_DEGREE, degree);
+        return descriptor;
+    }
+
+    /**
+     * Returns the heap memory in use after a garbage collection.
+     */
+    private static long usedMemory(){
+        Runtime runtime=Runtime.getRuntime();
+        for(int i=0; i<3; i++){
+            System.gc();
+        }
+        return runtime.totalMemory()-runtime.freeMemory();
+    }
+}
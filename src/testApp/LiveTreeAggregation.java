@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package testApp;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import protopeer.Experiment;
+import protopeer.LiveExperiment;
+import protopeer.MainConfiguration;
+import protopeer.Peer;
+import protopeer.PeerFactory;
+import dsutil.generic.RankPriority;
+import protopeer.Finger;
+import protopeer.network.Message;
+import protopeer.network.NetworkAddress;
+import protopeer.network.mina.MinaAddress;
+import protopeer.servers.bootstrap.PeerIdentifierGenerator;
+import protopeer.servers.bootstrap.SimplePeerIdentifierGenerator;
+import dsutil.protopeer.FingerDescriptor;
+import dsutil.protopeer.services.topology.trees.DescriptorType;
+import dsutil.protopeer.services.topology.trees.TreeProvider;
+import dsutil.protopeer.services.topology.trees.TreeType;
+import tree.BalanceType;
+import tree.centralized.TreeViewRequest;
+import tree.centralized.client.TreeClient;
+import tree.centralized.server.TreeServer;
+
+/**
+ * Performs the client-server tree aggregation over the real network layer of
+ * ProtoPeer. All peers are bound on consecutive ports of the loopback
+ * interface, starting from the port of peer zero. The experiment can be split
+ * in several JVMs by giving each of them a different range of peer indices.
+ * The JVM hosting the peer with index 0 also hosts the <code>TreeServer</code>.
+ * The ranks and node degrees of the local peers are drawn from a seed derived
+ * from the master seed and the first index, so that the JVMs do not repeat the
+ * same ranks.
+ *
+ * Usage: <code>LiveTreeAggregation [N] [firstIndex] [count] [T]</code>
+ *
+ * The experiment reports the wall-clock bootstrapping time, the percentiles of
+ * the tree view and aggregation latencies of the local peers and the CPU time
+ * the server spends for handling the tree view requests.
+ *
+ * @author Evangelos
+ */
+public class LiveTreeAggregation extends LiveExperiment {
+
+    //Experiment Parameters
+    private static int N=200;
+    private static int firstIndex=0;
+    private static int count=N;
+    private static int T=1000;
+    private final static int timeout=300;
+    private final static int[] v=new int[]{3};
+
+    private static final RankPriority priority=RankPriority.HIGH_RANK;
+    private static final DescriptorType descriptor=DescriptorType.RANK;
+    private static final TreeType type=TreeType.SORTED_HtL;
+    private static final BalanceType balance=BalanceType.WEIGHT_BALANCED;
+
+    //Measurements
+    private static final List<Double> viewLatencies=Collections.synchronizedList(new ArrayList<Double>());
+    private static final List<Double> aggregationLatencies=Collections.synchronizedList(new ArrayList<Double>());
+    private static final ThreadMXBean threads=ManagementFactory.getThreadMXBean();
+    private static long firstRequestTime=Long.MAX_VALUE;
+    private static long lastViewTime=0;
+    private static long serverCpuTime=0;
+    private static int serverMessages=0;
+
+    /**
+     * Binds each peer on the loopback port <code>peerZeroPort + peerIndex</code>.
+     *
+     * @param peerIndex the index of the peer
+     * @return the network address of the peer
+     */
+    @Override
+    public NetworkAddress getAddressToBindTo(int peerIndex){
+        MainConfiguration conf=MainConfiguration.getSingleton();
+        return new MinaAddress(conf.peerZeroIP, conf.peerZeroPort+peerIndex);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if(args.length>0){
+            N=Integer.parseInt(args[0]);
+            count=N;
+        }
+        if(args.length>1){
+            firstIndex=Integer.parseInt(args[1]);
+            count=N-firstIndex;
+        }
+        if(args.length>2){
+            count=Integer.parseInt(args[2]);
+        }
+        if(args.length>3){
+            T=Integer.parseInt(args[3]);
+        }
+        System.out.println("System started.");
+        Experiment.initEnvironment();
+        MainConfiguration.getSingleton().liveRun=true;
+        LiveTreeAggregation exp=new LiveTreeAggregation();
+        exp.init();
+        final NetworkAddress serverAddress=exp.getAddressToBindTo(0);
+        final Random random=new Random(MainConfiguration.getSingleton().masterSeed^(firstIndex*0x9E3779B97F4A7C15L));
+        PeerFactory peerFactory=new PeerFactory() {
+            public Peer createPeer(int peerIndex, Experiment experiment) {
+                Peer newPeer = new Peer(peerIndex);
+                if (peerIndex == 0) {
+                   newPeer.addPeerlet(new TimedTreeServer(N, priority, descriptor, type, balance));
+                }
+                newPeer.addPeerlet(new TimedTreeClient(serverAddress, new SimplePeerIdentifierGenerator(), random.nextDouble(), v[random.nextInt(v.length)]));
+                newPeer.addPeerlet(new TreeProvider());
+                newPeer.addPeerlet(new TimedAggregator(random.nextDouble(), T));
+                return newPeer;
+            }
+        };
+        exp.initPeers(firstIndex,count,peerFactory);
+        exp.startPeers(firstIndex,count);
+        long deadline=System.currentTimeMillis()+timeout*1000L;
+        while(aggregationLatencies.size()<count && System.currentTimeMillis()<deadline){
+            Thread.sleep(100);
+        }
+        report();
+        System.out.println("System finished.");
+        System.exit(0);
+    }
+
+    /**
+     * Prints the measurements collected from the local peers.
+     */
+    private static synchronized void report(){
+        System.out.println("Local peers: "+count+" of "+N);
+        System.out.println("Tree views received: "+viewLatencies.size());
+        System.out.println("Aggregations completed: "+aggregationLatencies.size());
+        if(lastViewTime>0){
+            System.out.println("Bootstrapping time (ms): "+(lastViewTime-firstRequestTime)/1e6);
+        }
+        printPercentiles("Tree view latency (ms)", viewLatencies);
+        printPercentiles("Aggregation latency (ms)", aggregationLatencies);
+        if(firstIndex==0){
+            System.out.println("Server requests handled: "+serverMessages);
+            System.out.println("Server CPU time (ms): "+serverCpuTime/1e6);
+        }
+    }
+
+    /**
+     * Prints the 50th, 90th, 99th percentile and the maximum of the latencies.
+     *
+     * @param label the name of the measurement
+     * @param latencies the measured latencies in milliseconds
+     */
+    private static void printPercentiles(String label, List<Double> latencies){
+        List<Double> sorted=new ArrayList<Double>(latencies);
+        if(sorted.isEmpty()){
+            return;
+        }
+        Collections.sort(sorted);
+        System.out.println(label+": p50="+percentile(sorted, 50)+" p90="+percentile(sorted, 90)+
+                " p99="+percentile(sorted, 99)+" max="+sorted.get(sorted.size()-1));
+    }
+
+    /**
+     * Computes the nearest-rank percentile of a sorted list.
+     *
+     * @param sorted the sorted values
+     * @param p the percentile in [0,100]
+     * @return the value at the percentile
+     */
+    private static double percentile(List<Double> sorted, double p){
+        int index=(int)Math.ceil(p/100.0*sorted.size())-1;
+        return sorted.get(Math.max(0, index));
+    }
+
+    /**
+     * Tree server measuring the CPU time of the thread that handles the
+     * incoming requests, including the topology generation and the replies.
+     */
+    private static class TimedTreeServer extends TreeServer{
+
+        public TimedTreeServer(int N, RankPriority priority, DescriptorType descrType, TreeType treeType, BalanceType balanceType){
+            super(N, priority, descrType, treeType, balanceType);
+        }
+
+        @Override
+        public void handleIncomingMessage(Message message) {
+            if(!(message instanceof TreeViewRequest)){
+                super.handleIncomingMessage(message);
+                return;
+            }
+            long start=threads.getCurrentThreadCpuTime();
+            super.handleIncomingMessage(message);
+            long cpu=threads.getCurrentThreadCpuTime()-start;
+            synchronized(LiveTreeAggregation.class){
+                serverCpuTime+=cpu;
+                serverMessages++;
+            }
+        }
+    }
+
+    /**
+     * Tree client measuring the time from sending the request until the tree
+     * view is delivered.
+     */
+    private static class TimedTreeClient extends TreeClient{
+
+        private long requestTime;
+
+        public TimedTreeClient(NetworkAddress bootstrapServerAddress, PeerIdentifierGenerator idGenerator, double rank, int dMax){
+            super(bootstrapServerAddress, idGenerator, rank, dMax);
+        }
+
+        @Override
+        public void start() {
+            this.requestTime=System.nanoTime();
+            synchronized(LiveTreeAggregation.class){
+                firstRequestTime=Math.min(firstRequestTime, requestTime);
+            }
+            super.start();
+        }
+
+        @Override
+        public void deliverTreeView(FingerDescriptor parent, List<FingerDescriptor> children){
+            long now=System.nanoTime();
+            viewLatencies.add((now-requestTime)/1e6);
+            synchronized(LiveTreeAggregation.class){
+                lastViewTime=Math.max(lastViewTime, now);
+            }
+            super.deliverTreeView(parent, children);
+        }
+    }
+
+    /**
+     * Aggregator measuring the time from the start of the aggregation, i.e.
+     * after the waiting time T, until the global value is received.
+     */
+    private static class TimedAggregator extends Aggregator{
+
+        private final int delay;
+        private long viewTime;
+
+        public TimedAggregator(double value, int T){
+            super(value, T);
+            this.delay=T;
+        }
+
+        @Override
+        public void setTreeView(Finger parent, List<Finger> children){
+            this.viewTime=System.nanoTime();
+            super.setTreeView(parent, children);
+        }
+
+        @Override
+        public void handleIncomingMessage(Message message) {
+            boolean complete=this.isComplete();
+            super.handleIncomingMessage(message);
+            if(!complete && this.isComplete()){
+                aggregationLatencies.add((System.nanoTime()-viewTime)/1e6-delay);
+            }
+        }
+    }
+}
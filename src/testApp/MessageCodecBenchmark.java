@@ -0,0 +1,409 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package testApp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import dsutil.protopeer.FingerDescriptor;
+import dsutil.protopeer.services.topology.trees.DescriptorType;
+import protopeer.Finger;
+import protopeer.RingIdentifier;
+import protopeer.network.Message;
+import protopeer.network.NetworkAddress;
+import protopeer.network.mina.MinaAddress;
+import tree.MessageCodec;
+import tree.centralized.TreeViewBatchReply;
+import tree.centralized.TreeViewBatchRequest;
+import tree.centralized.TreeViewReply;
+import tree.centralized.TreeViewRequest;
+
+/**
+ * Compares the compact binary encoding of the messages with the default Java
+ * serialization they had before, for the tree view request and reply, their
+ * batched versions of the <code>TreeGateway</code> and the aggregation
+ * message. Each message is checked to survive a round trip with all its
+ * fields, and the serialized size and the encoding and decoding throughput
+ * of both formats are printed. The default format is reproduced with message
+ * classes having the same fields. The other messages in the compact encoding,
+ * of the range queries, the streaming and batched aggregation and the chunked
+ * broadcast, are checked to survive a round trip too, and a reference to an
+ * unknown address is checked to fail with an <code>IOException</code>.
+ *
+ * Usage: <code>MessageCodecBenchmark [iterations] [children] [batchSize]</code>
+ *
+ * @author Evangelos
+ */
+public class MessageCodecBenchmark {
+
+    private static int iterations=100000;
+    private static int numOfChildren=2;
+    private static int batchSize=8;
+    private static final Random random=new Random(1);
+
+    public static void main(String[] args) throws Exception {
+        if(args.length>0){
+            iterations=Integer.parseInt(args[0]);
+        }
+        if(args.length>1){
+            numOfChildren=Integer.parseInt(args[1]);
+        }
+        if(args.length>2){
+            batchSize=Integer.parseInt(args[2]);
+        }
+        NetworkAddress server=address(0);
+        NetworkAddress client=address(1);
+
+        TreeViewRequest request=new TreeViewRequest();
+        request.sourceDescriptor=descriptor(1);
+        address(request, client, server);
+        DefaultTreeViewRequest defaultRequest=new DefaultTreeViewRequest();
+        defaultRequest.sourceDescriptor=request.sourceDescriptor;
+        address(defaultRequest, client, server);
+
+        TreeViewReply reply=reply();
+        address(reply, server, client);
+        DefaultTreeViewReply defaultReply=defaultReply(reply);
+        address(defaultReply, server, client);
+
+        NetworkAddress gateway=address(numOfChildren+3);
+        TreeViewBatchRequest batchRequest=new TreeViewBatchRequest();
+        batchRequest.sourceDescriptors=new ArrayList<FingerDescriptor>();
+        TreeViewBatchReply batchReply=new TreeViewBatchReply();
+        batchReply.destinations=new ArrayList<FingerDescriptor>();
+        batchReply.views=new ArrayList<TreeViewReply>();
+        DefaultTreeViewBatchReply defaultBatchReply=new DefaultTreeViewBatchReply();
+        defaultBatchReply.destinations=batchReply.destinations;
+        defaultBatchReply.views=new ArrayList<DefaultTreeViewReply>();
+        for(int i=0; i<batchSize; i++){
+            FingerDescriptor peer=descriptor(numOfChildren+4+i);
+            batchRequest.sourceDescriptors.add(peer);
+            batchReply.destinations.add(peer);
+            TreeViewReply view=reply();
+            batchReply.views.add(view);
+            defaultBatchReply.views.add(defaultReply(view));
+        }
+        address(batchRequest, gateway, server);
+        DefaultTreeViewBatchRequest defaultBatchRequest=new DefaultTreeViewBatchRequest();
+        defaultBatchRequest.sourceDescriptors=batchRequest.sourceDescriptors;
+        address(defaultBatchRequest, gateway, server);
+        address(batchReply, server, gateway);
+        address(defaultBatchReply, server, gateway);
+
+        AggregationMessage aggregation=new AggregationMessage();
+        aggregation.aggregate=random.nextDouble();
+        aggregation.version=random.nextInt(1000);
+        aggregation.root=server;
+        aggregation.round=random.nextInt(10);
+        address(aggregation, client, address(2));
+        DefaultAggregationMessage defaultAggregation=new DefaultAggregationMessage();
+        defaultAggregation.aggregate=aggregation.aggregate;
+        defaultAggregation.version=aggregation.version;
+        defaultAggregation.root=aggregation.root;
+        defaultAggregation.round=aggregation.round;
+        address(defaultAggregation, client, address(2));
+
+        TreeViewRequest decodedRequest=(TreeViewRequest)decode(encode(request));
+        check(request.sourceDescriptor, decodedRequest.sourceDescriptor);
+        checkHeader(request, decodedRequest);
+        TreeViewReply decodedReply=(TreeViewReply)decode(encode(reply));
+        check(reply, decodedReply);
+        checkHeader(reply, decodedReply);
+        TreeViewBatchRequest decodedBatchRequest=(TreeViewBatchRequest)decode(encode(batchRequest));
+        check(batchRequest.sourceDescriptors, decodedBatchRequest.sourceDescriptors);
+        checkHeader(batchRequest, decodedBatchRequest);
+        TreeViewBatchReply decodedBatchReply=(TreeViewBatchReply)decode(encode(batchReply));
+        check(batchReply.destinations, decodedBatchReply.destinations);
+        if(batchReply.views.size()!=decodedBatchReply.views.size()){
+            throw new IllegalStateException("Views differ after the round trip.");
+        }
+        for(int i=0; i<batchReply.views.size(); i++){
+            check(batchReply.views.get(i), decodedBatchReply.views.get(i));
+        }
+        checkHeader(batchReply, decodedBatchReply);
+        checkRoundTrip(aggregation);
+        for(Message message:otherMessages(client, server)){
+            checkRoundTrip(message);
+        }
+        checkUnknownAddress();
+        System.out.println("Round trips: OK");
+
+        System.out.println("message\tformat\tbytes\tencode/s\tdecode/s");
+        measure("TreeViewRequest", "default", defaultRequest);
+        measure("TreeViewRequest", "compact", request);
+        measure("TreeViewReply", "default", defaultReply);
+        measure("TreeViewReply", "compact", reply);
+        measure("AggregationMessage", "default", defaultAggregation);
+        measure("AggregationMessage", "compact", aggregation);
+        measure("TreeViewBatchRequest", "default", defaultBatchRequest);
+        measure("TreeViewBatchRequest", "compact", batchRequest);
+        measure("TreeViewBatchReply", "default", defaultBatchReply);
+        measure("TreeViewBatchReply", "compact", batchReply);
+    }
+
+    /**
+     * Creates a tree view reply with a parent, the children and a
+     * backup parent.
+     */
+    private static TreeViewReply reply() throws IOException{
+        TreeViewReply reply=new TreeViewReply();
+        reply.parent=descriptor(2);
+        reply.children=new ArrayList<FingerDescriptor>();
+        for(int i=0; i<numOfChildren; i++){
+            reply.children.add(descriptor(3+i));
+        }
+        reply.backup=descriptor(1);
+        reply.epoch=System.currentTimeMillis();
+        return reply;
+    }
+
+    /**
+     * Creates the other messages in the compact encoding with random fields.
+     */
+    private static List<Message> otherMessages(NetworkAddress source, NetworkAddress destination){
+        List<Message> messages=new ArrayList<Message>();
+        RangeQuery rangeQuery=new RangeQuery();
+        rangeQuery.origin=destination;
+        rangeQuery.queryId=random.nextInt(1000);
+        rangeQuery.low=random.nextDouble();
+        rangeQuery.high=random.nextDouble();
+        messages.add(rangeQuery);
+        RangeReply rangeReply=new RangeReply();
+        rangeReply.origin=source;
+        rangeReply.queryId=random.nextInt(1000);
+        rangeReply.sum=random.nextDouble();
+        rangeReply.count=random.nextInt(1000);
+        messages.add(rangeReply);
+        RankBoundsMessage bounds=new RankBoundsMessage();
+        bounds.minRank=random.nextDouble();
+        bounds.maxRank=random.nextDouble();
+        messages.add(bounds);
+        messages.add(new RankBoundsRequest());
+        PaneSummaryMessage pane=new PaneSummaryMessage();
+        pane.pane=random.nextInt(100000);
+        pane.count=random.nextInt(1000);
+        pane.sum=random.nextDouble();
+        pane.min=-random.nextDouble();
+        pane.max=random.nextDouble();
+        messages.add(pane);
+        QueryBatchMessage queryBatch=new QueryBatchMessage();
+        queryBatch.startIds=new int[]{random.nextInt(1000), random.nextInt(1000)};
+        queryBatch.attributes=new int[]{0, random.nextInt(8)};
+        queryBatch.functions=new AggregationFunction[]{AggregationFunction.SUM, AggregationFunction.MAX};
+        queryBatch.resultIds=new int[]{random.nextInt(1000)};
+        queryBatch.results=new double[]{random.nextDouble()};
+        messages.add(queryBatch);
+        PartialBatchMessage partialBatch=new PartialBatchMessage();
+        partialBatch.queryIds=new int[]{random.nextInt(1000), random.nextInt(1000), random.nextInt(1000)};
+        partialBatch.partials=new double[]{random.nextDouble(), random.nextDouble(), random.nextDouble()};
+        messages.add(partialBatch);
+        BroadcastChunk chunk=new BroadcastChunk();
+        chunk.broadcastId=random.nextInt(1000);
+        chunk.index=random.nextInt(100);
+        chunk.chunkSize=64;
+        chunk.length=1000;
+        chunk.data=new byte[chunk.chunkSize];
+        random.nextBytes(chunk.data);
+        messages.add(chunk);
+        BroadcastAck ack=new BroadcastAck();
+        ack.broadcastId=chunk.broadcastId;
+        ack.index=chunk.index;
+        messages.add(ack);
+        for(Message message:messages){
+            address(message, source, destination);
+        }
+        return messages;
+    }
+
+    private static DefaultTreeViewReply defaultReply(TreeViewReply reply){
+        DefaultTreeViewReply defaultReply=new DefaultTreeViewReply();
+        defaultReply.parent=reply.parent;
+        defaultReply.children=reply.children;
+        defaultReply.backup=reply.backup;
+        defaultReply.epoch=reply.epoch;
+        return defaultReply;
+    }
+
+    /**
+     * Prints the serialized size and the encoding and decoding throughput of a
+     * message.
+     *
+     * @param name the name of the message
+     * @param format the name of the format
+     * @param message the message
+     * @throws Exception if the serialization fails
+     */
+    private static void measure(String name, String format, Message message) throws Exception{
+        byte[] bytes=encode(message);
+        for(int i=0; i<iterations/10; i++){
+            decode(encode(message));
+        }
+        long start=System.nanoTime();
+        for(int i=0; i<iterations; i++){
+            encode(message);
+        }
+        double encodeTime=(System.nanoTime()-start)/1e9;
+        start=System.nanoTime();
+        for(int i=0; i<iterations; i++){
+            decode(bytes);
+        }
+        double decodeTime=(System.nanoTime()-start)/1e9;
+        System.out.println(name+"\t"+format+"\t"+bytes.length+"\t"+(long)(iterations/encodeTime)+"\t"+(long)(iterations/decodeTime));
+    }
+
+    /**
+     * Serializes a message with a new object stream, as the network layer does
+     * for every message.
+     */
+    private static byte[] encode(Message message) throws IOException{
+        ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+        ObjectOutputStream out=new ObjectOutputStream(bytes);
+        out.writeObject(message);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static Message decode(byte[] bytes) throws IOException, ClassNotFoundException{
+        ObjectInputStream in=new ObjectInputStream(new ByteArrayInputStream(bytes));
+        return (Message)in.readObject();
+    }
+
+    private static void check(FingerDescriptor expected, FingerDescriptor decoded){
+        if(!expected.equals(decoded) || !expected.getDescriptors().equals(decoded.getDescriptors()) ||
+                !expected.getPeerIdentifier().equals(decoded.getPeerIdentifier())){
+            throw new IllegalStateException("Descriptor differs after the round trip: "+expected+" "+decoded);
+        }
+    }
+
+    private static void check(List<FingerDescriptor> expected, List<FingerDescriptor> decoded){
+        if(expected.size()!=decoded.size()){
+            throw new IllegalStateException("Descriptor lists differ after the round trip.");
+        }
+        for(int i=0; i<expected.size(); i++){
+            check(expected.get(i), decoded.get(i));
+        }
+    }
+
+    private static void check(TreeViewReply expected, TreeViewReply decoded){
+        check(expected.parent, decoded.parent);
+        check(expected.children, decoded.children);
+        check(expected.backup, decoded.backup);
+        if(expected.epoch!=decoded.epoch){
+            throw new IllegalStateException("Epoch differs after the round trip.");
+        }
+    }
+
+    /**
+     * Encodes and decodes a message and checks the source address and all the
+     * public fields of the message class.
+     */
+    private static void checkRoundTrip(Message message) throws Exception{
+        Message decoded=decode(encode(message));
+        checkHeader(message, decoded);
+        for(Field field:message.getClass().getDeclaredFields()){
+            if(!Modifier.isPublic(field.getModifiers()) || Modifier.isStatic(field.getModifiers())){
+                continue;
+            }
+            if(!Arrays.deepEquals(new Object[]{field.get(message)}, new Object[]{field.get(decoded)})){
+                throw new IllegalStateException(message.getClass().getSimpleName()+"."+field.getName()+" differs after the round trip.");
+            }
+        }
+    }
+
+    /**
+     * Checks that a reference to an address that is not in the address table
+     * fails with an <code>IOException</code>.
+     */
+    private static void checkUnknownAddress() throws Exception{
+        ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+        ObjectOutputStream out=new ObjectOutputStream(bytes);
+        MessageCodec.writeVarInt(out, 9);
+        out.close();
+        ObjectInputStream in=new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        try{
+            new MessageCodec().readAddress(in);
+        }
+        catch(IOException e){
+            return;
+        }
+        throw new IllegalStateException("An unknown address reference was read.");
+    }
+
+    /**
+     * Checks the source address, the only field of the base message that is
+     * not transient.
+     */
+    private static void checkHeader(Message expected, Message decoded){
+        if(!expected.getSourceAddress().equals(decoded.getSourceAddress())){
+            throw new IllegalStateException("Source address differs after the round trip.");
+        }
+    }
+
+    private static NetworkAddress address(int index) throws IOException{
+        return new MinaAddress(InetAddress.getByName("127.0.0.1"), 5555+index);
+    }
+
+    private static void address(Message message, NetworkAddress source, NetworkAddress destination){
+        message.setSourceAddress(source);
+        message.setDestinationAddress(destination);
+    }
+
+    private static FingerDescriptor descriptor(int index) throws IOException{
+        FingerDescriptor descriptor=new FingerDescriptor(new Finger(address(index), new RingIdentifier(random.nextDouble())));
+        descriptor.addDescriptor(DescriptorType.RANK, random.nextDouble());
+        descriptor.addDescriptor(DescriptorType.NODE_DEGREE, 3);
+        return descriptor;
+    }
+
+    private static class DefaultTreeViewRequest extends Message{
+        public FingerDescriptor sourceDescriptor;
+    }
+
+    private static class DefaultTreeViewReply extends Message{
+        public FingerDescriptor parent;
+        public List<FingerDescriptor> children;
+        public FingerDescriptor backup;
+        public long epoch;
+    }
+
+    private static class DefaultTreeViewBatchRequest extends Message{
+        public List<FingerDescriptor> sourceDescriptors;
+    }
+
+    private static class DefaultTreeViewBatchReply extends Message{
+        public List<FingerDescriptor> destinations;
+        public List<DefaultTreeViewReply> views;
+    }
+
+    private static class DefaultAggregationMessage extends Message{
+        public double aggregate;
+        public int version;
+        public NetworkAddress root;
+        public int round;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package testApp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import protopeer.Experiment;
+import protopeer.Peer;
+import protopeer.PeerFactory;
+import dsutil.generic.RankPriority;
+import protopeer.SimulatedExperiment;
+import protopeer.servers.bootstrap.SimplePeerIdentifierGenerator;
+import protopeer.util.quantities.Time;
+import dsutil.protopeer.services.topology.trees.DescriptorType;
+import dsutil.protopeer.services.topology.trees.TreeProvider;
+import dsutil.protopeer.services.topology.trees.TreeType;
+import tree.BalanceType;
+import tree.centralized.client.TreeClient;
+import tree.centralized.server.TreeServer;
+
+/**
+ * Runs an increasing number of concurrent queries over the
+ * <code>AggregationService</code>. For each number of queries, the experiment
+ * checks the results and reports the messages per tree edge, against the 2
+ * messages per edge and query of separate <code>Aggregator</code>s.
+ *
+ * Usage: <code>MultiQueryAggregation [N]</code>
+ *
+ * @author Evangelos
+ */
+public class MultiQueryAggregation extends SimulatedExperiment {
+
+    //Simulation Parameters
+    private static int N=200;
+    private final static int bootstrapDuration=20;
+    private final static int queryDuration=30;
+    private final static int tick=100;
+    private final static int attributes=8;
+    private final static int[] concurrentQueries=new int[]{1, 2, 4, 8, 16, 32};
+    private final static int[] v=new int[]{3};
+
+    private static final RankPriority priority=RankPriority.HIGH_RANK;
+    private static final DescriptorType descriptor=DescriptorType.RANK;
+    private static final TreeType type=TreeType.SORTED_HtL;
+    private static final BalanceType balance=BalanceType.WEIGHT_BALANCED;
+
+    public static void main(String[] args) {
+        if(args.length>0){
+            N=Integer.parseInt(args[0]);
+        }
+        System.out.println("System started.");
+        Experiment.initEnvironment();
+        MultiQueryAggregation exp = new MultiQueryAggregation();
+        exp.init();
+        final Random random=new Random(1);
+        final List<AggregationService> services=new ArrayList<AggregationService>();
+        final double[][] values=new double[N][attributes];
+        PeerFactory peerFactory=new PeerFactory() {
+            public Peer createPeer(int peerIndex, Experiment experiment) {
+                Peer newPeer = new Peer(peerIndex);
+                if (peerIndex == 0) {
+                   newPeer.addPeerlet(new TreeServer(N, priority, descriptor, type, balance));
+                }
+                for(int a=0; a<attributes; a++){
+                    values[peerIndex][a]=random.nextDouble();
+                }
+                newPeer.addPeerlet(new TreeClient(experiment.getAddressToBindTo(0), new SimplePeerIdentifierGenerator(), random.nextDouble(), v[random.nextInt(v.length)]));
+                newPeer.addPeerlet(new TreeProvider());
+                AggregationService service=new AggregationService(values[peerIndex], tick);
+                services.add(service);
+                newPeer.addPeerlet(service);
+                return newPeer;
+            }
+        };
+        exp.initPeers(0,N,peerFactory);
+        exp.startPeers(0,N);
+        exp.runSimulation(Time.inSeconds(bootstrapDuration));
+        AggregationService root=null;
+        for(AggregationService service:services){
+            if(service.isRoot()){
+                root=service;
+            }
+        }
+        if(root==null){
+            System.out.println("The tree is not ready after "+bootstrapDuration+" seconds.");
+            return;
+        }
+        AggregationFunction[] functions=AggregationFunction.values();
+        System.out.println("queries\tcorrect\tmessages\tmessages/edge\tseparate aggregators messages/edge");
+        for(int q:concurrentQueries){
+            int before=countMessages(services);
+            int[] queryIds=new int[q];
+            for(int i=0; i<q; i++){
+                queryIds[i]=root.query(i%attributes, functions[i%functions.length]);
+            }
+            exp.runSimulation(Time.inSeconds(queryDuration));
+            int correct=0;
+            for(int i=0; i<q; i++){
+                AggregationFunction function=functions[i%functions.length];
+                double exact=function.initial(values[0][i%attributes]);
+                for(int p=1; p<N; p++){
+                    exact=function.combine(exact, function.initial(values[p][i%attributes]));
+                }
+                boolean allReceived=true;
+                for(AggregationService service:services){
+                    Double result=service.getResult(queryIds[i]);
+                    allReceived&=result!=null && Math.abs(result-exact)<1e-9;
+                }
+                if(allReceived){
+                    correct++;
+                }
+            }
+            int messages=countMessages(services)-before;
+            System.out.println(q+"\t"+correct+"\t"+messages+"\t"+(double)messages/(N-1)+"\t"+2*q);
+        }
+        System.out.println("System finished.");
+    }
+
+    private static int countMessages(List<AggregationService> services){
+        int messages=0;
+        for(AggregationService service:services){
+            messages+=service.getMessages();
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package testApp;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import protopeer.network.Message;
+import tree.MessageCodec;
+
+/**
+ * The batch sent by the <code>AggregationService</code> from a parent to a
+ * child in a tick. It carries the queries started and the global results of
+ * the completed queries.
+ *
+ * The message is written in the compact binary encoding of <code>MessageCodec</code>.
+ *
+ * @author Evangelos
+ */
+public class QueryBatchMessage extends Message implements Externalizable{
+    public int[] startIds;
+    public int[] attributes;
+    public AggregationFunction[] functions;
+    public int[] resultIds;
+    public double[] results;
+
+    /**
+     * Writes the message in the compact binary encoding of <code>MessageCodec</code>.
+     *
+     * @param out the output
+     * @throws IOException if writing fails
+     */
+    public void writeExternal(ObjectOutput out) throws IOException {
+        MessageCodec codec=new MessageCodec();
+        codec.writeHeader(out, this);
+        MessageCodec.writeVarInt(out, this.startIds.length);
+        for(int i=0; i<this.startIds.length; i++){
+            MessageCodec.writeVarInt(out, this.startIds[i]);
+            MessageCodec.writeVarInt(out, this.attributes[i]);
+            out.writeByte(this.functions[i].ordinal());
+        }
+        MessageCodec.writeVarInt(out, this.resultIds.length);
+        for(int i=0; i<this.resultIds.length; i++){
+            MessageCodec.writeVarInt(out, this.resultIds[i]);
+            out.writeDouble(this.results[i]);
+        }
+    }
+
+    /**
+     * Reads the message from the compact binary encoding of <code>MessageCodec</code>.
+     *
+     * @param in the input
+     * @throws IOException if reading fails
+     * @throws ClassNotFoundException if an object of an unknown type is read
+     */
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        MessageCodec codec=new MessageCodec();
+        codec.readHeader(in, this);
+        int starts=MessageCodec.readVarInt(in);
+        this.startIds=new int[starts];
+        this.attributes=new int[starts];
+        this.functions=new AggregationFunction[starts];
+        for(int i=0; i<starts; i++){
+            this.startIds[i]=MessageCodec.readVarInt(in);
+            this.attributes[i]=MessageCodec.readVarInt(in);
+            this.functions[i]=AggregationFunction.values()[in.readByte()];
+        }
+        int completed=MessageCodec.readVarInt(in);
+        this.resultIds=new int[completed];
+        this.results=new double[completed];
+        for(int i=0; i<completed; i++){
+            this.resultIds[i]=MessageCodec.readVarInt(in);
+            this.results[i]=in.readDouble();
+        }
+    }
+}
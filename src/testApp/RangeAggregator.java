@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package testApp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.log4j.Logger;
+import protopeer.BasePeerlet;
+import protopeer.Finger;
+import protopeer.network.Message;
+import protopeer.network.NetworkAddress;
+import dsutil.protopeer.services.topology.trees.TreeApplicationInterface;
+
+/**
+ * A testing application for rank-range aggregation queries, e.g. the sum of
+ * the values of the peers with rank in [a,b].
+ *
+ * After the tree view is set, each peer computes the minimum and maximum rank
+ * of its subtree bottom-up with <code>RankBoundsMessage</code>s. A
+ * <code>RangeQuery</code> is then forwarded only to the children whose subtree
+ * overlaps the range, and the partial results return with
+ * <code>RangeReply</code>s. In the sorted trees each subtree covers a narrow
+ * band of ranks, so the messages of a query scale with the peers selected and
+ * not with the size of the tree. Queries are issued by the root, or by any
+ * peer over its subtree, and are told apart by the originator and its
+ * identifier of the query.
+ *
+ * @author Evangelos
+ */
+public class RangeAggregator extends BasePeerlet implements TreeApplicationInterface{
+
+    private static final Logger logger = Logger.getLogger(RangeAggregator.class);
+
+    private Finger parent=null;
+    private List<Finger> children=new ArrayList<Finger>();
+    private boolean viewSet=false;
+    private double value;
+    private double rank;
+    private double minRank;
+    private double maxRank;
+    private boolean boundsReady=false;
+    private Map<NetworkAddress,double[]> childBounds=new HashMap<NetworkAddress,double[]>();
+    private Map<QueryKey,PendingQuery> pendingQueries=new HashMap<QueryKey,PendingQuery>();
+    private Map<Integer,double[]> results=new HashMap<Integer,double[]>();
+    private int nextQueryId=0;
+    private int queryMessages=0;
+
+    /**
+     * The identifier of a query in the tree: the peer that issued it and its
+     * identifier at that peer, since every peer numbers its own queries.
+     */
+    private static class QueryKey{
+        NetworkAddress origin;
+        int queryId;
+
+        QueryKey(NetworkAddress origin, int queryId){
+            this.origin=origin;
+            this.queryId=queryId;
+        }
+
+        @Override
+        public boolean equals(Object object){
+            if(!(object instanceof QueryKey)){
+                return false;
+            }
+            QueryKey key=(QueryKey)object;
+            return this.queryId==key.queryId && this.origin.equals(key.origin);
+        }
+
+        @Override
+        public int hashCode(){
+            return 31*this.origin.hashCode()+this.queryId;
+        }
+    }
+
+    /**
+     * A query waiting for the replies of the children.
+     */
+    private static class PendingQuery{
+        QueryKey key;
+        NetworkAddress source;
+        double sum;
+        int count;
+        int waiting;
+    }
+
+    /**
+     * Initializes the range aggregator.
+     *
+     * @param value the local value of the peer
+     * @param rank the rank of the peer, the same given to the tree middleware
+     */
+    public RangeAggregator(double value, double rank){
+        this.value=value;
+        this.rank=rank;
+    }
+
+    /**
+     * Sets the parent provided by the <code>TreeProvider</code>.
+     *
+     * @param parent the finger of the parent
+    */
+    public void setParent(Finger parent){
+        this.parent=parent;
+    }
+
+    /**
+     * Sets the children provided by the <code>TreeProvider</code>.
+     *
+     * @param children the fingers of the children
+    */
+    public void setChildren(List<Finger> children){
+        this.children.addAll(children);
+    }
+
+    /**
+     * Sets the tree view provided by the <code>TreeProvider</code> and starts
+     * the computation of the rank bounds. A leaf sends its bounds right away.
+     * The bounds of the children of the previous view are dropped and the
+     * children are asked for their bounds again, so that the bounds of the
+     * new subtree are only computed from new reports.
+     *
+     * @param parent the finger of the parent
+     * @param children the fingers of the children
+    */
+    public void setTreeView(Finger parent, List<Finger> children){
+        this.parent=parent;
+        this.children.clear();
+        this.children.addAll(children);
+        this.childBounds.clear();
+        this.viewSet=true;
+        this.boundsReady=false;
+        for(Finger child:this.children){
+            getPeer().sendMessage(child.getNetworkAddress(), new RankBoundsRequest());
+        }
+        this.checkBounds();
+    }
+
+    /**
+     * Computes the rank bounds of the subtree and sends them to the parent if
+     * the bounds of all the children are received. Once the bounds are known,
+     * they are sent again only if a child reports changed bounds that change
+     * the bounds of the subtree.
+     */
+    private void checkBounds(){
+        if(!this.viewSet){
+            return;
+        }
+        double min=this.rank;
+        double max=this.rank;
+        for(Finger child:this.children){
+            double[] bounds=this.childBounds.get(child.getNetworkAddress());
+            if(bounds==null){
+                return;
+            }
+            min=Math.min(min, bounds[0]);
+            max=Math.max(max, bounds[1]);
+        }
+        if(this.boundsReady && min==this.minRank && max==this.maxRank){
+            return;
+        }
+        this.minRank=min;
+        this.maxRank=max;
+        this.boundsReady=true;
+        this.sendBounds();
+    }
+
+    /**
+     * Sends the rank bounds of the subtree to the parent.
+     */
+    private void sendBounds(){
+        if(this.parent!=null){
+            RankBoundsMessage message=new RankBoundsMessage();
+            message.minRank=this.minRank;
+            message.maxRank=this.maxRank;
+            getPeer().sendMessage(this.parent.getNetworkAddress(), message);
+        }
+    }
+
+    /**
+     * Starts a range query over the subtree of the local peer, i.e. the whole
+     * tree at the root. The result is available with <code>getResult</code>.
+     *
+     * @param low the lower rank of the range
+     * @param high the upper rank of the range
+     * @return the identifier of the query
+     * @throws IllegalStateException if the rank bounds are not known yet
+     */
+    public int query(double low, double high){
+        if(!this.boundsReady){
+            throw new IllegalStateException("The rank bounds of the subtree are not known yet.");
+        }
+        int queryId=this.nextQueryId++;
+        this.runQuery(new QueryKey(getPeer().getNetworkAddress(), queryId), low, high, null);
+        return queryId;
+    }
+
+    /**
+     * Adds the local value if the rank is in the range and forwards the query
+     * to the children whose subtree overlaps the range. Children with unknown
+     * bounds are always queried.
+     *
+     * @param key the originator and the identifier of the query
+     * @param low the lower rank of the range
+     * @param high the upper rank of the range
+     * @param source the peer that sent the query, null at the originator
+     */
+    private void runQuery(QueryKey key, double low, double high, NetworkAddress source){
+        PendingQuery pending=new PendingQuery();
+        pending.key=key;
+        pending.source=source;
+        if(this.rank>=low && this.rank<=high){
+            pending.sum=this.value;
+            pending.count=1;
+        }
+        for(Finger child:this.children){
+            double[] bounds=this.childBounds.get(child.getNetworkAddress());
+            if(bounds==null || (bounds[1]>=low && bounds[0]<=high)){
+                RangeQuery query=new RangeQuery();
+                query.origin=key.origin;
+                query.queryId=key.queryId;
+                query.low=low;
+                query.high=high;
+                getPeer().sendMessage(child.getNetworkAddress(), query);
+                this.queryMessages++;
+                pending.waiting++;
+            }
+        }
+        this.pendingQueries.put(key, pending);
+        this.completeQuery(pending);
+    }
+
+    /**
+     * Adds the partial result of a child.
+     *
+     * @param reply the reply of the child
+     */
+    private void runPassiveState(RangeReply reply){
+        PendingQuery pending=this.pendingQueries.get(new QueryKey(reply.origin, reply.queryId));
+        if(pending==null){
+            logger.debug("Reply of an unknown query: "+reply.queryId+" of "+reply.origin);
+            return;
+        }
+        pending.sum+=reply.sum;
+        pending.count+=reply.count;
+        pending.waiting--;
+        this.completeQuery(pending);
+    }
+
+    /**
+     * Sends the result of the subtree to the peer that sent the query, or
+     * keeps it at the originator, if all the queried children have replied.
+     *
+     * @param pending the query
+     */
+    private void completeQuery(PendingQuery pending){
+        if(pending.waiting>0){
+            return;
+        }
+        this.pendingQueries.remove(pending.key);
+        if(pending.source==null){
+            this.results.put(pending.key.queryId, new double[]{pending.sum, pending.count});
+            return;
+        }
+        RangeReply reply=new RangeReply();
+        reply.origin=pending.key.origin;
+        reply.queryId=pending.key.queryId;
+        reply.sum=pending.sum;
+        reply.count=pending.count;
+        getPeer().sendMessage(pending.source, reply);
+        this.queryMessages++;
+    }
+
+    /**
+     * Returns the result of a query issued by the local peer.
+     *
+     * @param queryId the identifier of the query
+     * @return the sum of the values and the number of the peers in the range,
+     * or null if the query is not completed yet
+     */
+    public double[] getResult(int queryId){
+        return this.results.get(queryId);
+    }
+
+    /**
+     * @return true if the rank bounds of the subtree are known
+     */
+    public boolean isReady(){
+        return this.boundsReady;
+    }
+
+    /**
+     * @return true if the peer is the root of the tree
+     */
+    public boolean isRoot(){
+        return this.viewSet && this.parent==null;
+    }
+
+    /**
+     * @return the number of query and reply messages sent by the peer
+     */
+    public int getQueryMessages(){
+        return this.queryMessages;
+    }
+
+    /**
+     * Handles incoming messages of type <code>RankBoundsMessage</code>,
+     * <code>RankBoundsRequest</code>, <code>RangeQuery</code> and
+     * <code>RangeReply</code>. A request of a peer that is not the parent in
+     * the current view is ignored, as the bounds are sent to the new parent
+     * when the view arrives.
+     *
+     * @param message the incoming message.
+    */
+    @Override
+    public void handleIncomingMessage(Message message) {
+        if (message instanceof RankBoundsMessage) {
+            RankBoundsMessage bounds=(RankBoundsMessage) message;
+            this.childBounds.put(message.getSourceAddress(), new double[]{bounds.minRank, bounds.maxRank});
+            this.checkBounds();
+        }
+        if (message instanceof RankBoundsRequest) {
+            if(this.boundsReady && this.parent!=null && this.parent.getNetworkAddress().equals(message.getSourceAddress())){
+                this.sendBounds();
+            }
+        }
+        if (message instanceof RangeQuery) {
+            RangeQuery query=(RangeQuery) message;
+            this.runQuery(new QueryKey(query.origin, query.queryId), query.low, query.high, message.getSourceAddress());
+        }
+        if (message instanceof RangeReply) {
+            this.runPassiveState((RangeReply) message);
+        }
+    }
+}
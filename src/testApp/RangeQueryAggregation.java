@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package testApp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import protopeer.Experiment;
+import protopeer.Peer;
+import protopeer.PeerFactory;
+import dsutil.generic.RankPriority;
+import protopeer.SimulatedExperiment;
+import protopeer.servers.bootstrap.SimplePeerIdentifierGenerator;
+import protopeer.util.quantities.Time;
+import dsutil.protopeer.services.topology.trees.DescriptorType;
+import dsutil.protopeer.services.topology.trees.TreeProvider;
+import dsutil.protopeer.services.topology.trees.TreeType;
+import tree.BalanceType;
+import tree.centralized.client.TreeClient;
+import tree.centralized.server.TreeServer;
+
+/**
+ * Performs rank-range aggregation queries over a sorted tree acquired from
+ * the client-server bootstrapping mechanism. For ranges of increasing width,
+ * the experiment compares the result with the exact one and reports the
+ * messages of the pruned query against the 2(N-1) messages of an aggregation
+ * over the whole tree.
+ *
+ * Usage: <code>RangeQueryAggregation [N]</code>
+ *
+ * @author Evangelos
+ */
+public class RangeQueryAggregation extends SimulatedExperiment {
+
+    //Simulation Parameters
+    private static int N=500;
+    private final static int bootstrapDuration=20;
+    private final static int queryDuration=20;
+    private final static int[] v=new int[]{3};
+    private final static double[] widths=new double[]{0.01, 0.05, 0.1, 0.25, 0.5, 1.0};
+
+    private static final RankPriority priority=RankPriority.HIGH_RANK;
+    private static final DescriptorType descriptor=DescriptorType.RANK;
+    private static final TreeType type=TreeType.SORTED_HtL;
+    private static final BalanceType balance=BalanceType.WEIGHT_BALANCED;
+
+    public static void main(String[] args) {
+        if(args.length>0){
+            N=Integer.parseInt(args[0]);
+        }
+        System.out.println("System started.");
+        Experiment.initEnvironment();
+        RangeQueryAggregation exp = new RangeQueryAggregation();
+        exp.init();
+        final Random random=new Random(1);
+        final List<RangeAggregator> aggregators=new ArrayList<RangeAggregator>();
+        final double[] ranks=new double[N];
+        final double[] values=new double[N];
+        PeerFactory peerFactory=new PeerFactory() {
+            public Peer createPeer(int peerIndex, Experiment experiment) {
+                Peer newPeer = new Peer(peerIndex);
+                if (peerIndex == 0) {
+                   newPeer.addPeerlet(new TreeServer(N, priority, descriptor, type, balance));
+                }
+                ranks[peerIndex]=random.nextDouble();
+                values[peerIndex]=random.nextDouble();
+                newPeer.addPeerlet(new TreeClient(experiment.getAddressToBindTo(0), new SimplePeerIdentifierGenerator(), ranks[peerIndex], v[random.nextInt(v.length)]));
+                newPeer.addPeerlet(new TreeProvider());
+                RangeAggregator aggregator=new RangeAggregator(values[peerIndex], ranks[peerIndex]);
+                aggregators.add(aggregator);
+                newPeer.addPeerlet(aggregator);
+                return newPeer;
+            }
+        };
+        exp.initPeers(0,N,peerFactory);
+        exp.startPeers(0,N);
+        exp.runSimulation(Time.inSeconds(bootstrapDuration));
+        RangeAggregator root=null;
+        for(RangeAggregator aggregator:aggregators){
+            if(aggregator.isRoot()){
+                root=aggregator;
+            }
+        }
+        if(root==null || !root.isReady()){
+            System.out.println("The tree is not ready after "+bootstrapDuration+" seconds.");
+            return;
+        }
+        System.out.println("width\tselected\tsum\texact sum\tmessages\tfull aggregation messages");
+        for(double width:widths){
+            double low=random.nextDouble()*(1-width);
+            double high=low+width;
+            int before=countMessages(aggregators);
+            int queryId=root.query(low, high);
+            exp.runSimulation(Time.inSeconds(queryDuration));
+            double[] result=root.getResult(queryId);
+            double exact=0;
+            for(int i=0; i<N; i++){
+                if(ranks[i]>=low && ranks[i]<=high){
+                    exact+=values[i];
+                }
+            }
+            System.out.println(width+"\t"+(result==null ? "-" : (int)result[1])+"\t"+(result==null ? "-" : result[0])+"\t"+exact+"\t"+(countMessages(aggregators)-before)+"\t"+2*(N-1));
+        }
+        System.out.println("System finished.");
+    }
+
+    private static int countMessages(List<RangeAggregator> aggregators){
+        int messages=0;
+        for(RangeAggregator aggregator:aggregators){
+            messages+=aggregator.getQueryMessages();
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package testApp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import protopeer.BasePeerlet;
+import protopeer.Experiment;
+import protopeer.Peer;
+import protopeer.PeerFactory;
+import dsutil.generic.RankPriority;
+import protopeer.SimulatedExperiment;
+import protopeer.network.Message;
+import protopeer.network.NetworkAddress;
+import protopeer.servers.bootstrap.SimplePeerIdentifierGenerator;
+import protopeer.util.quantities.Time;
+import dsutil.protopeer.services.topology.trees.DescriptorType;
+import dsutil.protopeer.services.topology.trees.TreeProvider;
+import dsutil.protopeer.services.topology.trees.TreeType;
+import dsutil.protopeer.FingerDescriptor;
+import tree.BalanceType;
+import tree.TreeViewAdapter;
+import tree.centralized.client.TreeClient;
+import tree.centralized.server.TreeServer;
+
+/**
+ * Performs a continuous aggregation, one aggregation per rotation period, with
+ * a fixed root and with the root role rotating over alternate topologies of
+ * the <code>TreeServer</code>. For each number of rotations, the experiment
+ * reports the number of distinct roots, the maximum number of periods a peer
+ * is the root, the maximum and the mean number of aggregation messages a peer
+ * sends and receives and whether all peers computed the correct global value.
+ * One rotation is the fixed root.
+ *
+ * Usage: <code>RootRotationAggregation [R1,R2,...]</code>
+ *
+ * @author Evangelos
+ */
+public class RootRotationAggregation extends SimulatedExperiment {
+
+    //Simulation Parameters
+    private final static int runDuration=58;
+    private final static int N=100;
+    private final static int[] v=new int[]{2,3,4,5};
+    private static int[] rotations=new int[]{1,2,4,8};
+    private final static int rotationPeriod=5000;
+    private final static int T=1000;
+
+    private static final RankPriority priority=RankPriority.HIGH_RANK;
+    private static final DescriptorType descriptor=DescriptorType.RANK;
+    private static final TreeType type=TreeType.SORTED_HtL;
+    private static final BalanceType balance=BalanceType.WEIGHT_BALANCED;
+
+    //Measurements
+    private static Map<NetworkAddress,Integer> rootPeriods;
+    private static Map<NetworkAddress,Integer> load;
+
+    public static void main(String[] args) {
+        if(args.length>0){
+            String[] values=args[0].split(",");
+            rotations=new int[values.length];
+            for(int i=0; i<values.length; i++){
+                rotations[i]=Integer.parseInt(values[i]);
+            }
+        }
+        System.out.println("System started.");
+        Experiment.initEnvironment();
+        System.out.println("rotations\troots\tmax root periods\tmax messages/peer\tmean messages/peer\tcorrect");
+        for(int R:rotations){
+            run(R);
+        }
+        System.out.println("System finished.");
+    }
+
+    /**
+     * Runs the continuous aggregation for a number of rotations and prints the
+     * measurements.
+     *
+     * @param R the number of alternate topologies
+     */
+    private static void run(final int R){
+        rootPeriods=new HashMap<NetworkAddress,Integer>();
+        load=new HashMap<NetworkAddress,Integer>();
+        final List<Aggregator> aggregators=new ArrayList<Aggregator>();
+        final double[] sum=new double[1];
+        RootRotationAggregation exp=new RootRotationAggregation();
+        exp.init();
+        final Random random=new Random(N);
+        final NetworkAddress serverAddress=exp.getAddressToBindTo(0);
+        PeerFactory peerFactory=new PeerFactory() {
+            public Peer createPeer(int peerIndex, Experiment experiment) {
+                Peer newPeer = new Peer(peerIndex);
+                if (peerIndex == 0) {
+                    newPeer.addPeerlet(new TreeServer(N, priority, descriptor, type, balance, 0, 0, R, rotationPeriod));
+                }
+                TreeClient client=new TreeClient(serverAddress, new SimplePeerIdentifierGenerator(), random.nextDouble(), v[random.nextInt(v.length)]);
+                newPeer.addPeerlet(client);
+                newPeer.addPeerlet(new TreeProvider());
+                double value=random.nextDouble();
+                sum[0]+=value;
+                Aggregator aggregator=new Aggregator(value, T);
+                aggregators.add(aggregator);
+                newPeer.addPeerlet(aggregator);
+                newPeer.addPeerlet(new LoadRecorder(client));
+                return newPeer;
+            }
+        };
+        exp.initPeers(0,N,peerFactory);
+        exp.startPeers(0,N);
+        exp.runSimulation(Time.inSeconds(runDuration));
+        int maxRootPeriods=0;
+        for(int periods:rootPeriods.values()){
+            maxRootPeriods=Math.max(maxRootPeriods, periods);
+        }
+        int maxLoad=0;
+        long totalLoad=0;
+        for(int messages:load.values()){
+            maxLoad=Math.max(maxLoad, messages);
+            totalLoad+=messages;
+        }
+        boolean correct=true;
+        for(Aggregator aggregator:aggregators){
+            correct&=aggregator.isComplete() && Math.abs(aggregator.getGlobal()-sum[0])<1e-9;
+        }
+        System.out.println(R+"\t"+rootPeriods.size()+"\t"+maxRootPeriods+"\t"+maxLoad+"\t"+(double)totalLoad/N+"\t"+correct);
+    }
+
+    /**
+     * Counts the periods the peer is the root and the aggregation messages the
+     * peer sends and receives, including the restarts of the aggregation.
+     */
+    private static class LoadRecorder extends BasePeerlet{
+
+        public LoadRecorder(TreeClient client){
+            client.getTreeViewHandle().addListener(new TreeViewAdapter() {
+                @Override
+                public void viewReady(FingerDescriptor parent, List<FingerDescriptor> children){
+                    this.viewChanged(parent, children);
+                }
+
+                @Override
+                public void viewChanged(FingerDescriptor parent, List<FingerDescriptor> children){
+                    if(parent==null && !children.isEmpty()){
+                        count(rootPeriods);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void handleIncomingMessage(Message message) {
+            if(message instanceof AggregationMessage || message instanceof AggregationRestart){
+                count(load);
+            }
+        }
+
+        @Override
+        public void handleOutgoingMessage(Message message) {
+            if(message instanceof AggregationMessage || message instanceof AggregationRestart){
+                count(load);
+            }
+        }
+
+        private void count(Map<NetworkAddress,Integer> counters){
+            Integer counter=counters.get(getPeer().getNetworkAddress());
+            counters.put(getPeer().getNetworkAddress(), counter==null ? 1 : counter+1);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+
+package testApp;
+
+/**
+ * A compact summary of the samples of a stream in a time interval: their
+ * count, sum, minimum and maximum. Summaries of disjoint intervals or of
+ * different peers are merged without the samples, so that a pane or a window
+ * of any number of samples is sent over the tree in constant size.
+ *
+ * @author Evangelos
+ */
+public class StreamSummary {
+
+    private long count=0;
+    private double sum=0;
+    private double min=Double.POSITIVE_INFINITY;
+    private double max=Double.NEGATIVE_INFINITY;
+
+    /**
+     * Adds a sample.
+     *
+     * @param value the value of the sample
+     */
+    public void add(double value){
+        this.count++;
+        this.sum+=value;
+        this.min=Math.min(this.min, value);
+        this.max=Math.max(this.max, value);
+    }
+
+    /**
+     * Merges another summary in this one.
+     *
+     * @param summary the summary merged
+     */
+    public void merge(StreamSummary summary){
+        this.merge(summary.count, summary.sum, summary.min, summary.max);
+    }
+
+    /**
+     * Merges the fields of another summary in this one.
+     *
+     * @param count the number of samples
+     * @param sum the sum of the samples
+     * @param min the minimum sample
+     * @param max the maximum sample
+     */
+    public void merge(long count, double sum, double min, double max){
+        this.count+=count;
+        this.sum+=sum;
+        this.min=Math.min(this.min, min);
+        this.max=Math.max(this.max, max);
+    }
+
+    /**
+     * @return the number of samples
+     */
+    public long getCount(){
+        return this.count;
+    }
+
+    /**
+     * @return the sum of the samples
+     */
+    public double getSum(){
+        return this.sum;
+    }
+
+    /**
+     * @return the minimum sample, positive infinity without samples
+     */
+    public double getMin(){
+        return this.min;
+    }
+
+    /**
+     * @return the maximum sample, negative infinity without samples
+     */
+    public double getMax(){
+        return this.max;
+    }
+
+    /**
+     * @return the mean of the samples, NaN without samples
+     */
+    public double getMean(){
+        return this.sum/this.count;
+    }
+
+    @Override
+    public String toString(){
+        return "count="+this.count+" sum="+this.sum+" min="+this.min+" max="+this.max;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+
+package testApp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+import protopeer.BasePeerlet;
+import protopeer.Experiment;
+import protopeer.Peer;
+import protopeer.PeerFactory;
+import dsutil.generic.RankPriority;
+import protopeer.SimulatedExperiment;
+import protopeer.network.NetworkAddress;
+import protopeer.servers.bootstrap.SimplePeerIdentifierGenerator;
+import protopeer.time.Timer;
+import protopeer.time.TimerListener;
+import protopeer.util.quantities.Time;
+import dsutil.protopeer.services.topology.trees.DescriptorType;
+import dsutil.protopeer.services.topology.trees.TreeProvider;
+import dsutil.protopeer.services.topology.trees.TreeType;
+import tree.BalanceType;
+import tree.centralized.client.TreeClient;
+import tree.centralized.server.TreeServer;
+
+/**
+ * Aggregates continuous measurements of the peers with the
+ * <code>StreamingAggregator</code> over a sliding and a tumbling window. After
+ * the tree is built, every peer samples a value with a linear trend and noise
+ * every sample period. The windows of the root are checked against the exact
+ * summaries of all the samples. For each window type, the experiment reports
+ * the number of windows, the fraction of them that are exact, the messages and
+ * the samples per peer and pane, the maximum number of panes waiting at a peer,
+ * the dropped summaries, and the mean, the rate and the trend of the mean over
+ * the last window.
+ *
+ * Usage: <code>StreamingAggregation [windowPanes] [slide1,slide2,...]</code>
+ *
+ * @author Evangelos
+ */
+public class StreamingAggregation extends SimulatedExperiment {
+
+    //Simulation Parameters
+    private final static int N=100;
+    private final static int[] v=new int[]{3};
+    private final static int bootstrapDuration=5;
+    private final static int runDuration=120;
+    private final static int paneDuration=1000;
+    private static int windowPanes=10;
+    private static int[] slides=new int[]{1,10};
+    private final static int maxPendingPanes=4;
+    private final static int maxResults=200;
+    private final static int samplePeriod=100;
+    private final static double trend=0.05;
+
+    private static final RankPriority priority=RankPriority.HIGH_RANK;
+    private static final DescriptorType descriptor=DescriptorType.RANK;
+    private static final TreeType type=TreeType.SORTED_HtL;
+    private static final BalanceType balance=BalanceType.WEIGHT_BALANCED;
+
+    //Measurements
+    private static TreeMap<Long,StreamSummary> exactPanes;
+
+    public static void main(String[] args) {
+        if(args.length>0){
+            windowPanes=Integer.parseInt(args[0]);
+        }
+        if(args.length>1){
+            String[] values=args[1].split(",");
+            slides=new int[values.length];
+            for(int i=0; i<values.length; i++){
+                slides[i]=Integer.parseInt(values[i]);
+            }
+        }
+        System.out.println("System started.");
+        Experiment.initEnvironment();
+        System.out.println("window\tslide\twindows\texact\tmessages/peer/pane\tsamples/peer/pane\tmax pending panes\tdropped\tmean\trate(samples/s)\ttrend(/s)");
+        for(int slide:slides){
+            run(slide);
+        }
+        System.out.println("System finished.");
+    }
+
+    /**
+     * Runs the streaming aggregation for a slide and prints the measurements.
+     *
+     * @param slide the number of panes the window slides
+     */
+    private static void run(final int slide){
+        exactPanes=new TreeMap<Long,StreamSummary>();
+        final List<StreamingAggregator> aggregators=new ArrayList<StreamingAggregator>();
+        StreamingAggregation exp=new StreamingAggregation();
+        exp.init();
+        final Random random=new Random(N);
+        final NetworkAddress serverAddress=exp.getAddressToBindTo(0);
+        PeerFactory peerFactory=new PeerFactory() {
+            public Peer createPeer(int peerIndex, Experiment experiment) {
+                Peer newPeer = new Peer(peerIndex);
+                if (peerIndex == 0) {
+                    newPeer.addPeerlet(new TreeServer(N, priority, descriptor, type, balance));
+                }
+                newPeer.addPeerlet(new TreeClient(serverAddress, new SimplePeerIdentifierGenerator(), random.nextDouble(), v[random.nextInt(v.length)]));
+                newPeer.addPeerlet(new TreeProvider());
+                StreamingAggregator aggregator=new StreamingAggregator(paneDuration, windowPanes, slide, maxPendingPanes, maxResults);
+                aggregators.add(aggregator);
+                newPeer.addPeerlet(aggregator);
+                newPeer.addPeerlet(new Sensor(aggregator, random.nextDouble()*10, random.nextDouble()*samplePeriod, random.nextLong()));
+                return newPeer;
+            }
+        };
+        exp.initPeers(0,N,peerFactory);
+        exp.startPeers(0,N);
+        exp.runSimulation(Time.inSeconds(bootstrapDuration+runDuration));
+        StreamingAggregator root=null;
+        int messages=0;
+        int dropped=0;
+        int maxPending=0;
+        for(StreamingAggregator aggregator:aggregators){
+            if(aggregator.isRoot()){
+                root=aggregator;
+            }
+            messages+=aggregator.getMessages();
+            dropped+=aggregator.getDroppedSummaries();
+            maxPending=Math.max(maxPending, aggregator.getMaxPendingPanes());
+        }
+        long firstPane=exactPanes.firstKey();
+        int windows=0;
+        int exact=0;
+        StreamSummary first=null;
+        StreamSummary last=null;
+        long lastPane=0;
+        for(Entry<Long,StreamSummary> result:root.getResults().entrySet()){
+            if(result.getKey()-windowPanes+1<firstPane){
+                continue;
+            }
+            StreamSummary expected=new StreamSummary();
+            for(StreamSummary pane:exactPanes.subMap(result.getKey()-windowPanes+1, result.getKey()+1).values()){
+                expected.merge(pane);
+            }
+            windows++;
+            if(expected.getCount()==result.getValue().getCount() && Math.abs(expected.getSum()-result.getValue().getSum())<=1e-9*Math.abs(expected.getSum()) &&
+                    expected.getMin()==result.getValue().getMin() && expected.getMax()==result.getValue().getMax()){
+                exact++;
+            }
+            if(first==null){
+                first=result.getValue();
+            }
+            last=result.getValue();
+            lastPane=result.getKey();
+        }
+        long panes=lastPane-firstPane+1;
+        long samples=0;
+        for(StreamSummary pane:exactPanes.values()){
+            samples+=pane.getCount();
+        }
+        double windowSeconds=windowPanes*paneDuration/1000.0;
+        double elapsedSeconds=(windows-1)*slide*paneDuration/1000.0;
+        System.out.println(windowPanes+"\t"+slide+"\t"+windows+"\t"+(double)exact/windows+"\t"+(double)messages/N/panes+"\t"+
+                (double)samples/N/exactPanes.size()+"\t"+maxPending+"\t"+dropped+"\t"+last.getMean()+"\t"+last.getCount()/windowSeconds+"\t"+
+                (last.getMean()-first.getMean())/elapsedSeconds);
+    }
+
+    /**
+     * Feeds the samples of the peer to its aggregator after the tree is built:
+     * a base value growing with the trend plus a uniform noise.
+     */
+    private static class Sensor extends BasePeerlet{
+
+        private StreamingAggregator aggregator;
+        private double base;
+        private double offset;
+        private Random random;
+
+        public Sensor(StreamingAggregator aggregator, double base, double offset, long seed){
+            this.aggregator=aggregator;
+            this.base=base;
+            this.offset=offset;
+            this.random=new Random(seed);
+        }
+
+        @Override
+        public void start() {
+            super.start();
+            Timer sampleTimer=getPeer().getClock().createNewTimer();
+            sampleTimer.addTimerListener(new TimerListener() {
+                public void timerExpired(Timer timer) {
+                    sample();
+                    timer.schedule(Time.inMilliseconds(samplePeriod));
+                }
+            });
+            sampleTimer.schedule(Time.inMilliseconds(bootstrapDuration*1000+this.offset));
+        }
+
+        private void sample(){
+            double time=getPeer().getClock().getCurrentTime();
+            double value=this.base+trend*time/1000+this.random.nextDouble();
+            this.aggregator.addSample(value);
+            long pane=(long)Math.floor(time/paneDuration);
+            StreamSummary exact=exactPanes.get(pane);
+            if(exact==null){
+                exact=new StreamSummary();
+                exactPanes.put(pane, exact);
+            }
+            exact.add(value);
+        }
+    }
+}
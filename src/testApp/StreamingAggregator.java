@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+
+package testApp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.log4j.Logger;
+import protopeer.BasePeerlet;
+import protopeer.Finger;
+import protopeer.network.Message;
+import protopeer.time.Timer;
+import protopeer.time.TimerListener;
+import protopeer.util.quantities.Time;
+import dsutil.protopeer.services.topology.trees.TreeApplicationInterface;
+
+/**
+ * A streaming aggregation of time series over the tree. Each peer feeds the
+ * samples of its measurements with <code>addSample</code> and the root gives
+ * the global results over sliding or tumbling time windows.
+ *
+ * Time is divided in panes of a fixed duration, aligned to the clock. A peer
+ * keeps a <code>StreamSummary</code> of its samples in the current pane. When
+ * the pane closes, the summary is merged with the summaries of the pane sent
+ * by the children and, once all children have reported, the merged summary is
+ * sent to the parent in a <code>PaneSummaryMessage</code>. In this way, one
+ * message per pane crosses every edge, independently of the sampling rate.
+ *
+ * The root keeps the summaries of the last panes of a window. Every
+ * <code>slide</code> panes it merges them into the result of the window, which
+ * has the count, the sum, the minimum, the maximum and the mean of all the
+ * samples in the window. A window of as many panes as the slide is a tumbling
+ * window, a longer window is a sliding one.
+ *
+ * The memory per peer is bounded: a peer waits for the children for at most
+ * <code>maxPendingPanes</code> panes and then sends the oldest pane with the
+ * summaries received so far. A summary arriving after its pane is sent is
+ * dropped. Until the first tree view arrives, the closed panes are held, as
+ * the peer does not know its parent yet, and beyond the maximum the oldest
+ * one is dropped. The root keeps <code>windowPanes</code> pane summaries and the
+ * last <code>maxResults</code> window results.
+ *
+ * @author Evangelos
+ */
+public class StreamingAggregator extends BasePeerlet implements TreeApplicationInterface{
+
+    private static final Logger logger = Logger.getLogger(StreamingAggregator.class);
+
+    private Finger parent=null;
+    private List<Finger> children=new ArrayList<Finger>();
+    private boolean viewSet=false;
+    private int paneDuration;
+    private int windowPanes;
+    private int slide;
+    private int maxPendingPanes;
+    private int maxResults;
+    private long currentPane=-1;
+    private StreamSummary current=new StreamSummary();
+    private TreeMap<Long,PendingPane> pending=new TreeMap<Long,PendingPane>();
+    private long lastSentPane=-1;
+    private TreeMap<Long,StreamSummary> panes=new TreeMap<Long,StreamSummary>();
+    private LinkedHashMap<Long,StreamSummary> results=new LinkedHashMap<Long,StreamSummary>();
+    private int messages=0;
+    private int droppedSummaries=0;
+    private int maxPending=0;
+
+    /**
+     * A pane closed locally or reported by a child, waiting for the summaries
+     * of the subtree.
+     */
+    private static class PendingPane{
+        StreamSummary summary=new StreamSummary();
+        boolean closed=false;
+        int reports=0;
+    }
+
+    /**
+     * Initializes the streaming aggregator.
+     *
+     * @param paneDuration the duration of a pane in milliseconds
+     * @param windowPanes the number of panes in a window
+     * @param slide the number of panes a window slides, equal to the window
+     * for a tumbling window
+     * @param maxPendingPanes the maximum number of panes waiting for the
+     * summaries of the children
+     * @param maxResults the number of window results kept at the root
+     */
+    public StreamingAggregator(int paneDuration, int windowPanes, int slide, int maxPendingPanes, int maxResults){
+        this.paneDuration=paneDuration;
+        this.windowPanes=windowPanes;
+        this.slide=slide;
+        this.maxPendingPanes=maxPendingPanes;
+        this.maxResults=maxResults;
+    }
+
+    /**
+     * Starts closing the panes at the end of each pane.
+     */
+    @Override
+    public void start() {
+        super.start();
+        Timer paneTimer=getPeer().getClock().createNewTimer();
+        paneTimer.addTimerListener(new TimerListener() {
+            public void timerExpired(Timer timer) {
+                closePanes(getPane());
+                timer.schedule(Time.inMilliseconds(getTimeToNextPane()));
+            }
+        });
+        paneTimer.schedule(Time.inMilliseconds(this.getTimeToNextPane()));
+    }
+
+    /**
+     * Sets the parent provided by the <code>TreeProvider</code>.
+     *
+     * @param parent the finger of the parent
+    */
+    public void setParent(Finger parent){
+        this.parent=parent;
+    }
+
+    /**
+     * Sets the children provided by the <code>TreeProvider</code>.
+     *
+     * @param children the fingers of the children
+    */
+    public void setChildren(List<Finger> children){
+        this.children.addAll(children);
+    }
+
+    /**
+     * Sets the tree view provided by the <code>TreeProvider</code> and sends
+     * the panes completed while waiting for it.
+     *
+     * @param parent the finger of the parent
+     * @param children the fingers of the children
+    */
+    public void setTreeView(Finger parent, List<Finger> children){
+        this.parent=parent;
+        this.children.clear();
+        this.children.addAll(children);
+        this.viewSet=true;
+        this.complete();
+    }
+
+    /**
+     * Adds a sample of the local measurements at the current time.
+     *
+     * @param value the value of the sample
+     */
+    public void addSample(double value){
+        this.closePanes(this.getPane());
+        this.current.add(value);
+    }
+
+    /**
+     * @return the index of the pane of the current time
+     */
+    private long getPane(){
+        return (long)Math.floor(getPeer().getClock().getCurrentTime()/this.paneDuration);
+    }
+
+    private double getTimeToNextPane(){
+        return (this.getPane()+1)*this.paneDuration-getPeer().getClock().getCurrentTime();
+    }
+
+    /**
+     * Closes the local pane if the time has passed to a later pane.
+     *
+     * @param pane the index of the pane of the current time
+     */
+    private void closePanes(long pane){
+        if(this.currentPane==pane){
+            return;
+        }
+        if(this.currentPane>=0){
+            PendingPane closed=this.getPending(this.currentPane);
+            if(closed!=null){
+                closed.summary.merge(this.current);
+                closed.closed=true;
+                this.complete();
+            }
+        }
+        this.currentPane=pane;
+        this.current=new StreamSummary();
+    }
+
+    /**
+     * Returns the pending pane, which is created if needed. The oldest pending
+     * panes are sent if more than the maximum are waiting.
+     *
+     * @param pane the index of the pane
+     * @return the pending pane or null if the pane is already sent
+     */
+    private PendingPane getPending(long pane){
+        if(pane<=this.lastSentPane){
+            return null;
+        }
+        PendingPane pendingPane=this.pending.get(pane);
+        if(pendingPane==null){
+            pendingPane=new PendingPane();
+            this.pending.put(pane, pendingPane);
+            while(this.pending.size()>this.maxPendingPanes){
+                long oldest=this.pending.firstKey();
+                PendingPane oldestPane=this.pending.remove(oldest);
+                if(this.viewSet){
+                    logger.debug("Sending the incomplete pane "+oldest);
+                    this.send(oldest, oldestPane.summary);
+                }
+                else{
+                    logger.debug("Dropping the pane "+oldest+" before the tree view.");
+                    this.lastSentPane=Math.max(this.lastSentPane, oldest);
+                    this.droppedSummaries++;
+                }
+            }
+            this.maxPending=Math.max(this.maxPending, this.pending.size());
+        }
+        return pendingPane;
+    }
+
+    /**
+     * Sends the pending panes that have the local summary and the summaries of
+     * all children. The panes are sent in order, once the tree view is known.
+     */
+    private void complete(){
+        while(this.viewSet && !this.pending.isEmpty()){
+            long oldest=this.pending.firstKey();
+            PendingPane pendingPane=this.pending.get(oldest);
+            if(!pendingPane.closed || pendingPane.reports<this.children.size()){
+                return;
+            }
+            this.pending.remove(oldest);
+            this.send(oldest, pendingPane.summary);
+        }
+    }
+
+    /**
+     * Sends the summary of a pane to the parent or, at the root, adds it in
+     * the window.
+     *
+     * @param pane the index of the pane
+     * @param summary the summary of the subtree in the pane
+     */
+    private void send(long pane, StreamSummary summary){
+        this.lastSentPane=Math.max(this.lastSentPane, pane);
+        if(this.parent==null){
+            this.addPane(pane, summary);
+            return;
+        }
+        PaneSummaryMessage message=new PaneSummaryMessage();
+        message.pane=pane;
+        message.count=summary.getCount();
+        message.sum=summary.getSum();
+        message.min=summary.getMin();
+        message.max=summary.getMax();
+        getPeer().sendMessage(this.parent.getNetworkAddress(), message);
+        this.messages++;
+    }
+
+    /**
+     * Keeps the global summary of a pane at the root and computes the result
+     * of the window ending with it every slide.
+     *
+     * @param pane the index of the pane
+     * @param summary the global summary of the pane
+     */
+    private void addPane(long pane, StreamSummary summary){
+        this.panes.put(pane, summary);
+        while(this.panes.firstKey()<=pane-this.windowPanes){
+            this.panes.remove(this.panes.firstKey());
+        }
+        if((pane+1)%this.slide!=0){
+            return;
+        }
+        StreamSummary window=new StreamSummary();
+        for(StreamSummary paneSummary:this.panes.values()){
+            window.merge(paneSummary);
+        }
+        this.results.put(pane, window);
+        if(this.results.size()>this.maxResults){
+            this.results.remove(this.results.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * Merges the summary of a child in its pane.
+     *
+     * @param message the summary of the child
+     */
+    private void runPassiveState(PaneSummaryMessage message){
+        PendingPane pendingPane=this.getPending(message.pane);
+        if(pendingPane==null){
+            logger.debug("Dropping the late summary of pane "+message.pane+" from: "+message.getSourceAddress());
+            this.droppedSummaries++;
+            return;
+        }
+        pendingPane.summary.merge(message.count, message.sum, message.min, message.max);
+        pendingPane.reports++;
+        this.complete();
+    }
+
+    /**
+     * Returns the global results of the last windows at the root.
+     *
+     * @return the result of each window by the index of its last pane, in
+     * order
+     */
+    public Map<Long,StreamSummary> getResults(){
+        return this.results;
+    }
+
+    /**
+     * @return true if the peer is the root of the tree
+     */
+    public boolean isRoot(){
+        return this.parent==null && !this.children.isEmpty();
+    }
+
+    /**
+     * @return the number of pane summaries sent by the peer
+     */
+    public int getMessages(){
+        return this.messages;
+    }
+
+    /**
+     * @return the number of summaries of children dropped because they
+     * arrived after their pane was sent
+     */
+    public int getDroppedSummaries(){
+        return this.droppedSummaries;
+    }
+
+    /**
+     * @return the maximum number of panes waiting at the same time
+     */
+    public int getMaxPendingPanes(){
+        return this.maxPending;
+    }
+
+    /**
+     * Handles incoming messages of type <code>PaneSummaryMessage</code>.
+     *
+     * @param message the incoming message.
+    */
+    @Override
+    public void handleIncomingMessage(Message message) {
+        if (message instanceof PaneSummaryMessage) {
+            this.runPassiveState((PaneSummaryMessage) message);
+        }
+    }
+}
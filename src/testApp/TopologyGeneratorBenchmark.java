@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package testApp;
+
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+import dsutil.generic.RankPriority;
+import dsutil.protopeer.FingerDescriptor;
+import dsutil.protopeer.services.topology.trees.DescriptorType;
+import dsutil.protopeer.services.topology.trees.TreeType;
+import protopeer.Finger;
+import protopeer.RingIdentifier;
+import protopeer.network.IntegerNetworkAddress;
+import tree.BalanceType;
+import tree.centralized.server.TreeTopologyAnalyzer;
+import tree.centralized.server.TreeTopologyGenerator;
+import tree.centralized.server.TreeTopologyStats;
+import tree.centralized.server.TreeViewFacilitator;
+
+/**
+ * Measures the memory allocated and the time spent by repeated builds of the
+ * <code>TreeTopologyGenerator</code>: the first build, the steady state
+ * rebuild of the same peers, a rebuild after the ranks of the peers change
+ * and a build with a fresh generator per build, as the generator was used
+ * before it became reusable. The allocated bytes are the ones of the
+ * benchmark thread, as reported by the JVM, per build.
+ *
+ * Before measuring, the generator is checked to be reusable: a build of a
+ * subset of the peers after a build of all of them has only the subset. It
+ * is also checked to fail on node degrees that leave a level without
+ * children, even with enough capacity in total, instead of never ending.
+ *
+ * Usage: <code>TopologyGeneratorBenchmark [N] [iterations]</code>
+ *
+ * @author Evangelos
+ */
+public class TopologyGeneratorBenchmark {
+
+    private static int N=10000;
+    private static int iterations=200;
+    private static final RankPriority priority=RankPriority.HIGH_RANK;
+    private static final DescriptorType descriptor=DescriptorType.RANK;
+    private static final TreeType type=TreeType.SORTED_HtL;
+    private static final BalanceType balance=BalanceType.WEIGHT_BALANCED;
+    private static final Random random=new Random(1);
+    private static final ThreadMXBean threads=(ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+        if(args.length>0){
+            N=Integer.parseInt(args[0]);
+        }
+        if(args.length>1){
+            iterations=Integer.parseInt(args[1]);
+        }
+        FingerDescriptor[] descriptors=new FingerDescriptor[N];
+        Set<FingerDescriptor> peers=new HashSet<FingerDescriptor>();
+        for(int i=0; i<N; i++){
+            descriptors[i]=new FingerDescriptor(new Finger(new IntegerNetworkAddress(i), new RingIdentifier(random.nextDouble())));
+            descriptors[i].addDescriptor(DescriptorType.RANK, random.nextDouble());
+            descriptors[i].addDescriptor(DescriptorType.NODE_DEGREE, 2+random.nextInt(4));
+            peers.add(descriptors[i]);
+        }
+        checkReuse(peers);
+        System.out.println("Reuse: OK");
+        checkCapacity(new double[]{0.9, 0.5, 0.1}, new int[]{2, 1, 10});
+        checkCapacity(new double[]{0.9, 0.5, 0.1}, new int[]{1, 3, 3});
+        System.out.println("Capacity: OK");
+        System.out.println("build\tN\tbytes/build\tms/build");
+        TreeTopologyGenerator generator=new TreeTopologyGenerator(priority, descriptor, type, balance);
+        long allocated=allocatedBytes();
+        long start=System.nanoTime();
+        generator.generateTopology(peers);
+        print("first", allocatedBytes()-allocated, System.nanoTime()-start, 1);
+        for(int i=0; i<iterations; i++){
+            generator.generateTopology(peers);
+        }
+        allocated=allocatedBytes();
+        start=System.nanoTime();
+        for(int i=0; i<iterations; i++){
+            generator.generateTopology(peers);
+        }
+        print("steady", allocatedBytes()-allocated, System.nanoTime()-start, iterations);
+        Double[] ranks=new Double[N];
+        for(int i=0; i<N; i++){
+            ranks[i]=random.nextDouble();
+        }
+        long reranking=0;
+        allocated=allocatedBytes();
+        start=System.nanoTime();
+        for(int i=0; i<iterations; i++){
+            long before=allocatedBytes();
+            for(int j=0; j<N; j++){
+                descriptors[j].addDescriptor(DescriptorType.RANK, ranks[(i+j)%N]);
+            }
+            reranking+=allocatedBytes()-before;
+            generator.generateTopology(peers);
+        }
+        print("reranked", allocatedBytes()-allocated-reranking, System.nanoTime()-start, iterations);
+        allocated=allocatedBytes();
+        start=System.nanoTime();
+        for(int i=0; i<iterations; i++){
+            new TreeTopologyGenerator(priority, descriptor, type, balance).generateTopology(peers);
+        }
+        print("fresh", allocatedBytes()-allocated, System.nanoTime()-start, iterations);
+    }
+
+    /**
+     * Checks that a build of a subset of the peers does not keep the views of
+     * the previous build.
+     */
+    private static void checkReuse(Set<FingerDescriptor> peers){
+        TreeTopologyGenerator generator=new TreeTopologyGenerator(priority, descriptor, type, balance);
+        TreeTopologyAnalyzer analyzer=new TreeTopologyAnalyzer(priority, descriptor);
+        generator.generateTopology(peers);
+        Set<FingerDescriptor> subset=new HashSet<FingerDescriptor>();
+        for(FingerDescriptor peer:peers){
+            if(subset.size()<peers.size()/2){
+                subset.add(peer);
+            }
+        }
+        Map<FingerDescriptor,TreeViewFacilitator> views=toMap(generator.generateTopology(subset));
+        Map<FingerDescriptor,TreeViewFacilitator> freshViews=toMap(new TreeTopologyGenerator(priority, descriptor, type, balance).generateTopology(subset));
+        TreeTopologyStats stats=analyzer.analyze(views);
+        TreeTopologyStats fresh=analyzer.analyze(freshViews);
+        if(views.size()!=subset.size() || !stats.toString().equals(fresh.toString())){
+            throw new IllegalStateException("The rebuilt topology differs from a fresh one: "+stats+" "+fresh);
+        }
+    }
+
+    /**
+     * Checks that a build of peers with the given ranks and node degrees
+     * fails, as a level of their tree cannot have children.
+     *
+     * @param ranks the ranks of the peers
+     * @param degrees the node degrees of the peers
+     */
+    private static void checkCapacity(double[] ranks, int[] degrees){
+        Set<FingerDescriptor> peers=new HashSet<FingerDescriptor>();
+        for(int i=0; i<ranks.length; i++){
+            FingerDescriptor peer=new FingerDescriptor(new Finger(new IntegerNetworkAddress(i), new RingIdentifier(ranks[i])));
+            peer.addDescriptor(DescriptorType.RANK, ranks[i]);
+            peer.addDescriptor(DescriptorType.NODE_DEGREE, degrees[i]);
+            peers.add(peer);
+        }
+        try{
+            new TreeTopologyGenerator(priority, descriptor, type, balance).generateTopology(peers);
+        }
+        catch(IllegalStateException e){
+            return;
+        }
+        throw new IllegalStateException("A tree of the node degrees "+Arrays.toString(degrees)+" was built.");
+    }
+
+    private static Map<FingerDescriptor,TreeViewFacilitator> toMap(Set<Entry<FingerDescriptor,TreeViewFacilitator>> entries){
+        Map<FingerDescriptor,TreeViewFacilitator> views=new HashMap<FingerDescriptor,TreeViewFacilitator>();
+        for(Entry<FingerDescriptor,TreeViewFacilitator> view:entries){
+            views.put(view.getKey(), view.getValue());
+        }
+        return views;
+    }
+
+    private static long allocatedBytes(){
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void print(String build, long bytes, long nanos, int builds){
+        System.out.println(build+"\t"+N+"\t"+bytes/builds+"\t"+nanos/1e6/builds);
+    }
+}
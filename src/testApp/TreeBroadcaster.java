@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+
+package testApp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.log4j.Logger;
+import protopeer.BasePeerlet;
+import protopeer.Finger;
+import protopeer.network.Message;
+import protopeer.time.Timer;
+import protopeer.time.TimerListener;
+import protopeer.util.quantities.Time;
+import dsutil.protopeer.services.topology.trees.TreeApplicationInterface;
+
+/**
+ * A broadcast service for large payloads over the tree. The root splits a
+ * payload in chunks and every peer forwards each chunk to its children as soon
+ * as it arrives, instead of waiting for the whole payload. The delivery time
+ * is roughly the time to send the payload over one uplink plus the depth of
+ * the tree times the time of a chunk, instead of the depth times the time of
+ * the payload.
+ *
+ * The uplink of the peer sends one chunk at a time at the given bandwidth,
+ * serving the children in round robin. The buffering is bounded with a window
+ * of credits per child: a parent sends a chunk to a child only if the child has
+ * less than <code>window</code> chunks not yet forwarded to its own children.
+ * A peer returns a credit with a <code>BroadcastAck</code> when a chunk is sent
+ * to all its children, a leaf when it receives the chunk. In this way, a slow
+ * subtree holds back its parent instead of filling its buffers.
+ *
+ * The payload is assembled at every peer and delivered when all chunks have
+ * arrived. The children of a broadcast are the ones of the tree view when its
+ * first chunk arrives.
+ *
+ * @author Evangelos
+ */
+public class TreeBroadcaster extends BasePeerlet implements TreeApplicationInterface{
+
+    private static final Logger logger = Logger.getLogger(TreeBroadcaster.class);
+
+    private Finger parent=null;
+    private List<Finger> children=new ArrayList<Finger>();
+    private int chunkSize;
+    private int window;
+    private double bandwidth;
+    private int nextBroadcastId=0;
+    private Map<Integer,Broadcast> broadcasts=new LinkedHashMap<Integer,Broadcast>();
+    private Map<Integer,byte[]> payloads=new HashMap<Integer,byte[]>();
+    private Map<Integer,Double> deliveryTimes=new HashMap<Integer,Double>();
+    private Timer uplinkTimer;
+    private Broadcast sending=null;
+    private int sendingChild;
+    private int sendingIndex;
+    private int nextChild=0;
+    private int bufferedChunks=0;
+    private int maxBufferedChunks=0;
+    private int messages=0;
+
+    /**
+     * A broadcast in progress at the peer.
+     */
+    private static class Broadcast{
+        int broadcastId;
+        byte[] payload;
+        int chunkSize;
+        int numOfChunks;
+        boolean[] arrived;
+        int received;
+        List<Finger> children;
+        int[] next;
+        int[] acked;
+        int[] forwards;
+        int forwarded;
+    }
+
+    /**
+     * Initializes the broadcaster.
+     *
+     * @param chunkSize the size of a chunk in bytes, used at the root
+     * @param window the maximum number of chunks sent to a child and not yet
+     * forwarded by it
+     * @param bandwidth the bandwidth of the uplink in bytes per millisecond
+     */
+    public TreeBroadcaster(int chunkSize, int window, double bandwidth){
+        this.chunkSize=chunkSize;
+        this.window=window;
+        this.bandwidth=bandwidth;
+    }
+
+    /**
+     * Creates the timer of the uplink.
+     */
+    @Override
+    public void start() {
+        super.start();
+        this.uplinkTimer=getPeer().getClock().createNewTimer();
+        this.uplinkTimer.addTimerListener(new TimerListener() {
+            public void timerExpired(Timer timer) {
+                sendChunk();
+            }
+        });
+    }
+
+    /**
+     * Sets the parent provided by the <code>TreeProvider</code>.
+     *
+     * @param parent the finger of the parent
+    */
+    public void setParent(Finger parent){
+        this.parent=parent;
+    }
+
+    /**
+     * Sets the children provided by the <code>TreeProvider</code>.
+     *
+     * @param children the fingers of the children
+    */
+    public void setChildren(List<Finger> children){
+        this.children.addAll(children);
+    }
+
+    /**
+     * Sets the tree view provided by the <code>TreeProvider</code>.
+     *
+     * @param parent the finger of the parent
+     * @param children the fingers of the children
+    */
+    public void setTreeView(Finger parent, List<Finger> children){
+        this.parent=parent;
+        this.children.clear();
+        this.children.addAll(children);
+    }
+
+    /**
+     * Starts the broadcast of a payload at the root.
+     *
+     * @param payload the payload, not empty
+     * @return the identifier of the broadcast
+     */
+    public int broadcast(byte[] payload){
+        if(payload.length==0){
+            throw new IllegalArgumentException("The payload is empty.");
+        }
+        Broadcast broadcast=this.createBroadcast(this.nextBroadcastId++, payload.length, this.chunkSize);
+        System.arraycopy(payload, 0, broadcast.payload, 0, payload.length);
+        broadcast.received=broadcast.numOfChunks;
+        this.deliver(broadcast);
+        this.transmit();
+        return broadcast.broadcastId;
+    }
+
+    /**
+     * Creates a broadcast with the current children of the peer.
+     *
+     * @param broadcastId the identifier of the broadcast
+     * @param length the length of the payload
+     * @param chunkSize the size of a chunk
+     * @return the broadcast
+     */
+    private Broadcast createBroadcast(int broadcastId, int length, int chunkSize){
+        Broadcast broadcast=new Broadcast();
+        broadcast.broadcastId=broadcastId;
+        broadcast.payload=new byte[length];
+        broadcast.chunkSize=chunkSize;
+        broadcast.numOfChunks=(length+chunkSize-1)/chunkSize;
+        broadcast.arrived=new boolean[broadcast.numOfChunks];
+        broadcast.children=new ArrayList<Finger>(this.children);
+        broadcast.next=new int[broadcast.children.size()];
+        broadcast.acked=new int[broadcast.children.size()];
+        broadcast.forwards=new int[broadcast.numOfChunks];
+        this.broadcasts.put(broadcastId, broadcast);
+        this.payloads.put(broadcastId, broadcast.payload);
+        return broadcast;
+    }
+
+    /**
+     * Keeps the delivery time of the payload if all the chunks have arrived.
+     *
+     * @param broadcast the broadcast
+     */
+    private void deliver(Broadcast broadcast){
+        if(broadcast.received==broadcast.numOfChunks){
+            this.deliveryTimes.put(broadcast.broadcastId, getPeer().getClock().getCurrentTime());
+        }
+    }
+
+    /**
+     * Starts sending the next chunk over the uplink if it is idle. A chunk is
+     * sent to a child if it has arrived and the child has a credit. The children
+     * are served in round robin and the broadcasts in the order they started.
+     */
+    private void transmit(){
+        if(this.sending!=null){
+            return;
+        }
+        for(Broadcast broadcast:this.broadcasts.values()){
+            int numOfChildren=broadcast.children.size();
+            for(int i=0; i<numOfChildren; i++){
+                int child=(this.nextChild+i)%numOfChildren;
+                int index=broadcast.next[child];
+                if(index<broadcast.received && index<broadcast.acked[child]+this.window){
+                    this.sending=broadcast;
+                    this.sendingChild=child;
+                    this.sendingIndex=index;
+                    broadcast.next[child]++;
+                    this.nextChild=child+1;
+                    this.uplinkTimer.schedule(Time.inMilliseconds(this.getChunkLength(broadcast, index)/this.bandwidth));
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the chunk at the end of its transmission over the uplink and
+     * returns a credit to the parent if the chunk is sent to all children.
+     */
+    private void sendChunk(){
+        Broadcast broadcast=this.sending;
+        int index=this.sendingIndex;
+        this.sending=null;
+        BroadcastChunk message=new BroadcastChunk();
+        message.broadcastId=broadcast.broadcastId;
+        message.index=index;
+        message.chunkSize=broadcast.chunkSize;
+        message.length=broadcast.payload.length;
+        message.data=new byte[this.getChunkLength(broadcast, index)];
+        System.arraycopy(broadcast.payload, index*broadcast.chunkSize, message.data, 0, message.data.length);
+        getPeer().sendMessage(broadcast.children.get(this.sendingChild).getNetworkAddress(), message);
+        this.messages++;
+        broadcast.forwards[index]++;
+        if(broadcast.forwards[index]==broadcast.children.size()){
+            this.release(broadcast, index);
+        }
+        this.transmit();
+    }
+
+    /**
+     * Releases a chunk that is no longer buffered for the children and
+     * returns a credit to the parent.
+     *
+     * @param broadcast the broadcast
+     * @param index the index of the chunk
+     */
+    private void release(Broadcast broadcast, int index){
+        broadcast.forwarded++;
+        if(broadcast.forwarded==broadcast.numOfChunks){
+            this.broadcasts.remove(broadcast.broadcastId);
+        }
+        if(this.parent!=null){
+            this.bufferedChunks--;
+            BroadcastAck ack=new BroadcastAck();
+            ack.broadcastId=broadcast.broadcastId;
+            ack.index=index;
+            getPeer().sendMessage(this.parent.getNetworkAddress(), ack);
+            this.messages++;
+        }
+    }
+
+    private int getChunkLength(Broadcast broadcast, int index){
+        return Math.min(broadcast.chunkSize, broadcast.payload.length-index*broadcast.chunkSize);
+    }
+
+    /**
+     * Places a chunk in the payload and forwards it to the children.
+     *
+     * @param message the chunk sent by the parent
+     */
+    private void runPassiveState(BroadcastChunk message){
+        Broadcast broadcast=this.broadcasts.get(message.broadcastId);
+        if(broadcast==null){
+            if(this.payloads.containsKey(message.broadcastId)){
+                logger.debug("Chunk of a completed broadcast: "+message.broadcastId);
+                return;
+            }
+            broadcast=this.createBroadcast(message.broadcastId, message.length, message.chunkSize);
+        }
+        if(broadcast.arrived[message.index]){
+            logger.debug("Duplicate chunk "+message.index+" of broadcast "+message.broadcastId);
+            return;
+        }
+        broadcast.arrived[message.index]=true;
+        System.arraycopy(message.data, 0, broadcast.payload, message.index*broadcast.chunkSize, message.data.length);
+        while(broadcast.received<broadcast.numOfChunks && broadcast.arrived[broadcast.received]){
+            broadcast.received++;
+        }
+        this.deliver(broadcast);
+        this.bufferedChunks++;
+        this.maxBufferedChunks=Math.max(this.maxBufferedChunks, this.bufferedChunks);
+        if(broadcast.children.isEmpty()){
+            this.release(broadcast, message.index);
+        }
+        else{
+            this.transmit();
+        }
+    }
+
+    /**
+     * Returns a credit of a child.
+     *
+     * @param message the acknowledgement of the child
+     */
+    private void runPassiveState(BroadcastAck message){
+        Broadcast broadcast=this.broadcasts.get(message.broadcastId);
+        if(broadcast==null){
+            logger.debug("Acknowledgement of an unknown broadcast: "+message.broadcastId);
+            return;
+        }
+        for(int i=0; i<broadcast.children.size(); i++){
+            if(broadcast.children.get(i).getNetworkAddress().equals(message.getSourceAddress())){
+                broadcast.acked[i]++;
+                this.transmit();
+                return;
+            }
+        }
+        logger.debug("Acknowledgement of an unknown child: "+message.getSourceAddress());
+    }
+
+    /**
+     * Returns the payload of a broadcast.
+     *
+     * @param broadcastId the identifier of the broadcast
+     * @return the payload or null if it is not delivered yet
+     */
+    public byte[] getPayload(int broadcastId){
+        return this.deliveryTimes.containsKey(broadcastId) ? this.payloads.get(broadcastId) : null;
+    }
+
+    /**
+     * Returns the time the payload of a broadcast was delivered.
+     *
+     * @param broadcastId the identifier of the broadcast
+     * @return the delivery time in milliseconds or null if it is not delivered
+     * yet
+     */
+    public Double getDeliveryTime(int broadcastId){
+        return this.deliveryTimes.get(broadcastId);
+    }
+
+    /**
+     * @return the maximum number of chunks received and not yet forwarded to
+     * all children at the same time
+     */
+    public int getMaxBufferedChunks(){
+        return this.maxBufferedChunks;
+    }
+
+    /**
+     * @return true if the peer is the root of the tree
+     */
+    public boolean isRoot(){
+        return this.parent==null && !this.children.isEmpty();
+    }
+
+    /**
+     * @return the number of chunks and acknowledgements sent by the peer
+     */
+    public int getMessages(){
+        return this.messages;
+    }
+
+    /**
+     * Handles incoming messages of type <code>BroadcastChunk</code> and
+     * <code>BroadcastAck</code>.
+     *
+     * @param message the incoming message.
+    */
+    @Override
+    public void handleIncomingMessage(Message message) {
+        if (message instanceof BroadcastChunk) {
+            this.runPassiveState((BroadcastChunk) message);
+        }
+        if (message instanceof BroadcastAck) {
+            this.runPassiveState((BroadcastAck) message);
+        }
+    }
+}
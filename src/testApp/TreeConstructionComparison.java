@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package testApp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import protopeer.BasePeerlet;
+import protopeer.Experiment;
+import protopeer.Finger;
+import protopeer.Peer;
+import protopeer.PeerFactory;
+import dsutil.generic.RankPriority;
+import protopeer.SimulatedExperiment;
+import protopeer.network.Message;
+import protopeer.network.NetworkAddress;
+import protopeer.network.NetworkInterfaceFactory;
+import protopeer.network.delayloss.DelayLossNetworkInterfaceFactory;
+import protopeer.network.delayloss.UniformDelayModel;
+import protopeer.servers.bootstrap.SimplePeerIdentifierGenerator;
+import protopeer.util.quantities.Time;
+import dsutil.protopeer.services.topology.trees.DescriptorType;
+import dsutil.protopeer.services.topology.trees.TreeApplicationInterface;
+import dsutil.protopeer.services.topology.trees.TreeProvider;
+import dsutil.protopeer.services.topology.trees.TreeType;
+import tree.BalanceType;
+import tree.centralized.client.TreeClient;
+import tree.centralized.server.TreeServer;
+import tree.decentralized.GossipTreeClient;
+
+/**
+ * Compares the tree construction of the <code>TreeServer</code> with the
+ * decentralized construction of the <code>GossipTreeClient</code> for an
+ * increasing number of peers. For each network size, the experiment reports
+ * the convergence time, i.e. the time the last tree view is delivered, the
+ * number of messages sent, the coverage, i.e. the fraction of peers that
+ * received a tree view, the number of roots and the height of the tree. The
+ * network has a constant latency per hop. A construction that does not cover
+ * all peers with a single tree, or whose height differs from the one of the
+ * tree server for the same peers, is reported as failed.
+ *
+ * Usage: <code>TreeConstructionComparison [N1,N2,...]</code>
+ *
+ * @author Evangelos
+ */
+public class TreeConstructionComparison extends SimulatedExperiment {
+
+    //Simulation Parameters
+    private final static int runDuration=600;
+    private static int[] networkSizes=new int[]{50,100,200,400};
+    private final static int[] v=new int[]{3};
+    private final static int gossipPeriod=1000;
+    private final static int viewSize=20;
+    private final static int seedsPerPeer=3;
+    private final static int stableRounds=15;
+    private final static double latency=20;
+
+    private static final RankPriority priority=RankPriority.HIGH_RANK;
+    private static final DescriptorType descriptor=DescriptorType.RANK;
+    private static final TreeType type=TreeType.SORTED_HtL;
+    private static final BalanceType balance=BalanceType.WEIGHT_BALANCED;
+
+    //Measurements
+    private static Map<NetworkAddress,NetworkAddress> parents;
+    private static double lastViewTime;
+    private static long messages;
+    private static int serverHeight;
+
+    public static void main(String[] args) {
+        if(args.length>0){
+            String[] sizes=args[0].split(",");
+            networkSizes=new int[sizes.length];
+            for(int i=0; i<sizes.length; i++){
+                networkSizes[i]=Integer.parseInt(sizes[i]);
+            }
+        }
+        System.out.println("System started.");
+        Experiment.initEnvironment();
+        System.out.println("mode\tN\tconvergence(ms)\tmessages\tmessages/peer\tcoverage\troots\theight\tresult");
+        for(int N:networkSizes){
+            run(N, false);
+            run(N, true);
+        }
+        System.out.println("System finished.");
+    }
+
+    /**
+     * Runs the tree construction for a network size and prints the
+     * measurements.
+     *
+     * @param N the number of peers
+     * @param gossip true for the gossip construction, false for the tree server
+     */
+    private static void run(final int N, final boolean gossip){
+        parents=new HashMap<NetworkAddress,NetworkAddress>();
+        lastViewTime=0;
+        messages=0;
+        TreeConstructionComparison exp=new TreeConstructionComparison();
+        exp.init();
+        final Random random=new Random(N);
+        final NetworkAddress serverAddress=exp.getAddressToBindTo(0);
+        PeerFactory peerFactory=new PeerFactory() {
+            public Peer createPeer(int peerIndex, Experiment experiment) {
+                Peer newPeer = new Peer(peerIndex);
+                double rank=random.nextDouble();
+                int dMax=v[random.nextInt(v.length)];
+                if(gossip){
+                    List<NetworkAddress> seeds=new ArrayList<NetworkAddress>();
+                    for(int i=0; i<seedsPerPeer; i++){
+                        int seed=random.nextInt(N);
+                        if(seed!=peerIndex){
+                            seeds.add(experiment.getAddressToBindTo(seed));
+                        }
+                    }
+                    newPeer.addPeerlet(new GossipTreeClient(seeds, new SimplePeerIdentifierGenerator(), priority, rank, dMax, gossipPeriod, viewSize, stableRounds));
+                }
+                else{
+                    if (peerIndex == 0) {
+                        newPeer.addPeerlet(new TreeServer(N, priority, descriptor, type, balance));
+                    }
+                    newPeer.addPeerlet(new TreeClient(serverAddress, new SimplePeerIdentifierGenerator(), rank, dMax));
+                }
+                newPeer.addPeerlet(new TreeProvider());
+                newPeer.addPeerlet(new TreeRecorder());
+                return newPeer;
+            }
+        };
+        exp.initPeers(0,N,peerFactory);
+        exp.startPeers(0,N);
+        exp.runSimulation(Time.inSeconds(runDuration));
+        int roots=0;
+        int height=0;
+        for(NetworkAddress peer:parents.keySet()){
+            int depth=0;
+            NetworkAddress ancestor=parents.get(peer);
+            while(ancestor!=null && depth<=N){
+                depth++;
+                ancestor=parents.get(ancestor);
+            }
+            if(depth==0){
+                roots++;
+            }
+            height=Math.max(height, depth);
+        }
+        if(!gossip){
+            serverHeight=height;
+        }
+        System.out.println((gossip ? "gossip" : "server")+"\t"+N+"\t"+lastViewTime+"\t"+messages+"\t"+
+                (double)messages/N+"\t"+(double)parents.size()/N+"\t"+roots+"\t"+height+"\t"+
+                (parents.size()==N && roots==1 && height==serverHeight ? "OK" : "FAILED"));
+    }
+
+    /**
+     * Uses a constant latency per hop.
+     *
+     * @return the factory of the network interfaces
+     */
+    @Override
+    public NetworkInterfaceFactory createNetworkInterfaceFactory() {
+        return new DelayLossNetworkInterfaceFactory(getEventScheduler(), new UniformDelayModel(latency, latency));
+    }
+
+    /**
+     * Records the tree view delivered to the peer and counts the messages the
+     * peer sends.
+     */
+    private static class TreeRecorder extends BasePeerlet implements TreeApplicationInterface{
+
+        public void setParent(Finger parent){
+        }
+
+        public void setChildren(List<Finger> children){
+        }
+
+        public void setTreeView(Finger parent, List<Finger> children){
+            parents.put(getPeer().getNetworkAddress(), parent==null ? null : parent.getNetworkAddress());
+            lastViewTime=Math.max(lastViewTime, getPeer().getClock().getCurrentTime());
+        }
+
+        @Override
+        public void handleOutgoingMessage(Message message) {
+            messages++;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package testApp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import protopeer.BasePeerlet;
+import protopeer.Experiment;
+import protopeer.Peer;
+import protopeer.PeerFactory;
+import dsutil.generic.RankPriority;
+import protopeer.SimulatedExperiment;
+import protopeer.network.NetworkAddress;
+import protopeer.network.NetworkInterfaceFactory;
+import protopeer.network.delayloss.DelayLossNetworkInterfaceFactory;
+import protopeer.network.delayloss.UniformDelayModel;
+import protopeer.servers.bootstrap.SimplePeerIdentifierGenerator;
+import protopeer.time.Timer;
+import protopeer.time.TimerListener;
+import protopeer.util.quantities.Time;
+import dsutil.protopeer.FingerDescriptor;
+import dsutil.protopeer.services.topology.trees.DescriptorType;
+import dsutil.protopeer.services.topology.trees.TreeProvider;
+import dsutil.protopeer.services.topology.trees.TreeType;
+import tree.BalanceType;
+import tree.TreeViewHandle;
+import tree.centralized.client.TreeClient;
+import tree.centralized.server.TreeServer;
+
+/**
+ * Kills peers of a tree with failure detection, one at a time, and checks
+ * after each repair that the live peers form a single tree without cycles.
+ * Every third failure kills the root, and every third an interior peer
+ * together with its parent, so that the orphans lose their backup parent too
+ * and are repaired through the tree server. The others kill an interior
+ * peer. The
+ * peer of the tree server has the lowest rank, so it is a leaf and is never
+ * killed. Before each failure, the experiment reports the failed peer, the
+ * number of roots, the peers in a cycle, the peers not reachable from the
+ * root and the peers whose parent does not have them as a child, or whose
+ * children include failed peers. Each repair restarts the aggregation, and the
+ * experiment also reports the fraction of the live peers whose global value
+ * is the sum of the values of the live peers. The aggregation starts from the
+ * subtree ready events of the tree view handles instead of a fixed delay, and
+ * the size of the subtree ready at the root is reported too.
+ *
+ * Usage: <code>TreeRepairExperiment [failures]</code>
+ *
+ * @author Evangelos
+ */
+public class TreeRepairExperiment extends SimulatedExperiment {
+
+    //Simulation Parameters
+    private final static int N=100;
+    private final static int[] v=new int[]{2,3,4,5};
+    private final static int heartbeatPeriod=500;
+    private final static double latency=20;
+    private final static int bootstrapDuration=5;
+    private final static int failurePeriod=5;
+    private static int failures=9;
+
+    private static final RankPriority priority=RankPriority.HIGH_RANK;
+    private static final DescriptorType descriptor=DescriptorType.RANK;
+    private static final TreeType type=TreeType.SORTED_HtL;
+    private static final BalanceType balance=BalanceType.WEIGHT_BALANCED;
+
+    public static void main(String[] args) {
+        if(args.length>0){
+            failures=Integer.parseInt(args[0]);
+        }
+        System.out.println("System started.");
+        Experiment.initEnvironment();
+        final List<Peer> peers=new ArrayList<Peer>();
+        final Map<NetworkAddress,TreeClient> clients=new HashMap<NetworkAddress,TreeClient>();
+        final Map<NetworkAddress,Aggregator> aggregators=new HashMap<NetworkAddress,Aggregator>();
+        final Map<NetworkAddress,Double> values=new HashMap<NetworkAddress,Double>();
+        TreeRepairExperiment exp=new TreeRepairExperiment();
+        exp.init();
+        final Random random=new Random(N);
+        final NetworkAddress serverAddress=exp.getAddressToBindTo(0);
+        final FailureInjector injector=new FailureInjector(peers, clients, aggregators, values, random);
+        PeerFactory peerFactory=new PeerFactory() {
+            public Peer createPeer(int peerIndex, Experiment experiment) {
+                Peer newPeer = new Peer(peerIndex);
+                double rank=random.nextDouble();
+                if (peerIndex == 0) {
+                    newPeer.addPeerlet(new TreeServer(N, priority, descriptor, type, balance));
+                    newPeer.addPeerlet(injector);
+                    rank=0.0;
+                }
+                TreeClient client=new TreeClient(serverAddress, new SimplePeerIdentifierGenerator(), rank, v[random.nextInt(v.length)], heartbeatPeriod);
+                newPeer.addPeerlet(client);
+                newPeer.addPeerlet(new TreeProvider());
+                double value=random.nextDouble();
+                Aggregator aggregator=new Aggregator(value, client.getTreeViewHandle());
+                newPeer.addPeerlet(aggregator);
+                peers.add(newPeer);
+                NetworkAddress address=experiment.getAddressToBindTo(peerIndex);
+                clients.put(address, client);
+                aggregators.put(address, aggregator);
+                values.put(address, value);
+                return newPeer;
+            }
+        };
+        exp.initPeers(0,N,peerFactory);
+        exp.startPeers(0,N);
+        System.out.println("failure\tfailed peer\tlive peers\troots\tin cycles\tunreachable\tinconsistent\taggregated\troot subtree");
+        exp.runSimulation(Time.inSeconds(bootstrapDuration+(failures+1)*failurePeriod+1));
+        System.out.println(injector.correct ? "Repairs correct." : "Repairs FAILED.");
+        System.out.println("System finished.");
+    }
+
+    /**
+     * Uses a constant latency per hop.
+     *
+     * @return the factory of the network interfaces
+     */
+    @Override
+    public NetworkInterfaceFactory createNetworkInterfaceFactory() {
+        return new DelayLossNetworkInterfaceFactory(getEventScheduler(), new UniformDelayModel(latency, latency));
+    }
+
+    /**
+     * Checks the tree and kills a peer every failure period, and checks the
+     * tree once more after the last failure.
+     */
+    private static class FailureInjector extends BasePeerlet{
+
+        private List<Peer> peers;
+        private Map<NetworkAddress,TreeClient> clients;
+        private Map<NetworkAddress,Aggregator> aggregators;
+        private Map<NetworkAddress,Double> values;
+        private Random random;
+        private int failure=0;
+        private String failed="-";
+        boolean correct=true;
+
+        public FailureInjector(List<Peer> peers, Map<NetworkAddress,TreeClient> clients, Map<NetworkAddress,Aggregator> aggregators, Map<NetworkAddress,Double> values, Random random){
+            this.peers=peers;
+            this.clients=clients;
+            this.aggregators=aggregators;
+            this.values=values;
+            this.random=random;
+        }
+
+        @Override
+        public void start() {
+            super.start();
+            Timer timer=getPeer().getClock().createNewTimer();
+            timer.addTimerListener(new TimerListener() {
+                public void timerExpired(Timer timer) {
+                    checkTree();
+                    if(failure<failures){
+                        killPeer();
+                        timer.schedule(Time.inSeconds(failurePeriod));
+                    }
+                }
+            });
+            timer.schedule(Time.inSeconds(bootstrapDuration));
+        }
+
+        private boolean isAlive(NetworkAddress address){
+            return this.clients.get(address).getPeer().getState()==Peer.PeerState.RUNNING;
+        }
+
+        private TreeViewHandle getView(NetworkAddress address){
+            return this.clients.get(address).getTreeViewHandle();
+        }
+
+        /**
+         * Kills the root at every third failure, a random interior peer and
+         * its parent at every third failure, and a random interior peer
+         * otherwise.
+         */
+        private void killPeer(){
+            boolean root=this.failure%3==2;
+            List<Peer> candidates=new ArrayList<Peer>();
+            for(Peer peer:this.peers){
+                TreeViewHandle view=this.getView(peer.getNetworkAddress());
+                if(peer.getIndexNumber()!=0 && peer.getState()==Peer.PeerState.RUNNING &&
+                        (root ? view.getParent()==null : view.getParent()!=null && view.getChildren().size()>0)){
+                    candidates.add(peer);
+                }
+            }
+            this.failure++;
+            if(candidates.isEmpty()){
+                this.failed="none";
+                return;
+            }
+            Peer victim=candidates.get(this.random.nextInt(candidates.size()));
+            this.failed=(root ? "root " : "interior ")+victim.getIndexNumber();
+            if(this.failure%3==2){
+                NetworkAddress parent=this.getView(victim.getNetworkAddress()).getParent().getNetworkAddress();
+                Peer parentPeer=this.clients.get(parent).getPeer();
+                this.failed="interior "+victim.getIndexNumber()+" and parent "+parentPeer.getIndexNumber();
+                parentPeer.stop();
+            }
+            victim.stop();
+        }
+
+        /**
+         * Follows the parents of every live peer to the root and prints the
+         * violations of a single tree and the correctness of the aggregation.
+         */
+        private void checkTree(){
+            int live=0;
+            double sum=0;
+            List<NetworkAddress> roots=new ArrayList<NetworkAddress>();
+            for(NetworkAddress address:this.clients.keySet()){
+                if(this.isAlive(address)){
+                    live++;
+                    sum+=this.values.get(address);
+                    if(this.getView(address).getParent()==null){
+                        roots.add(address);
+                    }
+                }
+            }
+            int inCycles=0;
+            int unreachable=0;
+            int inconsistent=0;
+            int aggregated=0;
+            for(NetworkAddress address:this.clients.keySet()){
+                if(!this.isAlive(address)){
+                    continue;
+                }
+                Aggregator aggregator=this.aggregators.get(address);
+                if(aggregator.isComplete() && Math.abs(aggregator.getGlobal()-sum)<1e-9){
+                    aggregated++;
+                }
+                TreeViewHandle view=this.getView(address);
+                for(FingerDescriptor child:view.getChildren()){
+                    if(!this.isAlive(child.getNetworkAddress())){
+                        inconsistent++;
+                    }
+                }
+                FingerDescriptor parent=view.getParent();
+                if(parent!=null && (!this.isAlive(parent.getNetworkAddress()) ||
+                        !this.getView(parent.getNetworkAddress()).getChildren().contains(this.clients.get(address).getMyLocalDescriptor()))){
+                    inconsistent++;
+                }
+                NetworkAddress current=address;
+                int hops=0;
+                while(current!=null && hops<=live && this.isAlive(current)){
+                    FingerDescriptor next=this.getView(current).getParent();
+                    current=next==null ? null : next.getNetworkAddress();
+                    hops++;
+                }
+                if(hops>live){
+                    inCycles++;
+                }
+                else if(current!=null){
+                    unreachable++;
+                }
+            }
+            int rootSubtree=roots.isEmpty() ? 0 : this.getView(roots.get(0)).getSubtreeSize();
+            if(roots.size()!=1 || inCycles>0 || unreachable>0 || inconsistent>0 || aggregated<live || rootSubtree!=live){
+                this.correct=false;
+            }
+            System.out.println(this.failure+"\t"+this.failed+"\t"+live+"\t"+roots.size()+"\t"+inCycles+"\t"+unreachable+"\t"+inconsistent+"\t"+(double)aggregated/live+"\t"+rootSubtree);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package testApp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import protopeer.BasePeerlet;
+import protopeer.Experiment;
+import protopeer.Peer;
+import protopeer.PeerFactory;
+import dsutil.generic.RankPriority;
+import protopeer.SimulatedExperiment;
+import protopeer.network.Message;
+import protopeer.network.NetworkAddress;
+import protopeer.network.NetworkInterfaceFactory;
+import protopeer.network.delayloss.DelayLossNetworkInterfaceFactory;
+import protopeer.network.delayloss.UniformDelayModel;
+import protopeer.servers.bootstrap.SimplePeerIdentifierGenerator;
+import protopeer.util.quantities.Time;
+import dsutil.protopeer.services.topology.trees.DescriptorType;
+import dsutil.protopeer.services.topology.trees.TreeProvider;
+import dsutil.protopeer.services.topology.trees.TreeType;
+import tree.BalanceType;
+import tree.TreeViewAdapter;
+import tree.TreeViewHandle;
+import tree.centralized.TreeViewRequest;
+import tree.centralized.client.TreeClient;
+import tree.centralized.server.TreeServer;
+
+/**
+ * Restarts the peers of a tree with the tree views cached in local files.
+ * The peers bootstrap cold from the tree server first. Then all the peers
+ * apart from the one of the tree server are restarted with fresh state and
+ * validate their cached views with their neighbors. At last, the cache of one
+ * peer is corrupted before all peers restart again. For each phase, the
+ * experiment reports the requests received by the tree server, the peers
+ * with a tree view, the size of the subtree ready at the root and the time
+ * from the start of the phase until the whole tree is ready. The peer of the
+ * tree server has the lowest rank, so that the root is a restarted peer.
+ * The peers restart one after the other, so the validations sent to a
+ * neighbor that is not up yet are lost. Such a neighbor validates the view
+ * itself when it starts, apart from the peer with the corrupted cache, whose
+ * children wait for the validation timeout before asking the tree server.
+ *
+ * Usage: <code>WarmRestartExperiment</code>
+ *
+ * @author Evangelos
+ */
+public class WarmRestartExperiment extends SimulatedExperiment {
+
+    //Simulation Parameters
+    private final static int N=100;
+    private final static int[] v=new int[]{2,3,4,5};
+    private final static double latency=20;
+    private final static int phaseDuration=5;
+
+    private static final RankPriority priority=RankPriority.HIGH_RANK;
+    private static final DescriptorType descriptor=DescriptorType.RANK;
+    private static final TreeType type=TreeType.SORTED_HtL;
+    private static final BalanceType balance=BalanceType.WEIGHT_BALANCED;
+
+    //Measurements
+    private static int requests;
+    private static double phaseStart;
+    private static double treeReady;
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("System started.");
+        Experiment.initEnvironment();
+        final File directory=File.createTempFile("tree-view-cache", "");
+        directory.delete();
+        directory.mkdir();
+        final Random random=new Random(N);
+        final double[] ranks=new double[N];
+        final int[] degrees=new int[N];
+        final File[] files=new File[N];
+        for(int i=0; i<N; i++){
+            ranks[i]=i==0 ? 0.0 : random.nextDouble();
+            degrees[i]=v[random.nextInt(v.length)];
+            files[i]=new File(directory, "peer-"+i+".cache");
+        }
+        final WarmRestartExperiment exp=new WarmRestartExperiment();
+        exp.init();
+        final NetworkAddress serverAddress=exp.getAddressToBindTo(0);
+        final TreeClient[] clients=new TreeClient[N];
+        final Peer[] peers=new Peer[N];
+        PeerFactory peerFactory=new PeerFactory() {
+            public Peer createPeer(int peerIndex, Experiment experiment) {
+                Peer newPeer = new Peer(peerIndex);
+                if (peerIndex == 0) {
+                    newPeer.addPeerlet(new TreeServer(N, priority, descriptor, type, balance));
+                    newPeer.addPeerlet(new RequestCounter());
+                }
+                final TreeClient client=new TreeClient(serverAddress, new SimplePeerIdentifierGenerator(), ranks[peerIndex], degrees[peerIndex], 0, files[peerIndex]);
+                client.getTreeViewHandle().addListener(new TreeViewAdapter() {
+                    @Override
+                    public void subtreeReady(int subtreeSize){
+                        if(subtreeSize==N && client.getTreeViewHandle().getParent()==null){
+                            treeReady=client.getPeer().getClock().getCurrentTime()-phaseStart;
+                        }
+                    }
+                });
+                newPeer.addPeerlet(client);
+                newPeer.addPeerlet(new TreeProvider());
+                newPeer.addPeerlet(new Aggregator(random.nextDouble(), client.getTreeViewHandle()));
+                clients[peerIndex]=client;
+                peers[peerIndex]=newPeer;
+                return newPeer;
+            }
+        };
+        System.out.println("phase\tserver requests\tpeers with view\troot subtree\ttree ready(ms)");
+        startPhase(0);
+        exp.initPeers(0,N,peerFactory);
+        exp.startPeers(0,N);
+        exp.runSimulation(Time.inSeconds(phaseDuration));
+        printPhase("cold", clients);
+        startPhase(exp.getClock().getCurrentTime());
+        restartPeers(exp, peerFactory, peers);
+        exp.runSimulation(Time.inSeconds(phaseDuration));
+        printPhase("warm", clients);
+        int corrupted=1+random.nextInt(N-1);
+        FileOutputStream out=new FileOutputStream(files[corrupted]);
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+        startPhase(exp.getClock().getCurrentTime());
+        restartPeers(exp, peerFactory, peers);
+        exp.runSimulation(Time.inSeconds(phaseDuration));
+        printPhase("corrupted cache of peer "+corrupted, clients);
+        for(File file:files){
+            file.delete();
+        }
+        directory.delete();
+        System.out.println("System finished.");
+    }
+
+    /**
+     * Uses a constant latency per hop.
+     *
+     * @return the factory of the network interfaces
+     */
+    @Override
+    public NetworkInterfaceFactory createNetworkInterfaceFactory() {
+        return new DelayLossNetworkInterfaceFactory(getEventScheduler(), new UniformDelayModel(latency, latency));
+    }
+
+    /**
+     * Resets the measurements at the start of a phase.
+     *
+     * @param time the start time of the phase in milliseconds
+     */
+    private static void startPhase(double time){
+        requests=0;
+        phaseStart=time;
+        treeReady=-1;
+    }
+
+    /**
+     * Stops all peers apart from the one of the tree server and starts new
+     * peers with fresh state at the same addresses.
+     *
+     * @param exp the experiment
+     * @param peerFactory the factory of the peers
+     * @param peers the running peers
+     */
+    private static void restartPeers(WarmRestartExperiment exp, PeerFactory peerFactory, Peer[] peers){
+        for(int i=1; i<N; i++){
+            peers[i].stop();
+        }
+        for(int i=1; i<N; i++){
+            Peer peer=peerFactory.createPeer(i, exp);
+            peer.init(exp.getNetworkInterfaceFactory(), exp.createClock(), exp.getAddressToBindTo(i));
+            peer.start();
+        }
+    }
+
+    /**
+     * Prints the measurements of a phase.
+     *
+     * @param phase the name of the phase
+     * @param clients the tree clients of the running peers
+     */
+    private static void printPhase(String phase, TreeClient[] clients){
+        int views=0;
+        int rootSubtree=0;
+        for(TreeClient client:clients){
+            TreeViewHandle handle=client.getTreeViewHandle();
+            if(handle.isViewReady()){
+                views++;
+                if(handle.getParent()==null){
+                    rootSubtree=handle.getSubtreeSize();
+                }
+            }
+        }
+        System.out.println(phase+"\t"+requests+"\t"+views+"\t"+rootSubtree+"\t"+treeReady);
+    }
+
+    /**
+     * Counts the requests received by the tree server.
+     */
+    private static class RequestCounter extends BasePeerlet{
+
+        @Override
+        public void handleIncomingMessage(Message message) {
+            if(message instanceof TreeViewRequest){
+                requests++;
+            }
+        }
+    }
+}
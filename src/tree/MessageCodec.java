@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package tree;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import dsutil.protopeer.FingerDescriptor;
+import dsutil.protopeer.services.topology.trees.DescriptorType;
+import protopeer.Finger;
+import protopeer.PeerIdentifier;
+import protopeer.RingIdentifier;
+import protopeer.network.IntegerNetworkAddress;
+import protopeer.network.Message;
+import protopeer.network.NetworkAddress;
+import protopeer.network.mina.MinaAddress;
+
+/**
+ * The compact binary encoding of the tree and aggregation messages. The
+ * messages implement <code>Externalizable</code> and use a codec instance for
+ * writing or reading their fields. Counts are encoded as variable length
+ * integers, ranks as raw doubles and node degrees as variable length integers.
+ *
+ * Network addresses are written in an address table: the first occurence of an
+ * address is written in full and every next occurence is a reference to its
+ * position in the table. In this way, the source address of a message and the
+ * address in the descriptor of the same peer are written once.
+ *
+ * A codec instance keeps the address table of a single message and should not
+ * be reused for another message.
+ *
+ * @author Evangelos
+ */
+public class MessageCodec {
+
+    private static final int NULL=0;
+    private static final int INTEGER_ADDRESS=1;
+    private static final int MINA_ADDRESS=2;
+    private static final int RING_IDENTIFIER=1;
+    private static final int RANK=1;
+    private static final int NODE_DEGREE=2;
+    private static final int OBJECT=3;
+
+    private Map<NetworkAddress,Integer> writtenAddresses=new HashMap<NetworkAddress,Integer>();
+    private List<NetworkAddress> readAddresses=new ArrayList<NetworkAddress>();
+
+    /**
+     * Writes the fields of the base <code>Message</code>: the source address.
+     * The destination address and the message size are transient, as in the
+     * default serialization, and are set by the network layer.
+     *
+     * @param out the output
+     * @param message the message written
+     * @throws IOException if writing fails
+     */
+    public void writeHeader(ObjectOutput out, Message message) throws IOException{
+        this.writeAddress(out, message.getSourceAddress());
+    }
+
+    /**
+     * Reads the fields of the base <code>Message</code>.
+     *
+     * @param in the input
+     * @param message the message read
+     * @throws IOException if reading fails
+     * @throws ClassNotFoundException if an address of an unknown type is read
+     */
+    public void readHeader(ObjectInput in, Message message) throws IOException, ClassNotFoundException{
+        message.setSourceAddress(this.readAddress(in));
+    }
+
+    /**
+     * Writes a finger descriptor that can be null.
+     *
+     * @param out the output
+     * @param descriptor the finger descriptor
+     * @throws IOException if writing fails
+     */
+    public void writeDescriptor(ObjectOutput out, FingerDescriptor descriptor) throws IOException{
+        if(descriptor==null){
+            out.writeBoolean(false);
+            return;
+        }
+        out.writeBoolean(true);
+        this.writeAddress(out, descriptor.getNetworkAddress());
+        PeerIdentifier identifier=descriptor.getPeerIdentifier();
+        if(identifier==null){
+            out.writeByte(NULL);
+        }
+        else if(identifier instanceof RingIdentifier){
+            out.writeByte(RING_IDENTIFIER);
+            out.writeDouble(((RingIdentifier)identifier).getPosition());
+        }
+        else{
+            out.writeByte(OBJECT);
+            out.writeObject(identifier);
+        }
+        Map<?,Object> descriptors=descriptor.getDescriptors();
+        writeVarInt(out, descriptors.size());
+        for(Entry<?,Object> entry:descriptors.entrySet()){
+            if(entry.getKey()==DescriptorType.RANK && entry.getValue() instanceof Double){
+                out.writeByte(RANK);
+                out.writeDouble((Double)entry.getValue());
+            }
+            else if(entry.getKey()==DescriptorType.NODE_DEGREE && entry.getValue() instanceof Integer){
+                out.writeByte(NODE_DEGREE);
+                writeVarInt(out, (Integer)entry.getValue());
+            }
+            else{
+                out.writeByte(OBJECT);
+                out.writeObject(entry.getKey());
+                out.writeObject(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Reads a finger descriptor that can be null.
+     *
+     * @param in the input
+     * @return the finger descriptor
+     * @throws IOException if reading fails
+     * @throws ClassNotFoundException if an object of an unknown type is read
+     */
+    public FingerDescriptor readDescriptor(ObjectInput in) throws IOException, ClassNotFoundException{
+        if(!in.readBoolean()){
+            return null;
+        }
+        NetworkAddress address=this.readAddress(in);
+        PeerIdentifier identifier=null;
+        int identifierType=in.readByte();
+        if(identifierType==RING_IDENTIFIER){
+            identifier=new RingIdentifier(in.readDouble());
+        }
+        else if(identifierType==OBJECT){
+            identifier=(PeerIdentifier)in.readObject();
+        }
+        FingerDescriptor descriptor=new FingerDescriptor(new Finger(address, identifier));
+        int size=readVarInt(in);
+        for(int i=0; i<size; i++){
+            int type=in.readByte();
+            switch(type){
+                case RANK:
+                    descriptor.addDescriptor(DescriptorType.RANK, in.readDouble());
+                    break;
+                case NODE_DEGREE:
+                    descriptor.addDescriptor(DescriptorType.NODE_DEGREE, readVarInt(in));
+                    break;
+                case OBJECT:
+                    Enum<?> key=(Enum<?>)in.readObject();
+                    descriptor.addDescriptor(key, in.readObject());
+                    break;
+                default:
+                    throw new IOException("Unknown descriptor type: "+type);
+            }
+        }
+        return descriptor;
+    }
+
+    /**
+     * Writes a list of finger descriptors that can be null.
+     *
+     * @param out the output
+     * @param descriptors the finger descriptors
+     * @throws IOException if writing fails
+     */
+    public void writeDescriptors(ObjectOutput out, List<FingerDescriptor> descriptors) throws IOException{
+        if(descriptors==null){
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, descriptors.size()+1);
+        for(FingerDescriptor descriptor:descriptors){
+            this.writeDescriptor(out, descriptor);
+        }
+    }
+
+    /**
+     * Reads a list of finger descriptors that can be null.
+     *
+     * @param in the input
+     * @return the finger descriptors
+     * @throws IOException if reading fails
+     * @throws ClassNotFoundException if an object of an unknown type is read
+     */
+    public List<FingerDescriptor> readDescriptors(ObjectInput in) throws IOException, ClassNotFoundException{
+        int size=readVarInt(in)-1;
+        if(size<0){
+            return null;
+        }
+        List<FingerDescriptor> descriptors=new ArrayList<FingerDescriptor>(size);
+        for(int i=0; i<size; i++){
+            descriptors.add(this.readDescriptor(in));
+        }
+        return descriptors;
+    }
+
+    /**
+     * Writes a network address in the address table of the message.
+     *
+     * @param out the output
+     * @param address the network address, can be null
+     * @throws IOException if writing fails
+     */
+    public void writeAddress(ObjectOutput out, NetworkAddress address) throws IOException{
+        if(address==null){
+            writeVarInt(out, NULL);
+            return;
+        }
+        Integer index=this.writtenAddresses.get(address);
+        if(index!=null){
+            writeVarInt(out, index+OBJECT+1);
+            return;
+        }
+        this.writtenAddresses.put(address, this.writtenAddresses.size());
+        if(address instanceof IntegerNetworkAddress){
+            writeVarInt(out, INTEGER_ADDRESS);
+            writeVarInt(out, ((IntegerNetworkAddress)address).getIntValue());
+        }
+        else if(address instanceof MinaAddress){
+            writeVarInt(out, MINA_ADDRESS);
+            byte[] ip=((MinaAddress)address).getInetAddress().getAddress();
+            out.writeByte(ip.length);
+            out.write(ip);
+            writeVarInt(out, ((MinaAddress)address).getPort());
+        }
+        else{
+            writeVarInt(out, OBJECT);
+            out.writeObject(address);
+        }
+    }
+
+    /**
+     * Reads a network address from the address table of the message.
+     *
+     * @param in the input
+     * @return the network address, can be null
+     * @throws IOException if reading fails or the address type or reference
+     * is unknown
+     * @throws ClassNotFoundException if an address of an unknown type is read
+     */
+    public NetworkAddress readAddress(ObjectInput in) throws IOException, ClassNotFoundException{
+        int type=readVarInt(in);
+        NetworkAddress address;
+        switch(type){
+            case NULL:
+                return null;
+            case INTEGER_ADDRESS:
+                address=new IntegerNetworkAddress(readVarInt(in));
+                break;
+            case MINA_ADDRESS:
+                byte[] ip=new byte[in.readByte()];
+                in.readFully(ip);
+                address=new MinaAddress(InetAddress.getByAddress(ip), readVarInt(in));
+                break;
+            case OBJECT:
+                address=(NetworkAddress)in.readObject();
+                break;
+            default:
+                int index=type-OBJECT-1;
+                if(index<0 || index>=this.readAddresses.size()){
+                    throw new IOException("Unknown address reference: "+type);
+                }
+                return this.readAddresses.get(index);
+        }
+        this.readAddresses.add(address);
+        return address;
+    }
+
+    /**
+     * Writes a non-negative integer in 1 to 5 bytes, 7 bits per byte.
+     *
+     * @param out the output
+     * @param value the integer
+     * @throws IOException if writing fails
+     */
+    public static void writeVarInt(DataOutput out, int value) throws IOException{
+        while((value & ~0x7F)!=0){
+            out.writeByte((value & 0x7F) | 0x80);
+            value>>>=7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads an integer written by <code>writeVarInt</code>.
+     *
+     * @param in the input
+     * @return the integer
+     * @throws IOException if reading fails
+     */
+    public static int readVarInt(DataInput in) throws IOException{
+        int value=0;
+        for(int shift=0; shift<32; shift+=7){
+            byte b=in.readByte();
+            value|=(b & 0x7F)<<shift;
+            if((b & 0x80)==0){
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer.");
+    }
+
+    /**
+     * Writes a non-negative long in 1 to 10 bytes, 7 bits per byte.
+     *
+     * @param out the output
+     * @param value the long
+     * @throws IOException if writing fails
+     */
+    public static void writeVarLong(DataOutput out, long value) throws IOException{
+        while((value & ~0x7FL)!=0){
+            out.writeByte((int)(value & 0x7F) | 0x80);
+            value>>>=7;
+        }
+        out.writeByte((int)value);
+    }
+
+    /**
+     * Reads a long written by <code>writeVarLong</code>.
+     *
+     * @param in the input
+     * @return the long
+     * @throws IOException if reading fails
+     */
+    public static long readVarLong(DataInput in) throws IOException{
+        long value=0;
+        for(int shift=0; shift<64; shift+=7){
+            byte b=in.readByte();
+            value|=(long)(b & 0x7F)<<shift;
+            if((b & 0x80)==0){
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length long.");
+    }
+}
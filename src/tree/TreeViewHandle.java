@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import dsutil.protopeer.FingerDescriptor;
+
+/**
+ * A non-blocking handle on the tree view of a peer. Applications register
+ * <code>TreeViewListener</code>s to chain work on the events "the view is
+ * ready", "the subtree is ready" and "the view changed", instead of waiting
+ * for a fixed time after the tree view is set.
+ *
+ * A listener added after an event has happened is called for it right away,
+ * so the order of adding listeners and receiving the tree view does not
+ * matter. The state of the handle can also be read at any time.
+ *
+ * A new tree view resets the subtree ready state, and the subtree ready event
+ * fires again when the subtree of the new view is ready, or when the size of
+ * the subtree changes, e.g. after a repair further down the subtree.
+ *
+ * The events are fired by the tree middleware.
+ *
+ * @author Evangelos
+ */
+public class TreeViewHandle {
+
+    private List<TreeViewListener> listeners=new ArrayList<TreeViewListener>();
+    private FingerDescriptor parent;
+    private List<FingerDescriptor> children;
+    private boolean viewReady=false;
+    private int subtreeSize=0;
+
+    /**
+     * Adds a listener. The listener is called for the view and subtree events
+     * that have already happened.
+     *
+     * @param listener the listener
+     */
+    public void addListener(TreeViewListener listener){
+        this.listeners.add(listener);
+        if(this.viewReady){
+            listener.viewReady(this.parent, this.children);
+        }
+        if(this.subtreeSize>0){
+            listener.subtreeReady(this.subtreeSize);
+        }
+    }
+
+    /**
+     * Removes a listener.
+     *
+     * @param listener the listener
+     */
+    public void removeListener(TreeViewListener listener){
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * @return true if the tree view has been delivered
+     */
+    public boolean isViewReady(){
+        return this.viewReady;
+    }
+
+    /**
+     * @return true if all the peers in the subtree have their tree view
+     */
+    public boolean isSubtreeReady(){
+        return this.subtreeSize>0;
+    }
+
+    /**
+     * @return the number of peers in the subtree, 0 if it is not ready yet
+     */
+    public int getSubtreeSize(){
+        return this.subtreeSize;
+    }
+
+    /**
+     * @return the current parent, null for the root or if the view is not
+     * ready
+     */
+    public FingerDescriptor getParent(){
+        return this.parent;
+    }
+
+    /**
+     * @return the current children, null if the view is not ready
+     */
+    public List<FingerDescriptor> getChildren(){
+        return this.children;
+    }
+
+    /**
+     * Sets a delivered tree view. The first view fires the view ready event,
+     * the next ones fire the view changed event. The subtree is not ready
+     * until it is reported again for the new view.
+     *
+     * @param parent the parent
+     * @param children the children
+     */
+    public void setTreeView(FingerDescriptor parent, List<FingerDescriptor> children){
+        this.parent=parent;
+        this.children=Collections.unmodifiableList(new ArrayList<FingerDescriptor>(children));
+        boolean first=!this.viewReady;
+        this.viewReady=true;
+        this.subtreeSize=0;
+        for(TreeViewListener listener:new ArrayList<TreeViewListener>(this.listeners)){
+            if(first){
+                listener.viewReady(this.parent, this.children);
+            }
+            else{
+                listener.viewChanged(this.parent, this.children);
+            }
+        }
+    }
+
+    /**
+     * Sets the subtree ready and fires the subtree ready event. It has no
+     * effect if the subtree is already ready with the same size.
+     *
+     * @param subtreeSize the number of peers in the subtree
+     */
+    public void setSubtreeReady(int subtreeSize){
+        if(this.subtreeSize==subtreeSize){
+            return;
+        }
+        this.subtreeSize=subtreeSize;
+        for(TreeViewListener listener:new ArrayList<TreeViewListener>(this.listeners)){
+            listener.subtreeReady(subtreeSize);
+        }
+    }
+}
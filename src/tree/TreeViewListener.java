@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package tree;
+
+import java.util.List;
+import dsutil.protopeer.FingerDescriptor;
+
+/**
+ * A listener of the tree view events of a <code>TreeViewHandle</code>. The
+ * events are called in the thread of the peer, so a listener should not block.
+ *
+ * @author Evangelos
+ */
+public interface TreeViewListener {
+
+    /**
+     * Called once when the first tree view of the peer is delivered.
+     *
+     * @param parent the parent, null for the root
+     * @param children the children
+     */
+    public void viewReady(FingerDescriptor parent, List<FingerDescriptor> children);
+
+    /**
+     * Called when the peer and all the peers in its subtree have their tree
+     * view. At the root, the whole tree is ready. It is called again after
+     * the view changes or the size of the subtree changes.
+     *
+     * @param subtreeSize the number of peers in the subtree, including the
+     * local peer
+     */
+    public void subtreeReady(int subtreeSize);
+
+    /**
+     * Called when a tree view replaces the previous one, e.g. after a repair.
+     *
+     * @param parent the new parent, null for the root
+     * @param children the new children
+     */
+    public void viewChanged(FingerDescriptor parent, List<FingerDescriptor> children);
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package tree.centralized;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import dsutil.protopeer.FingerDescriptor;
+import protopeer.network.Message;
+import tree.MessageCodec;
+
+/**
+ * The reply of the backup parent that adopts an orphan peer. It contains the
+ * new parent and its own parent that becomes the new backup of the orphan.
+ * A reply without parent refuses the adoption. If the backup parent has no
+ * room for another child, the reply redirects the orphan to one of its
+ * children, otherwise the orphan asks again later. The tree server replies
+ * to a <code>TreeRedirectRequest</code> with a redirect, or without one if
+ * the orphan becomes the root.
+ *
+ * The message is written in the compact binary encoding of <code>MessageCodec</code>.
+ *
+ * @author Evangelos
+ */
+public class TreeRepairReply extends Message implements Externalizable{
+    public FingerDescriptor parent;
+    public FingerDescriptor backup;
+    public FingerDescriptor redirect;
+
+    /**
+     * Writes the message in the compact binary encoding of <code>MessageCodec</code>.
+     *
+     * @param out the output
+     * @throws IOException if writing fails
+     */
+    public void writeExternal(ObjectOutput out) throws IOException {
+        MessageCodec codec=new MessageCodec();
+        codec.writeHeader(out, this);
+        codec.writeDescriptor(out, this.parent);
+        codec.writeDescriptor(out, this.backup);
+        codec.writeDescriptor(out, this.redirect);
+    }
+
+    /**
+     * Reads the message from the compact binary encoding of <code>MessageCodec</code>.
+     *
+     * @param in the input
+     * @throws IOException if reading fails
+     * @throws ClassNotFoundException if an object of an unknown type is read
+     */
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        MessageCodec codec=new MessageCodec();
+        codec.readHeader(in, this);
+        this.parent=codec.readDescriptor(in);
+        this.backup=codec.readDescriptor(in);
+        this.redirect=codec.readDescriptor(in);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package tree.centralized;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.List;
+import dsutil.protopeer.FingerDescriptor;
+import protopeer.network.Message;
+import tree.MessageCodec;
+
+/**
+ * The precomputed tree views of a peer in the alternate topologies of the
+ * <code>TreeServer</code>, in which the root role rotates, sent instead of the
+ * <code>TreeViewReply</code>. The view at
+ * position r is the view in the topology r. The peer is in the topology
+ * <code>rotation</code> and switches to the next one after <code>delay</code>
+ * milliseconds, and then every <code>period</code> milliseconds.
+ *
+ * The message is written in the compact binary encoding of <code>MessageCodec</code>.
+ *
+ * @author Evangelos
+ */
+public class TreeRotationSchedule extends Message implements Externalizable{
+    public long epoch;
+    public int period;
+    public int rotation;
+    public int delay;
+    public List<FingerDescriptor> parents;
+    public List<List<FingerDescriptor>> children;
+    public List<FingerDescriptor> backups;
+
+    /**
+     * Writes the message in the compact binary encoding of <code>MessageCodec</code>.
+     *
+     * @param out the output
+     * @throws IOException if writing fails
+     */
+    public void writeExternal(ObjectOutput out) throws IOException {
+        MessageCodec codec=new MessageCodec();
+        codec.writeHeader(out, this);
+        MessageCodec.writeVarLong(out, this.epoch);
+        MessageCodec.writeVarInt(out, this.period);
+        MessageCodec.writeVarInt(out, this.rotation);
+        MessageCodec.writeVarInt(out, this.delay);
+        MessageCodec.writeVarInt(out, this.parents.size());
+        for(int i=0; i<this.parents.size(); i++){
+            codec.writeDescriptor(out, this.parents.get(i));
+            codec.writeDescriptors(out, this.children.get(i));
+            codec.writeDescriptor(out, this.backups.get(i));
+        }
+    }
+
+    /**
+     * Reads the message from the compact binary encoding of <code>MessageCodec</code>.
+     *
+     * @param in the input
+     * @throws IOException if reading fails
+     * @throws ClassNotFoundException if an object of an unknown type is read
+     */
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        MessageCodec codec=new MessageCodec();
+        codec.readHeader(in, this);
+        this.epoch=MessageCodec.readVarLong(in);
+        this.period=MessageCodec.readVarInt(in);
+        this.rotation=MessageCodec.readVarInt(in);
+        this.delay=MessageCodec.readVarInt(in);
+        int size=MessageCodec.readVarInt(in);
+        this.parents=new ArrayList<FingerDescriptor>(size);
+        this.children=new ArrayList<List<FingerDescriptor>>(size);
+        this.backups=new ArrayList<FingerDescriptor>(size);
+        for(int i=0; i<size; i++){
+            this.parents.add(codec.readDescriptor(in));
+            this.children.add(codec.readDescriptors(in));
+            this.backups.add(codec.readDescriptor(in));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package tree.centralized;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.List;
+import dsutil.protopeer.FingerDescriptor;
+import protopeer.network.Message;
+import tree.MessageCodec;
+
+/**
+ * The batched reply sent by the <code>TreeServer</code> to the
+ * <code>TreeGateway</code>. The view at position i belongs to the destination
+ * at position i.
+ *
+ * The message is written in the compact binary encoding of <code>MessageCodec</code>.
+ * The address table is shared by all the views of the batch.
+ *
+ * @author Evangelos
+ */
+public class TreeViewBatchReply extends Message implements Externalizable{
+    public List<FingerDescriptor> destinations;
+    public List<TreeViewReply> views;
+
+    /**
+     * Writes the message in the compact binary encoding of <code>MessageCodec</code>.
+     *
+     * @param out the output
+     * @throws IOException if writing fails
+     */
+    public void writeExternal(ObjectOutput out) throws IOException {
+        MessageCodec codec=new MessageCodec();
+        codec.writeHeader(out, this);
+        codec.writeDescriptors(out, this.destinations);
+        for(TreeViewReply view:this.views){
+            codec.writeDescriptor(out, view.parent);
+            codec.writeDescriptors(out, view.children);
+            codec.writeDescriptor(out, view.backup);
+            MessageCodec.writeVarLong(out, view.epoch);
+        }
+    }
+
+    /**
+     * Reads the message from the compact binary encoding of <code>MessageCodec</code>.
+     *
+     * @param in the input
+     * @throws IOException if reading fails
+     * @throws ClassNotFoundException if an object of an unknown type is read
+     */
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        MessageCodec codec=new MessageCodec();
+        codec.readHeader(in, this);
+        this.destinations=codec.readDescriptors(in);
+        this.views=new ArrayList<TreeViewReply>(this.destinations.size());
+        for(int i=0; i<this.destinations.size(); i++){
+            TreeViewReply view=new TreeViewReply();
+            view.parent=codec.readDescriptor(in);
+            view.children=codec.readDescriptors(in);
+            view.backup=codec.readDescriptor(in);
+            view.epoch=MessageCodec.readVarLong(in);
+            this.views.add(view);
+        }
+    }
+}
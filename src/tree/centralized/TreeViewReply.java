@@ -18,16 +18,59 @@
 
 package tree.centralized;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.List;
 import dsutil.protopeer.FingerDescriptor;
 import protopeer.network.Message;
+import tree.MessageCodec;
 
 /**
  * The message reply sent by the <code>TreeServer</code> to the <code>TreeClient</code>.
+ * Besides the parent and the children, it contains a backup parent, i.e. the
+ * grandparent, or a sibling for the children of the root, and the epoch of
+ * the topology, which identifies the tree the view belongs to.
+ *
+ * The message is written in the compact binary encoding of <code>MessageCodec</code>.
  *
  * @author Evangelos
  */
-public class TreeViewReply extends Message {
+public class TreeViewReply extends Message implements Externalizable{
     public FingerDescriptor parent;
     public List<FingerDescriptor> children;
+    public FingerDescriptor backup;
+    public long epoch;
+
+    /**
+     * Writes the message in the compact binary encoding of <code>MessageCodec</code>.
+     *
+     * @param out the output
+     * @throws IOException if writing fails
+     */
+    public void writeExternal(ObjectOutput out) throws IOException {
+        MessageCodec codec=new MessageCodec();
+        codec.writeHeader(out, this);
+        codec.writeDescriptor(out, this.parent);
+        codec.writeDescriptors(out, this.children);
+        codec.writeDescriptor(out, this.backup);
+        MessageCodec.writeVarLong(out, this.epoch);
+    }
+
+    /**
+     * Reads the message from the compact binary encoding of <code>MessageCodec</code>.
+     *
+     * @param in the input
+     * @throws IOException if reading fails
+     * @throws ClassNotFoundException if an object of an unknown type is read
+     */
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        MessageCodec codec=new MessageCodec();
+        codec.readHeader(in, this);
+        this.parent=codec.readDescriptor(in);
+        this.children=codec.readDescriptors(in);
+        this.backup=codec.readDescriptor(in);
+        this.epoch=MessageCodec.readVarLong(in);
+    }
 }
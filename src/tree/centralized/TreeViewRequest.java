@@ -18,15 +18,47 @@
 
 package tree.centralized;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import dsutil.protopeer.FingerDescriptor;
 import protopeer.network.Message;
+import tree.MessageCodec;
 
 
 /**
  * The message reply sent by the <code>TreeClient</code> to the <code>TreeServer</code>.
  *
+ * The message is written in the compact binary encoding of <code>MessageCodec</code>.
+ *
  * @author Evangelos
  */
-public class TreeViewRequest extends Message{
+public class TreeViewRequest extends Message implements Externalizable{
     public FingerDescriptor sourceDescriptor;
+
+    /**
+     * Writes the message in the compact binary encoding of <code>MessageCodec</code>.
+     *
+     * @param out the output
+     * @throws IOException if writing fails
+     */
+    public void writeExternal(ObjectOutput out) throws IOException {
+        MessageCodec codec=new MessageCodec();
+        codec.writeHeader(out, this);
+        codec.writeDescriptor(out, this.sourceDescriptor);
+    }
+
+    /**
+     * Reads the message from the compact binary encoding of <code>MessageCodec</code>.
+     *
+     * @param in the input
+     * @throws IOException if reading fails
+     * @throws ClassNotFoundException if an object of an unknown type is read
+     */
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        MessageCodec codec=new MessageCodec();
+        codec.readHeader(in, this);
+        this.sourceDescriptor=codec.readDescriptor(in);
+    }
 }
@@ -18,7 +18,15 @@
 
 package tree.centralized.client;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.apache.log4j.Logger;
 import protopeer.BasePeerlet;
 import dsutil.protopeer.FingerDescriptor;
@@ -27,12 +35,25 @@ import protopeer.network.Message;
 import protopeer.network.NetworkAddress;
 import protopeer.servers.bootstrap.BootstrapClient;
 import protopeer.servers.bootstrap.PeerIdentifierGenerator;
+import protopeer.time.Timer;
+import protopeer.time.TimerListener;
+import protopeer.util.quantities.Time;
 import protopeer.util.NetworkAddressPair;
 import dsutil.protopeer.services.topology.trees.TreeProviderInterface;
+import tree.TreeViewHandle;
+import tree.centralized.SubtreeReady;
 import tree.centralized.TreeViewRequest;
 import dsutil.protopeer.services.topology.trees.DescriptorType;
 import dsutil.protopeer.services.topology.trees.TreeMiddlewareInterface;
+import tree.centralized.TreeHeartbeat;
+import tree.centralized.TreeRedirectRequest;
+import tree.centralized.TreeRepairNotification;
+import tree.centralized.TreeRepairReply;
+import tree.centralized.TreeRepairRequest;
+import tree.centralized.TreeRotationSchedule;
 import tree.centralized.TreeViewReply;
+import tree.centralized.TreeViewValidation;
+import tree.centralized.TreeViewValidationReply;
 
 
 /**
@@ -40,6 +61,33 @@ import tree.centralized.TreeViewReply;
  * <code>TreeViewRequest</code> to the tree server and waits for a reply. The
  * client provides ranking information and creates the <code>FingerDescriptor</code>s.
  *
+ * Optionally, the client detects failures of its tree neighbors with
+ * heartbeats. When the parent fails, the client asks its backup parent to
+ * adopt it. The subtree of the client re-attaches in one round trip without a
+ * new bootstrapping and the tree server is notified in the background. A
+ * failed child is removed from the tree view. The backup parent is the
+ * grandparent, and for the children of the root the first child of the root,
+ * its successor, which becomes the root when the root fails. A backup parent
+ * that is repairing itself refuses the adoption, and one at its node degree
+ * redirects the orphan to one of its children, so that the repaired tree stays
+ * a single tree without cycles.
+ *
+ * Applications can follow the tree view without fixed delays with the
+ * <code>TreeViewHandle</code> of the client. For the subtree ready event, each
+ * client reports to its parent with a <code>SubtreeReady</code> message when it
+ * and all its children have their tree view.
+ *
+ * Optionally, the client persists its last tree view in a local file. After a
+ * restart, the client validates the cached view with its cached neighbors and
+ * delivers it without contacting the tree server. The server is contacted
+ * only if a neighbor rejects the view, e.g. because it belongs to an older
+ * topology epoch, or if the neighbors do not reply in time.
+ *
+ * When the root role rotates, the server sends a <code>TreeRotationSchedule</code>
+ * with the views of the client in all the alternate topologies. The client
+ * delivers the view of the current topology and switches to the next one
+ * every rotation period.
+ *
  * @author Evangelos
  */
 public class TreeClient extends BasePeerlet implements TreeMiddlewareInterface{
@@ -48,14 +96,38 @@ public class TreeClient extends BasePeerlet implements TreeMiddlewareInterface{
     private enum ClientState {
         INIT,
         WAITING,
-        COMPLETED
+        COMPLETED,
+        REPAIRING,
+        VALIDATING
     }
+    private static final int validationTimeout=2000;
     private ClientState state;
     private FingerDescriptor localDescriptor;
     private PeerIdentifierGenerator idGenerator;
     private NetworkAddress bootstrapServerAddress;
     private double rank;
     private int dMax;
+    private FingerDescriptor parent;
+    private List<FingerDescriptor> children;
+    private FingerDescriptor backup;
+    private int heartbeatPeriod;
+    private Timer heartbeatTimer;
+    private double parentHeard;
+    private double repairStarted;
+    private FingerDescriptor failedParent;
+    private boolean repairRefused;
+    private int repairRetries;
+    private boolean repairAtServer;
+    private int nextRedirect;
+    private Map<NetworkAddress,Double> childrenHeard;
+    private TreeViewHandle treeViewHandle;
+    private Map<NetworkAddress,Integer> readySubtrees;
+    private File viewCacheFile;
+    private TreeViewCache cachedView;
+    private Set<NetworkAddress> pendingValidations;
+    private long epoch;
+    private TreeRotationSchedule schedule;
+    private Timer rotationTimer;
     
     /**
      * Initialiazes the tree client with bootstraping and rank information.
@@ -66,10 +138,51 @@ public class TreeClient extends BasePeerlet implements TreeMiddlewareInterface{
      * @param dMax the node degree of the local peer
      */
     public TreeClient(NetworkAddress bootstrapServerAddress, PeerIdentifierGenerator idGenerator, double rank, int dMax) {
+        this(bootstrapServerAddress, idGenerator, rank, dMax, 0);
+    }
+
+    /**
+     * Initialiazes the tree client with bootstraping and rank information and
+     * enables the failure detection of the tree neighbors.
+     *
+     * @param bootstrapServerAddress the network address of thwe tree server
+     * @param idGenerator a peer identifier generator
+     * @param rank the rank of the local peer
+     * @param dMax the node degree of the local peer
+     * @param heartbeatPeriod the period in milliseconds of the heartbeats
+     * between tree neighbors. A neighbor is considered failed if it is not heard
+     * for 3 periods. The failure detection is disabled with 0.
+     */
+    public TreeClient(NetworkAddress bootstrapServerAddress, PeerIdentifierGenerator idGenerator, double rank, int dMax, int heartbeatPeriod) {
+        this(bootstrapServerAddress, idGenerator, rank, dMax, heartbeatPeriod, null);
+    }
+
+    /**
+     * Initialiazes the tree client with bootstraping and rank information,
+     * the failure detection of the tree neighbors and a local cache of the
+     * tree view.
+     *
+     * @param bootstrapServerAddress the network address of thwe tree server
+     * @param idGenerator a peer identifier generator
+     * @param rank the rank of the local peer
+     * @param dMax the node degree of the local peer
+     * @param heartbeatPeriod the period in milliseconds of the heartbeats
+     * between tree neighbors. The failure detection is disabled with 0.
+     * @param viewCacheFile the file in which the last tree view is persisted,
+     * null for disabling the cache
+     */
+    public TreeClient(NetworkAddress bootstrapServerAddress, PeerIdentifierGenerator idGenerator, double rank, int dMax, int heartbeatPeriod, File viewCacheFile) {
         this.bootstrapServerAddress = bootstrapServerAddress;
         this.idGenerator=idGenerator;
         this.rank=rank;
         this.dMax=dMax;
+        this.heartbeatPeriod=heartbeatPeriod;
+        this.children=new ArrayList<FingerDescriptor>();
+        this.childrenHeard=new HashMap<NetworkAddress,Double>();
+        this.treeViewHandle=new TreeViewHandle();
+        this.readySubtrees=new HashMap<NetworkAddress,Integer>();
+        this.viewCacheFile=viewCacheFile;
+        this.pendingValidations=new HashSet<NetworkAddress>();
         this.state=ClientState.INIT;
     }
 
@@ -108,12 +221,169 @@ public class TreeClient extends BasePeerlet implements TreeMiddlewareInterface{
     }
 
     /**
-     * Starts the peer by running the active state.
+     * Starts the peer by validating the cached tree view, if there is one, or
+     * by running the active state.
      */
     @Override
     public void start() {
         super.start();
-        this.runActiveState();
+        if(this.viewCacheFile!=null){
+            this.cachedView=TreeViewCache.load(this.viewCacheFile);
+        }
+        if(this.cachedView!=null && this.cachedView.self!=null &&
+                getPeer().getNetworkAddress().equals(this.cachedView.self.getNetworkAddress())){
+            this.validateCachedView();
+        }
+        else{
+            this.runActiveState();
+        }
+    }
+
+    /**
+     * Stops the peer by cancelling the heartbeats and the rotations, so that a
+     * stopped peer appears failed to its tree neighbors.
+     */
+    @Override
+    public void stop() {
+        super.stop();
+        if(this.heartbeatTimer!=null){
+            this.heartbeatTimer.cancel();
+            this.heartbeatTimer=null;
+        }
+        if(this.rotationTimer!=null){
+            this.rotationTimer.cancel();
+        }
+    }
+
+    /**
+     * Restores the peer identifier of the cached view and asks the cached
+     * neighbors to validate the view. Without a reply from all of them within
+     * the validation timeout, the client falls back to the tree server.
+     */
+    private void validateCachedView(){
+        getPeer().setIdentifier(this.cachedView.self.getPeerIdentifier());
+        this.createFingerDescriptor();
+        this.state=ClientState.VALIDATING;
+        this.parent=this.cachedView.parent;
+        this.children=new ArrayList<FingerDescriptor>(this.cachedView.children);
+        this.epoch=this.cachedView.epoch;
+        TreeViewValidation validation=new TreeViewValidation();
+        validation.epoch=this.epoch;
+        if(this.parent!=null){
+            this.pendingValidations.add(this.parent.getNetworkAddress());
+        }
+        for(FingerDescriptor child:this.children){
+            this.pendingValidations.add(child.getNetworkAddress());
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Validating the cached tree view of epoch "+this.epoch+" with "+this.pendingValidations.size()+" neighbors.");
+        }
+        for(NetworkAddress neighbor:this.pendingValidations){
+            getPeer().sendMessage(neighbor, validation);
+        }
+        Timer validationTimer=getPeer().getClock().createNewTimer();
+        validationTimer.addTimerListener(new TimerListener() {
+            public void timerExpired(Timer timer) {
+                if(state==ClientState.VALIDATING){
+                    logger.debug("Cached tree view not validated in time.");
+                    runActiveState();
+                }
+            }
+        });
+        validationTimer.schedule(Time.inMilliseconds(validationTimeout));
+        this.completeValidation();
+    }
+
+    /**
+     * Delivers the cached tree view when all the neighbors have validated it.
+     */
+    private void completeValidation(){
+        if(this.state!=ClientState.VALIDATING || !this.pendingValidations.isEmpty()){
+            return;
+        }
+        this.state=ClientState.COMPLETED;
+        this.backup=this.cachedView.backup;
+        this.startFailureDetection();
+        this.deliverTreeView(this.parent, this.children);
+    }
+
+    /**
+     * Validates the cached view of a restarted neighbor. The view is valid if
+     * the local peer has a view of the same epoch, cached or not, in which
+     * the neighbor is the parent or a child. A peer validating its own cached
+     * view of the same epoch also counts the request as a validation, since
+     * the neighbor holds the same tree. A restarted parent has lost the ready
+     * subtrees of its children, so the subtree ready is reported to it again.
+     *
+     * @param validation the validation request of the neighbor
+     */
+    private void runPassiveState(TreeViewValidation validation){
+        NetworkAddress source=validation.getSourceAddress();
+        boolean neighbor=this.parent!=null && this.parent.getNetworkAddress().equals(source);
+        for(FingerDescriptor child:this.children){
+            neighbor|=child.getNetworkAddress().equals(source);
+        }
+        TreeViewValidationReply reply=new TreeViewValidationReply();
+        reply.valid=neighbor && validation.epoch==this.epoch && this.state!=ClientState.WAITING && this.state!=ClientState.INIT;
+        if(reply.valid && this.heartbeatPeriod>0){
+            double now=getPeer().getClock().getCurrentTime();
+            if(this.childrenHeard.containsKey(source)){
+                this.childrenHeard.put(source, now);
+            }
+            else if(this.parent!=null && this.parent.getNetworkAddress().equals(source)){
+                this.parentHeard=now;
+            }
+        }
+        getPeer().sendMessage(source, reply);
+        if(reply.valid && this.treeViewHandle.isSubtreeReady() && this.parent!=null && this.parent.getNetworkAddress().equals(source)){
+            SubtreeReady ready=new SubtreeReady();
+            ready.subtreeSize=this.treeViewHandle.getSubtreeSize();
+            getPeer().sendMessage(source, ready);
+        }
+        if(reply.valid && this.state==ClientState.VALIDATING && this.pendingValidations.remove(source)){
+            this.completeValidation();
+        }
+    }
+
+    /**
+     * Collects the validations of the neighbors. A rejection makes the client
+     * fall back to the tree server.
+     *
+     * @param reply the reply of a neighbor
+     */
+    private void runPassiveState(TreeViewValidationReply reply){
+        if(this.state!=ClientState.VALIDATING || !this.pendingValidations.remove(reply.getSourceAddress())){
+            return;
+        }
+        if(!reply.valid){
+            logger.debug("Cached tree view rejected by "+reply.getSourceAddress());
+            this.pendingValidations.clear();
+            this.runActiveState();
+            return;
+        }
+        this.completeValidation();
+    }
+
+    /**
+     * Persists the current tree view in the cache file, if the cache is
+     * enabled.
+     */
+    private void saveViewCache(){
+        if(this.viewCacheFile==null){
+            return;
+        }
+        TreeViewCache cache=new TreeViewCache();
+        cache.self=this.localDescriptor;
+        cache.parent=this.parent;
+        cache.children=this.children;
+        cache.backup=this.backup;
+        cache.epoch=this.epoch;
+        try{
+            cache.save(this.viewCacheFile);
+        }
+        catch(IOException e){
+            logger.error("Cannot persist the tree view in "+this.viewCacheFile, e);
+        }
     }
 
     /**
@@ -145,7 +415,367 @@ public class TreeClient extends BasePeerlet implements TreeMiddlewareInterface{
             logger.debug("Received a reply from the tree server.");
         }
         this.state=ClientState.COMPLETED;
-        this.deliverTreeView(reply.parent, reply.children);
+        this.parent=reply.parent;
+        this.children=new ArrayList<FingerDescriptor>(reply.children);
+        this.backup=reply.backup;
+        this.epoch=reply.epoch;
+        this.startFailureDetection();
+        this.deliverTreeView(this.parent, this.children);
+    }
+
+    /**
+     * Receives the views of the local peer in the alternate topologies of the
+     * tree server, delivers the view of the current topology and schedules the
+     * switch to the next one.
+     *
+     * @param schedule the rotation schedule from the server
+     */
+    private void runPassiveState(TreeRotationSchedule schedule){
+        if (logger.isDebugEnabled()) {
+            logger.debug("Received a rotation schedule of "+schedule.parents.size()+" topologies from the tree server.");
+        }
+        this.state=ClientState.COMPLETED;
+        this.schedule=schedule;
+        this.epoch=schedule.epoch;
+        this.rotate(schedule.rotation);
+        if(this.rotationTimer==null){
+            this.rotationTimer=getPeer().getClock().createNewTimer();
+            this.rotationTimer.addTimerListener(new TimerListener() {
+                public void timerExpired(Timer timer) {
+                    TreeRotationSchedule current=TreeClient.this.schedule;
+                    current.rotation=(current.rotation+1)%current.parents.size();
+                    rotate(current.rotation);
+                    timer.schedule(Time.inMilliseconds(current.period));
+                }
+            });
+        }
+        else if(this.rotationTimer.isScheduled()){
+            this.rotationTimer.cancel();
+        }
+        this.rotationTimer.schedule(Time.inMilliseconds(schedule.delay));
+    }
+
+    /**
+     * Switches to the view of the local peer in an alternate topology and
+     * delivers it.
+     *
+     * @param rotation the index of the topology
+     */
+    private void rotate(int rotation){
+        this.parent=this.schedule.parents.get(rotation);
+        this.children=new ArrayList<FingerDescriptor>(this.schedule.children.get(rotation));
+        this.backup=this.schedule.backups.get(rotation);
+        this.startFailureDetection();
+        this.deliverTreeView(this.parent, this.children);
+    }
+
+    /**
+     * Starts sending heartbeats to the tree neighbors and checking if they are
+     * heard, if the failure detection is enabled.
+     */
+    private void startFailureDetection(){
+        if(this.heartbeatPeriod<=0){
+            return;
+        }
+        double now=getPeer().getClock().getCurrentTime();
+        this.parentHeard=now;
+        for(FingerDescriptor child:this.children){
+            this.childrenHeard.put(child.getNetworkAddress(), now);
+        }
+        if(this.heartbeatTimer==null){
+            this.heartbeatTimer=getPeer().getClock().createNewTimer();
+            this.heartbeatTimer.addTimerListener(new TimerListener() {
+                public void timerExpired(Timer timer) {
+                    runHeartbeat();
+                    timer.schedule(Time.inMilliseconds(heartbeatPeriod));
+                }
+            });
+            this.heartbeatTimer.schedule(Time.inMilliseconds(this.heartbeatPeriod));
+        }
+    }
+
+    /**
+     * Sends heartbeats to the tree neighbors and checks for failures. A child
+     * not heard for 3 periods is removed from the view. A parent not heard for
+     * 3 periods triggers a repair. A refused repair is asked again in the next
+     * period. A repair without adoption for 3 periods, or refused 3 times, is
+     * handed over to the tree server, which redirects the peer to a new
+     * parent.
+     */
+    private void runHeartbeat(){
+        double now=getPeer().getClock().getCurrentTime();
+        double timeout=3*this.heartbeatPeriod;
+        for(FingerDescriptor child:this.children){
+            TreeHeartbeat heartbeat=new TreeHeartbeat();
+            heartbeat.parent=this.getBackupOf(child);
+            getPeer().sendMessage(child.getNetworkAddress(), heartbeat);
+        }
+        if(this.parent!=null && this.state==ClientState.COMPLETED){
+            getPeer().sendMessage(this.parent.getNetworkAddress(), new TreeHeartbeat());
+        }
+        boolean viewChanged=false;
+        Iterator<FingerDescriptor> it=this.children.iterator();
+        while(it.hasNext()){
+            FingerDescriptor child=it.next();
+            if(now-this.childrenHeard.get(child.getNetworkAddress())>timeout){
+                logger.debug("Child "+child+" has failed.");
+                this.childrenHeard.remove(child.getNetworkAddress());
+                it.remove();
+                viewChanged=true;
+            }
+        }
+        if(this.state==ClientState.COMPLETED && this.parent!=null && now-this.parentHeard>timeout){
+            logger.debug("Parent "+this.parent+" has failed.");
+            this.repairParent();
+        }
+        else if(this.state==ClientState.REPAIRING && now-this.repairStarted>timeout){
+            logger.debug("Backup parent "+this.backup+" has not adopted the peer. Asking the tree server.");
+            this.sendRedirectRequest();
+        }
+        else if(this.state==ClientState.REPAIRING && this.repairRefused){
+            if(++this.repairRetries>=3){
+                this.sendRedirectRequest();
+            }
+            else{
+                this.repairStarted=now;
+                this.sendRepairRequest();
+            }
+        }
+        if(viewChanged){
+            this.deliverTreeView(this.parent, this.children);
+        }
+    }
+
+    /**
+     * Finds the backup parent of a child. This is the parent of the local
+     * peer, or if the local peer is the root, its first child, the successor,
+     * which has no backup parent itself.
+     *
+     * @param child the child
+     * @return the backup parent of the child or null if there is not any
+     */
+    private FingerDescriptor getBackupOf(FingerDescriptor child){
+        if(this.parent!=null){
+            return this.parent;
+        }
+        FingerDescriptor successor=this.children.get(0);
+        return successor.equals(child) ? null : successor;
+    }
+
+    /**
+     * Asks the backup parent to adopt the local peer. Without a backup parent,
+     * the local peer becomes the root of its subtree. This is the case of the
+     * successor of a failed root, which becomes the new root and notifies the
+     * tree server.
+     */
+    private void repairParent(){
+        if(this.backup==null){
+            this.parent=null;
+            TreeRepairNotification notification=new TreeRepairNotification();
+            notification.orphan=this.localDescriptor;
+            getPeer().sendMessage(this.bootstrapServerAddress, notification);
+            this.deliverTreeView(this.parent, this.children);
+            return;
+        }
+        this.failedParent=this.parent;
+        this.state=ClientState.REPAIRING;
+        this.repairStarted=getPeer().getClock().getCurrentTime();
+        this.repairRetries=0;
+        this.sendRepairRequest();
+    }
+
+    /**
+     * Sends a repair request to the backup parent.
+     */
+    private void sendRepairRequest(){
+        TreeRepairRequest request=new TreeRepairRequest();
+        request.orphan=this.localDescriptor;
+        request.failed=this.failedParent;
+        getPeer().sendMessage(this.backup.getNetworkAddress(), request);
+        this.repairRefused=false;
+        this.repairAtServer=false;
+    }
+
+    /**
+     * Asks the tree server for a new parent, as the backup parent has not
+     * adopted the local peer.
+     */
+    private void sendRedirectRequest(){
+        TreeRedirectRequest request=new TreeRedirectRequest();
+        request.orphan=this.localDescriptor;
+        request.failed=this.failedParent;
+        getPeer().sendMessage(this.bootstrapServerAddress, request);
+        this.repairStarted=getPeer().getClock().getCurrentTime();
+        this.repairRefused=false;
+        this.repairRetries=0;
+        this.repairAtServer=true;
+    }
+
+    /**
+     * Adopts an orphan peer as a child, replies with the new parent and backup
+     * parent and notifies the tree server.
+     *
+     * The failed parent of the orphan is dropped from the children right away.
+     * If it is the parent of the local peer, the root has failed and the local
+     * peer is its successor, so it repairs first and becomes the root. The
+     * adoption is refused while the local peer is repairing, or if the orphan
+     * is its parent or backup parent, as the adoption would close a cycle. At
+     * the node degree, the orphan is redirected to the children in turn.
+     *
+     * @param request the repair request of the orphan peer
+     */
+    private void runPassiveState(TreeRepairRequest request){
+        NetworkAddress orphan=request.orphan.getNetworkAddress();
+        boolean viewChanged=false;
+        if(request.failed!=null){
+            NetworkAddress failed=request.failed.getNetworkAddress();
+            if(this.state==ClientState.COMPLETED && this.parent!=null && this.parent.getNetworkAddress().equals(failed)){
+                logger.debug("Parent "+this.parent+" has failed as reported by "+request.orphan+".");
+                this.repairParent();
+            }
+            if(this.children.remove(request.failed)){
+                this.childrenHeard.remove(failed);
+                viewChanged=true;
+            }
+        }
+        TreeRepairReply reply=new TreeRepairReply();
+        if(this.state==ClientState.REPAIRING || this.isNeighbor(this.parent, orphan) || this.isNeighbor(this.backup, orphan)){
+            logger.debug("Adoption of "+request.orphan+" is refused.");
+        }
+        else if(!this.children.contains(request.orphan) && this.children.size()>=this.dMax-1){
+            if(this.children.size()>0){
+                reply.redirect=this.children.get(this.nextRedirect++%this.children.size());
+            }
+        }
+        else{
+            if(!this.children.contains(request.orphan)){
+                this.children.add(request.orphan);
+            }
+            this.childrenHeard.put(orphan, getPeer().getClock().getCurrentTime());
+            reply.parent=this.localDescriptor;
+            reply.backup=this.getBackupOf(request.orphan);
+            TreeRepairNotification notification=new TreeRepairNotification();
+            notification.orphan=request.orphan;
+            notification.parent=this.localDescriptor;
+            getPeer().sendMessage(this.bootstrapServerAddress, notification);
+            viewChanged=true;
+        }
+        getPeer().sendMessage(orphan, reply);
+        if(viewChanged){
+            this.deliverTreeView(this.parent, this.children);
+        }
+    }
+
+    /**
+     * Checks whether a tree neighbor is a peer.
+     *
+     * @param neighbor the tree neighbor or null
+     * @param address the address of the peer
+     * @return true if the neighbor is the peer
+     */
+    private boolean isNeighbor(FingerDescriptor neighbor, NetworkAddress address){
+        return neighbor!=null && neighbor.getNetworkAddress().equals(address);
+    }
+
+    /**
+     * Attaches the local peer to the new parent that adopted it. After a
+     * redirect, the local peer asks the peer it is redirected to, a child of
+     * the backup parent or the peer chosen by the tree server. After a
+     * refusal, it asks again in the next heartbeat period. A reply of the
+     * tree server without a redirect makes the local peer the root, and the
+     * server is notified.
+     *
+     * @param reply the reply of the backup parent
+     */
+    private void runPassiveState(TreeRepairReply reply){
+        if(this.state!=ClientState.REPAIRING){
+            return;
+        }
+        if(reply.parent==null){
+            if(reply.redirect!=null){
+                this.backup=reply.redirect;
+                this.repairStarted=getPeer().getClock().getCurrentTime();
+                this.repairRetries=0;
+                this.sendRepairRequest();
+            }
+            else if(this.repairAtServer){
+                logger.debug("No peer left for adopting the peer. Peer becomes the root.");
+                this.state=ClientState.COMPLETED;
+                this.backup=null;
+                this.failedParent=null;
+                this.repairParent();
+            }
+            else{
+                this.repairRefused=true;
+            }
+            return;
+        }
+        this.state=ClientState.COMPLETED;
+        this.parent=reply.parent;
+        this.backup=reply.backup;
+        this.failedParent=null;
+        this.parentHeard=getPeer().getClock().getCurrentTime();
+        this.deliverTreeView(this.parent, this.children);
+    }
+
+    /**
+     * Keeps track of the heard tree neighbors. The heartbeat of the parent
+     * updates the backup parent.
+     *
+     * @param message a message received by a tree neighbor
+     */
+    private void updateNeighborHeard(Message message){
+        NetworkAddress source=message.getSourceAddress();
+        double now=getPeer().getClock().getCurrentTime();
+        if(this.parent!=null && this.parent.getNetworkAddress().equals(source)){
+            this.parentHeard=now;
+            if(message instanceof TreeHeartbeat){
+                this.backup=((TreeHeartbeat)message).parent;
+            }
+        }
+        else if(this.childrenHeard.containsKey(source)){
+            this.childrenHeard.put(source, now);
+        }
+    }
+
+    /**
+     * Reports the subtree ready to the parent if all children have reported
+     * their subtree ready. A leaf reports right after its tree view is
+     * delivered. After a change of the view or of the size of a subtree of a
+     * child, the subtree is reported again with its new size.
+     */
+    private void checkSubtreeReady(){
+        if(!this.treeViewHandle.isViewReady()){
+            return;
+        }
+        int subtreeSize=1;
+        for(FingerDescriptor child:this.children){
+            Integer childSubtreeSize=this.readySubtrees.get(child.getNetworkAddress());
+            if(childSubtreeSize==null){
+                return;
+            }
+            subtreeSize+=childSubtreeSize;
+        }
+        if(subtreeSize==this.treeViewHandle.getSubtreeSize()){
+            return;
+        }
+        if(this.parent!=null){
+            SubtreeReady ready=new SubtreeReady();
+            ready.subtreeSize=subtreeSize;
+            getPeer().sendMessage(this.parent.getNetworkAddress(), ready);
+        }
+        this.treeViewHandle.setSubtreeReady(subtreeSize);
+    }
+
+    /**
+     * Returns the handle on the tree view of the client, on which applications
+     * register listeners for the view ready, subtree ready and view changed
+     * events.
+     *
+     * @return the tree view handle
+     */
+    public TreeViewHandle getTreeViewHandle(){
+        return this.treeViewHandle;
     }
 
     /**
@@ -177,18 +807,32 @@ public class TreeClient extends BasePeerlet implements TreeMiddlewareInterface{
 
     /**
      * Receives the tree view from the tree server reply and provides it to the
-     * tree provider.
+     * tree provider and the tree view handle. The view is also persisted if
+     * the cache is enabled.
      *
+     * @param parent the delivered parent
      * @param children the delivered children
      */
     public void deliverTreeView(FingerDescriptor parent, List<FingerDescriptor> children){
         this.getTreeProvider().provideTreeView(parent, children);
+        this.saveViewCache();
+        Set<NetworkAddress> childAddresses=new HashSet<NetworkAddress>();
+        for(FingerDescriptor child:children){
+            childAddresses.add(child.getNetworkAddress());
+        }
+        this.readySubtrees.keySet().retainAll(childAddresses);
+        this.treeViewHandle.setTreeView(parent, children);
+        this.checkSubtreeReady();
         //double rp=(Double)parent.getDescriptor(DescriptorType.RANK);
         //double ri=(Double)this.localDescriptor.getDescriptor(DescriptorType.RANK);
     }
 
     /**
-     * Handles incoming messages of the type <code>TreeViewReply</code>.
+     * Handles incoming messages of the type <code>TreeViewReply</code> and
+     * <code>TreeRotationSchedule</code> and,
+     * for the failure detection, the messages of the tree neighbors, the
+     * repair messages, the subtree ready messages of the children and the
+     * validation messages of the cached views.
      *
      * @param message the received message.
      */
@@ -197,6 +841,28 @@ public class TreeClient extends BasePeerlet implements TreeMiddlewareInterface{
         if (message instanceof TreeViewReply) {
                 this.runPassiveState((TreeViewReply) message);
         }
+        if (this.heartbeatPeriod>0 && message.getSourceAddress()!=null) {
+                this.updateNeighborHeard(message);
+        }
+        if (message instanceof TreeRotationSchedule) {
+                this.runPassiveState((TreeRotationSchedule) message);
+        }
+        if (message instanceof TreeRepairRequest) {
+                this.runPassiveState((TreeRepairRequest) message);
+        }
+        if (message instanceof TreeRepairReply) {
+                this.runPassiveState((TreeRepairReply) message);
+        }
+        if (message instanceof TreeViewValidation) {
+                this.runPassiveState((TreeViewValidation) message);
+        }
+        if (message instanceof TreeViewValidationReply) {
+                this.runPassiveState((TreeViewValidationReply) message);
+        }
+        if (message instanceof SubtreeReady) {
+                this.readySubtrees.put(message.getSourceAddress(), ((SubtreeReady) message).subtreeSize);
+                this.checkSubtreeReady();
+        }
     }
 
 }
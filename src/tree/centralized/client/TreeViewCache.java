@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package tree.centralized.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import org.apache.log4j.Logger;
+import dsutil.protopeer.FingerDescriptor;
+import tree.MessageCodec;
+
+/**
+ * The last tree view of a <code>TreeClient</code> persisted in a local file:
+ * the descriptor of the peer itself, the parent, the children, the backup
+ * parent and the topology epoch. It is written in the compact binary encoding
+ * of <code>MessageCodec</code>.
+ *
+ * @author Evangelos
+ */
+public class TreeViewCache {
+
+    private static final Logger logger = Logger.getLogger(TreeViewCache.class);
+
+    public FingerDescriptor self;
+    public FingerDescriptor parent;
+    public List<FingerDescriptor> children;
+    public FingerDescriptor backup;
+    public long epoch;
+
+    /**
+     * Writes the cached view in a file. The file is first written aside and
+     * then renamed, so that a crash does not leave a partial view.
+     *
+     * @param file the file
+     * @throws IOException if writing fails
+     */
+    public void save(File file) throws IOException{
+        File temporary=new File(file.getPath()+".tmp");
+        ObjectOutputStream out=new ObjectOutputStream(new FileOutputStream(temporary));
+        try{
+            MessageCodec codec=new MessageCodec();
+            codec.writeDescriptor(out, this.self);
+            codec.writeDescriptor(out, this.parent);
+            codec.writeDescriptors(out, this.children);
+            codec.writeDescriptor(out, this.backup);
+            MessageCodec.writeVarLong(out, this.epoch);
+        }
+        finally{
+            out.close();
+        }
+        if(!temporary.renameTo(file)){
+            file.delete();
+            if(!temporary.renameTo(file)){
+                throw new IOException("Cannot rename "+temporary+" to "+file);
+            }
+        }
+    }
+
+    /**
+     * Reads a cached view from a file. A file that cannot be read is logged,
+     * and the client bootstraps from the tree server.
+     *
+     * @param file the file
+     * @return the cached view or null if the file does not exist or cannot be
+     * read
+     */
+    public static TreeViewCache load(File file){
+        if(!file.exists()){
+            return null;
+        }
+        try{
+            ObjectInputStream in=new ObjectInputStream(new FileInputStream(file));
+            try{
+                MessageCodec codec=new MessageCodec();
+                TreeViewCache cache=new TreeViewCache();
+                cache.self=codec.readDescriptor(in);
+                cache.parent=codec.readDescriptor(in);
+                cache.children=codec.readDescriptors(in);
+                cache.backup=codec.readDescriptor(in);
+                cache.epoch=MessageCodec.readVarLong(in);
+                return cache;
+            }
+            finally{
+                in.close();
+            }
+        }
+        catch(IOException e){
+            logger.warn("Cannot read the cached tree view in "+file, e);
+            return null;
+        }
+        catch(ClassNotFoundException e){
+            logger.warn("Cannot read the cached tree view in "+file, e);
+            return null;
+        }
+    }
+}
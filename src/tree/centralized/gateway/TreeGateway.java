@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package tree.centralized.gateway;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.log4j.Logger;
+import protopeer.BasePeerlet;
+import dsutil.protopeer.FingerDescriptor;
+import protopeer.Peer;
+import protopeer.network.Message;
+import protopeer.network.NetworkAddress;
+import protopeer.time.Timer;
+import protopeer.time.TimerListener;
+import protopeer.util.quantities.Time;
+import tree.centralized.TreeViewBatchReply;
+import tree.centralized.TreeViewBatchRequest;
+import tree.centralized.TreeViewReply;
+import tree.centralized.TreeViewRequest;
+
+/**
+ * A gateway for the peers running in the same host. The local
+ * <code>TreeClient</code>s send their <code>TreeViewRequest</code> to the
+ * gateway instead of the tree server. The gateway collects the finger
+ * descriptors in a <code>TreeViewBatchRequest</code> and splits the
+ * <code>TreeViewBatchReply</code> of the server to the local clients. In this
+ * way, the number of messages the server handles depends on the number of
+ * hosts and not on the number of peers.
+ *
+ * The batch is sent when all the expected local requests are collected or when
+ * the flush delay after the first pending request expires, whatever comes
+ * first.
+ *
+ * @author Evangelos
+ */
+public class TreeGateway extends BasePeerlet{
+
+    private static final Logger logger = Logger.getLogger(TreeGateway.class);
+    private NetworkAddress treeServerAddress;
+    private List<FingerDescriptor> pending;
+    private int localPeers;
+    private int flushDelay;
+    private Timer flushTimer;
+    private int batches=0;
+    private int batchedRequests=0;
+
+    /**
+     * Initializes the gateway.
+     *
+     * @param treeServerAddress the network address of the tree server
+     * @param localPeers the number of local peers that use this gateway
+     * @param flushDelay the maximum time in milliseconds a request waits in
+     * the gateway before the batch is sent
+     */
+    public TreeGateway(NetworkAddress treeServerAddress, int localPeers, int flushDelay){
+        this.treeServerAddress=treeServerAddress;
+        this.localPeers=localPeers;
+        this.flushDelay=flushDelay;
+        this.pending=new ArrayList<FingerDescriptor>();
+    }
+
+    /**
+     * Initializes the peer and the flush timer.
+     *
+     * @param peer the local peer
+     */
+    @Override
+    public void init(Peer peer) {
+        super.init(peer);
+        this.flushTimer=getPeer().getClock().createNewTimer();
+        this.flushTimer.addTimerListener(new TimerListener() {
+            public void timerExpired(Timer timer) {
+                flush();
+            }
+        });
+    }
+
+    /**
+     * Adds the descriptor of a local peer in the pending batch. The batch is
+     * sent if all the local peers have sent their request.
+     *
+     * @param request the request of a local tree client
+     */
+    private void runPassiveState(TreeViewRequest request){
+        this.pending.add(request.sourceDescriptor);
+        if(this.pending.size()>=this.localPeers){
+            this.flush();
+        }
+        else if(!this.flushTimer.isScheduled()){
+            this.flushTimer.schedule(Time.inMilliseconds(this.flushDelay));
+        }
+    }
+
+    /**
+     * Delivers the tree views of the batched reply to the local tree clients.
+     *
+     * @param reply the batched reply of the tree server
+     */
+    private void runPassiveState(TreeViewBatchReply reply){
+        if (logger.isDebugEnabled()) {
+            logger.debug("Received "+reply.views.size()+" tree views from the tree server.");
+        }
+        for(int i=0; i<reply.destinations.size(); i++){
+            getPeer().sendMessage(reply.destinations.get(i).getNetworkAddress(), reply.views.get(i));
+        }
+    }
+
+    /**
+     * Sends the pending descriptors to the tree server in a single
+     * <code>TreeViewBatchRequest</code>.
+     */
+    private void flush(){
+        if(this.flushTimer.isScheduled()){
+            this.flushTimer.cancel();
+        }
+        if(this.pending.isEmpty()){
+            return;
+        }
+        TreeViewBatchRequest request=new TreeViewBatchRequest();
+        request.sourceDescriptors=this.pending;
+        getPeer().sendMessage(this.treeServerAddress, request);
+        this.batches++;
+        this.batchedRequests+=this.pending.size();
+        if (logger.isDebugEnabled()) {
+            logger.debug("Sending " +request + " with "+this.pending.size()+" descriptors to " + this.treeServerAddress);
+        }
+        this.pending=new ArrayList<FingerDescriptor>();
+    }
+
+    /**
+     * @return the number of batched requests sent to the tree server
+     */
+    public int getBatches(){
+        return this.batches;
+    }
+
+    /**
+     * @return the number of local requests sent in the batches
+     */
+    public int getBatchedRequests(){
+        return this.batchedRequests;
+    }
+
+    /**
+     * Handles the requests of the local tree clients and the batched replies
+     * of the tree server.
+     *
+     * @param message the incoming message
+     */
+    @Override
+    public void handleIncomingMessage(Message message) {
+        if (message instanceof TreeViewRequest) {
+            this.runPassiveState((TreeViewRequest) message);
+        }
+        if (message instanceof TreeViewBatchReply) {
+            this.runPassiveState((TreeViewBatchReply) message);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package tree.centralized.server;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import dsutil.generic.RankPriority;
+import dsutil.protopeer.services.topology.trees.TreeType;
+import tree.BalanceType;
+
+/**
+ * A memory-lean tree topology for simulating very large networks in a single
+ * JVM. The peers are the indices 0 to N-1 of a shared, immutable descriptor
+ * storage, an array of ranks and an array of node degrees, instead of a
+ * <code>FingerDescriptor</code> per peer. The topology is built with the same
+ * level-by-level algorithm as the <code>TreeTopologyGenerator</code>, without
+ * a height bound.
+ *
+ * The level-by-level algorithm assigns to each parent a contiguous range of
+ * the organized list of peers. The topology is therefore kept in primitive
+ * arrays instead of a <code>TreeViewFacilitator</code> with a list of children
+ * per peer: the position of each peer in the organized list, the position of
+ * its parent and the position of its first child and its number of children.
+ * A peer costs 5 integers on top of its rank and node degree.
+ *
+ * The positions follow the levels of the tree: the parent of a peer is always
+ * at a lower position than the peer. A bottom-up aggregation can therefore
+ * iterate the positions backwards and a top-down broadcast forwards.
+ *
+ * @author Evangelos
+ */
+public class CompactTreeTopology {
+
+    private final double[] ranks;
+    private final int[] degrees;
+    private final int[] order;
+    private final int[] positions;
+    private final int[] parents;
+    private final int[] firstChildren;
+    private final int[] numOfChildren;
+    private int height;
+
+    /**
+     * Builds the topology of the peers described by the ranks and the node
+     * degrees. The arrays are shared with the topology and must not be
+     * modified afterwards.
+     *
+     * @param ranks the rank of each peer
+     * @param degrees the node degree of each peer
+     * @param priority The high ranks or the low ranks priority given for
+     * shorting the peers
+     * @param treeType The type of tree built. It can be a random tree, sorted
+     * low to high ranks, or high to low ranks.
+     * @param balanceType Describes how the tree should be balanced. It can be a
+     * fully weight balanced tree, or a degenerate tree (i.e. a list)
+     * @param random the randomness source for shuffling the peers of a random
+     * tree
+     */
+    public CompactTreeTopology(double[] ranks, int[] degrees, RankPriority priority, TreeType treeType, BalanceType balanceType, Random random){
+        if(ranks.length!=degrees.length || ranks.length==0){
+            throw new IllegalArgumentException("Ranks and node degrees are required for every peer.");
+        }
+        int N=ranks.length;
+        this.ranks=ranks;
+        this.degrees=degrees;
+        this.order=this.organizePeers(priority, treeType, random);
+        this.positions=new int[N];
+        for(int p=0; p<N; p++){
+            this.positions[this.order[p]]=p;
+        }
+        this.parents=new int[N];
+        this.firstChildren=new int[N];
+        this.numOfChildren=new int[N];
+        this.buildTopology(balanceType);
+    }
+
+    /**
+     * Organizes the peers appropriatelly before the tree building algorithm
+     * applies. In the case of a random tree, the peers are shuffled. In the
+     * case of a sorted tree, the peers are sorted by rank, the high ranks first
+     * for the high rank priority.
+     *
+     * @return the peers in the organized order
+     */
+    private int[] organizePeers(final RankPriority priority, TreeType treeType, Random random){
+        int N=this.ranks.length;
+        int[] organized=new int[N];
+        if(treeType==TreeType.RANDOM){
+            for(int i=0; i<N; i++){
+                organized[i]=i;
+            }
+            for(int i=N-1; i>0; i--){
+                int j=random.nextInt(i+1);
+                int swap=organized[i];
+                organized[i]=organized[j];
+                organized[j]=swap;
+            }
+            return organized;
+        }
+        Integer[] sorted=new Integer[N];
+        for(int i=0; i<N; i++){
+            sorted[i]=i;
+        }
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return priority==RankPriority.HIGH_RANK ?
+                    Double.compare(ranks[b], ranks[a]) : Double.compare(ranks[a], ranks[b]);
+            }
+        });
+        for(int i=0; i<N; i++){
+            organized[i]=sorted[i];
+        }
+        return organized;
+    }
+
+    /**
+     * The level-by-level algorithm of the <code>TreeTopologyGenerator</code>
+     * over positions. Each parent of a level gets the next node degree - 1
+     * peers of the organized list as children.
+     */
+    private void buildTopology(BalanceType balanceType){
+        int N=this.order.length;
+        this.parents[0]=-1;
+        int pLeft=0;
+        int pRight=0;
+        int next=1;
+        this.height=0;
+        while(next<N){
+            int levelStart=next;
+            for(int p=pLeft; p<=pRight && next<N; p++){
+                int children=Math.min(this.degrees[this.order[p]]-1, N-next);
+                this.firstChildren[p]=next;
+                this.numOfChildren[p]=Math.max(0, children);
+                for(int c=next; c<next+this.numOfChildren[p]; c++){
+                    this.parents[c]=p;
+                }
+                next+=this.numOfChildren[p];
+            }
+            if(next==levelStart){
+                throw new IllegalArgumentException("The node degrees do not allow placing all peers in the tree.");
+            }
+            this.height++;
+            pLeft=(balanceType==BalanceType.LIST) ? next-1 : levelStart;
+            pRight=next-1;
+        }
+    }
+
+    /**
+     * @return the number of peers
+     */
+    public int size(){
+        return this.order.length;
+    }
+
+    /**
+     * @return the root peer
+     */
+    public int getRoot(){
+        return this.order[0];
+    }
+
+    /**
+     * @param peer the peer
+     * @return the parent of the peer or -1 for the root
+     */
+    public int getParent(int peer){
+        int parent=this.parents[this.positions[peer]];
+        return parent<0 ? -1 : this.order[parent];
+    }
+
+    /**
+     * @param peer the peer
+     * @return the number of children of the peer
+     */
+    public int getNumOfChildren(int peer){
+        return this.numOfChildren[this.positions[peer]];
+    }
+
+    /**
+     * @param peer the peer
+     * @param i the index of the child, from 0 to the number of children - 1
+     * @return the child of the peer
+     */
+    public int getChild(int peer, int i){
+        return this.order[this.firstChildren[this.positions[peer]]+i];
+    }
+
+    /**
+     * Returns the peer at a position of the organized list. Parents are at
+     * lower positions than their children.
+     *
+     * @param position the position, from 0 to N-1
+     * @return the peer
+     */
+    public int getPeerAt(int position){
+        return this.order[position];
+    }
+
+    /**
+     * @param peer the peer
+     * @return the rank of the peer in the shared descriptor storage
+     */
+    public double getRank(int peer){
+        return this.ranks[peer];
+    }
+
+    /**
+     * @param peer the peer
+     * @return the node degree of the peer in the shared descriptor storage
+     */
+    public int getNodeDegree(int peer){
+        return this.degrees[peer];
+    }
+
+    /**
+     * @return the maximum number of hops from the root to a leaf
+     */
+    public int getHeight(){
+        return this.height;
+    }
+}
@@ -18,7 +18,13 @@
 
 package tree.centralized.server;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import org.apache.log4j.Logger;
@@ -27,9 +33,16 @@ import dsutil.protopeer.FingerDescriptor;
 import protopeer.Peer;
 import dsutil.generic.RankPriority;
 import protopeer.network.Message;
+import protopeer.network.NetworkAddress;
 import dsutil.protopeer.services.topology.trees.DescriptorType;
 import dsutil.protopeer.services.topology.trees.TreeType;
 import tree.BalanceType;
+import tree.centralized.TreeRepairNotification;
+import tree.centralized.TreeRedirectRequest;
+import tree.centralized.TreeRepairReply;
+import tree.centralized.TreeRotationSchedule;
+import tree.centralized.TreeViewBatchReply;
+import tree.centralized.TreeViewBatchRequest;
 import tree.centralized.TreeViewReply;
 import tree.centralized.TreeViewRequest;
 
@@ -46,6 +59,41 @@ import tree.centralized.TreeViewRequest;
  * the <code>TreeServer</code> is not anymore bootstrapper but rather a central
  * mechanism. We leave this for future work.
  *
+ * While waiting, each peer is added to the topology generator as its request
+ * arrives, so that the peers are already organized, their views created and
+ * their node degrees counted when the Nth request arrives. The tree is then
+ * only linked, which keeps the time from the last request to the replies
+ * short.
+ *
+ * Requests may also arrive batched by a <code>TreeGateway</code>. The views of
+ * these peers are sent back batched to their gateway.
+ *
+ * The server keeps the topology after building it. Each view contains a
+ * backup parent for repairing the tree locally when a parent fails. The peers
+ * adopting orphan peers notify the server, which keeps its topology up to date.
+ * An orphan peer that its backup parent does not adopt in time asks the
+ * server, which redirects it to the root of its topology, or to the closest
+ * live peer to the root outside the subtree of the orphan. The peers reported
+ * failed are skipped.
+ *
+ * Each topology has an epoch, the time of the peer clock when it was built,
+ * which is sent in the views. In a simulation this is the simulated time, so
+ * that the views of a run are reproducible. A peer of the topology that
+ * requests its view again, e.g. after a restart, gets its current view right
+ * away, and a peer that requests again before the topology is built is
+ * counted once.
+ *
+ * Each built topology is analyzed by the <code>TreeTopologyAnalyzer</code>,
+ * which fails fast on a malformed tree, and its stats are kept.
+ *
+ * Optionally, the root role rotates. The server builds alternate topologies,
+ * in which the root and the top interior roles are taken by different peers
+ * with the node degree of the root, and sends to each peer its views in all of
+ * them in a <code>TreeRotationSchedule</code> instead of a single view. The
+ * peers switch to the next topology every rotation period, so that the load of
+ * the root, which receives every final aggregate and starts every broadcast,
+ * is spread over several peers.
+ *
  * @author Evangelos
  */
 public class TreeServer extends BasePeerlet{
@@ -57,10 +105,20 @@ public class TreeServer extends BasePeerlet{
         COMPLETED
     }
     private Set<FingerDescriptor> peers;
+    private Map<FingerDescriptor,NetworkAddress> gateways;
+    private Map<FingerDescriptor,TreeViewFacilitator> topology;
     private TreeTopologyGenerator generator;
+    private TreeTopologyAnalyzer analyzer;
+    private TreeTopologyStats stats;
     private ServerState state;
     private final int N;
     private int n;
+    private long epoch;
+    private int rotations;
+    private int rotationPeriod;
+    private List<Map<FingerDescriptor,TreeViewFacilitator>> rotationTopologies;
+    private double rotationStart;
+    private Set<FingerDescriptor> failedPeers;
 
     /**
      * Initializes the server and the topology generator with the required
@@ -97,11 +155,72 @@ public class TreeServer extends BasePeerlet{
      * the <code>TreeTopologyGenerator</code>.
      */
     public TreeServer(int N, RankPriority priority, DescriptorType descrType, TreeType treeType, BalanceType balanceType){
+        this(N,priority,descrType,treeType,balanceType,0,0);
+    }
+
+    /**
+     * Initializes the server and the topology generator with the required
+     * information and a bound on the height of the tree.
+     *
+     * @param N the number of requests waiting before starting building the
+     * tree topology
+     * @param priority higher or lower ranks prefered during the sorting. This
+     * parameter is fed in the <code>TreeTopologyGenerator</code>.
+     * @param descrType the descriptor type based on which the sorting is
+     * performed. This parameter is fed in
+     * the <code>TreeTopologyGenerator</code>.
+     * @param treeType the type of tree to be built. This parameter is fed in
+     * the <code>TreeTopologyGenerator</code>.
+     * @param balanceType the balance of tree to be built. This parameter is fed in
+     * the <code>TreeTopologyGenerator</code>.
+     * @param maxHeight the maximum height of the tree, 0 for unbounded. This
+     * parameter is fed in the <code>TreeTopologyGenerator</code>.
+     * @param maxOvershoot the maximum number of children over the node degree
+     * of a peer for meeting the height bound. This parameter is fed in the
+     * <code>TreeTopologyGenerator</code>.
+     */
+    public TreeServer(int N, RankPriority priority, DescriptorType descrType, TreeType treeType, BalanceType balanceType, int maxHeight, int maxOvershoot){
+        this(N,priority,descrType,treeType,balanceType,maxHeight,maxOvershoot,0,0);
+    }
+
+    /**
+     * Initializes the server and the topology generator with the required
+     * information, a bound on the height of the tree and the rotation of the
+     * root role.
+     *
+     * @param N the number of requests waiting before starting building the
+     * tree topology
+     * @param priority higher or lower ranks prefered during the sorting. This
+     * parameter is fed in the <code>TreeTopologyGenerator</code>.
+     * @param descrType the descriptor type based on which the sorting is
+     * performed. This parameter is fed in
+     * the <code>TreeTopologyGenerator</code>.
+     * @param treeType the type of tree to be built. This parameter is fed in
+     * the <code>TreeTopologyGenerator</code>.
+     * @param balanceType the balance of tree to be built. This parameter is fed in
+     * the <code>TreeTopologyGenerator</code>.
+     * @param maxHeight the maximum height of the tree, 0 for unbounded. This
+     * parameter is fed in the <code>TreeTopologyGenerator</code>.
+     * @param maxOvershoot the maximum number of children over the node degree
+     * of a peer for meeting the height bound. This parameter is fed in the
+     * <code>TreeTopologyGenerator</code>.
+     * @param rotations the number of alternate topologies the root role
+     * rotates over, 1 for delivering the same topology every rotation period
+     * @param rotationPeriod the time in milliseconds each topology is used,
+     * 0 for no rotation
+     */
+    public TreeServer(int N, RankPriority priority, DescriptorType descrType, TreeType treeType, BalanceType balanceType, int maxHeight, int maxOvershoot, int rotations, int rotationPeriod){
+        this.rotations=rotations;
+        this.rotationPeriod=rotationPeriod;
         this.state=ServerState.INIT;
         this.N=N;
         this.n=0;
         this.peers=new HashSet<FingerDescriptor>();
-        this.generator=new TreeTopologyGenerator(priority, descrType, treeType, balanceType);
+        this.gateways=new HashMap<FingerDescriptor,NetworkAddress>();
+        this.failedPeers=new HashSet<FingerDescriptor>();
+        this.topology=new HashMap<FingerDescriptor,TreeViewFacilitator>();
+        this.generator=new TreeTopologyGenerator(priority, descrType, treeType, balanceType, maxHeight, maxOvershoot);
+        this.analyzer=new TreeTopologyAnalyzer(priority, descrType);
     }
 
     /**
@@ -123,14 +242,136 @@ public class TreeServer extends BasePeerlet{
         if (logger.isDebugEnabled()) {
             logger.debug("Received a tree view request from: "+request.sourceDescriptor);
         }
-        this.peers.add(request.sourceDescriptor);
+        this.addPeer(request.sourceDescriptor);
+    }
+
+    /**
+     * Processes the descriptors of a batched request as if they were received
+     * one by one. The gateway is remembered for sending the views back.
+     *
+     * @param request the <code>TreeViewBatchRequest</code> received.
+     */
+    private void runPassiveState(TreeViewBatchRequest request){
+        if (logger.isDebugEnabled()) {
+            logger.debug("Received "+request.sourceDescriptors.size()+" tree view requests from the gateway: "+request.getSourceAddress());
+        }
+        for(FingerDescriptor descriptor:request.sourceDescriptors){
+            this.gateways.put(descriptor, request.getSourceAddress());
+            this.addPeer(descriptor);
+        }
+    }
+
+    /**
+     * Adds a peer in the topology and builds the topology if this is the Nth
+     * peer. A new peer is placed in the organized order of the generator right
+     * away. A repeated request of a peer already added is ignored.
+     *
+     * @param descriptor the descriptor of the peer sent the request
+     */
+    private void addPeer(FingerDescriptor descriptor){
+        if(this.state==ServerState.COMPLETED){
+            this.resendView(descriptor);
+            return;
+        }
+        if(!this.peers.add(descriptor)){
+            logger.debug("Ignoring a repeated request of: "+descriptor);
+            return;
+        }
+        this.generator.addPeer(descriptor);
         this.n++;
         if(n==N){
-            Set<Entry<FingerDescriptor,TreeViewFacilitator>> views=generator.generateTopology(this.peers);
-            this.replyViews(views);
+            this.epoch=(long)getPeer().getClock().getCurrentTime();
+            Set<Entry<FingerDescriptor,TreeViewFacilitator>> views;
+            if(this.isRotating()){
+                this.rotationTopologies=generator.generateRotations(this.peers, this.rotations);
+                this.rotationStart=getPeer().getClock().getCurrentTime();
+                views=this.rotationTopologies.get(0).entrySet();
+            }
+            else{
+                views=generator.generateTopology(this.peers);
+            }
+            for(Entry<FingerDescriptor,TreeViewFacilitator> entry:views){
+                this.topology.put(entry.getKey(), entry.getValue());
+            }
+            this.stats=this.analyzer.analyze(this.topology);
+            if(this.isRotating()){
+                for(FingerDescriptor peer:this.peers){
+                    this.sendRotationSchedule(peer);
+                }
+            }
+            else{
+                this.replyViews(views);
+            }
             this.state=ServerState.COMPLETED;
+            if (logger.isDebugEnabled()) {
+                logger.debug("Tree built with overshoot "+this.generator.getOvershoot()+": "+this.stats);
+            }
+        }
+    }
+
+    /**
+     * Sends again the current view of a peer of the topology. Requests of
+     * unknown peers are ignored.
+     *
+     * @param descriptor the descriptor of the peer sent the request
+     */
+    private void resendView(FingerDescriptor descriptor){
+        TreeViewFacilitator view=this.topology.get(descriptor);
+        if(view==null){
+            logger.debug("Ignoring the request of a peer out of the topology: "+descriptor);
+            return;
+        }
+        if(this.isRotating()){
+            this.sendRotationSchedule(descriptor);
         }
+        else{
+            this.replyViews(Collections.singletonMap(descriptor, view).entrySet());
+        }
+    }
+
+    /**
+     * Checks whether the root role rotates.
+     *
+     * @return true if the server builds alternate topologies
+     */
+    private boolean isRotating(){
+        return this.rotationPeriod>0 && this.rotations>0;
+    }
 
+    /**
+     * Returns the alternate topology currently in use, computed from the time
+     * the topologies were built.
+     *
+     * @return the index of the current topology
+     */
+    private int getCurrentRotation(){
+        double elapsed=getPeer().getClock().getCurrentTime()-this.rotationStart;
+        return (int)(elapsed/this.rotationPeriod)%this.rotationTopologies.size();
+    }
+
+    /**
+     * Sends to a peer its views in all the alternate topologies, the current
+     * topology and the time left until the next switch.
+     *
+     * @param peer the descriptor of the peer
+     */
+    private void sendRotationSchedule(FingerDescriptor peer){
+        double elapsed=getPeer().getClock().getCurrentTime()-this.rotationStart;
+        TreeRotationSchedule schedule=new TreeRotationSchedule();
+        schedule.epoch=this.epoch;
+        schedule.period=this.rotationPeriod;
+        schedule.rotation=this.getCurrentRotation();
+        schedule.delay=this.rotationPeriod-(int)(elapsed%this.rotationPeriod);
+        schedule.parents=new ArrayList<FingerDescriptor>();
+        schedule.children=new ArrayList<List<FingerDescriptor>>();
+        schedule.backups=new ArrayList<FingerDescriptor>();
+        for(Map<FingerDescriptor,TreeViewFacilitator> topology:this.rotationTopologies){
+            TreeViewFacilitator view=topology.get(peer);
+            schedule.parents.add(view.getParent());
+            schedule.children.add(view.getChildren());
+            schedule.backups.add(this.getBackup(topology, peer));
+        }
+        getPeer().sendMessage(peer.getNetworkAddress(), schedule);
     }
 
     /**
@@ -143,16 +384,157 @@ public class TreeServer extends BasePeerlet{
         if (logger.isDebugEnabled()) {
             logger.debug("Sending tree views to all peers...");
         }
+        Map<NetworkAddress,TreeViewBatchReply> batches=new HashMap<NetworkAddress,TreeViewBatchReply>();
         for(Entry<FingerDescriptor,TreeViewFacilitator> entry:views){
             TreeViewReply reply=new TreeViewReply();
             reply.parent=entry.getValue().getParent();
             reply.children=entry.getValue().getChildren();
+            reply.backup=this.getBackup(this.topology, entry.getKey());
+            reply.epoch=this.epoch;
 //            System.out.println(entry.getValue().getChildren().size());
-            getPeer().sendMessage(entry.getKey().getNetworkAddress(), reply);
+            NetworkAddress gateway=this.gateways.get(entry.getKey());
+            if(gateway==null){
+                getPeer().sendMessage(entry.getKey().getNetworkAddress(), reply);
+            }
+            else{
+                TreeViewBatchReply batch=batches.get(gateway);
+                if(batch==null){
+                    batch=new TreeViewBatchReply();
+                    batch.destinations=new ArrayList<FingerDescriptor>();
+                    batch.views=new ArrayList<TreeViewReply>();
+                    batches.put(gateway, batch);
+                }
+                batch.destinations.add(entry.getKey());
+                batch.views.add(reply);
+            }
             getPeer().getMeasurementLogger().log(entry.getKey(), 1);
         }
-        
+        for(Entry<NetworkAddress,TreeViewBatchReply> batch:batches.entrySet()){
+            getPeer().sendMessage(batch.getKey(), batch.getValue());
+        }
+    }
+
+    /**
+     * Finds the backup parent of a peer. This is the grandparent, or for the
+     * children of the root, the first child of the root, the best ranked one
+     * in a sorted tree. This successor has no backup parent and becomes the
+     * root when the root fails, so that the other children of the root are
+     * adopted by it instead of by each other. The root has no backup parent.
+     *
+     * @param topology the topology the peer belongs to
+     * @param peer the peer
+     * @return the backup parent of the peer or null if there is not any
+     */
+    private FingerDescriptor getBackup(Map<FingerDescriptor,TreeViewFacilitator> topology, FingerDescriptor peer){
+        FingerDescriptor parent=topology.get(peer).getParent();
+        if(parent==null){
+            return null;
+        }
+        TreeViewFacilitator parentView=topology.get(parent);
+        if(parentView.getParent()!=null){
+            return parentView.getParent();
+        }
+        FingerDescriptor successor=parentView.getChildren().get(0);
+        return successor.equals(peer) ? null : successor;
+    }
+
+    /**
+     * Updates the topology after an orphan peer is adopted by its backup
+     * parent, or becomes the root if the notification has no parent. When the
+     * root role rotates, the repair applies to the topology currently in use.
+     *
+     * @param notification the <code>TreeRepairNotification</code> received
+     */
+    private void runPassiveState(TreeRepairNotification notification){
+        if (logger.isDebugEnabled()) {
+            logger.debug("Peer "+notification.orphan+" is adopted by: "+notification.parent);
+        }
+        Map<FingerDescriptor,TreeViewFacilitator> topology=this.topology;
+        if(this.isRotating() && this.rotationTopologies!=null){
+            topology=this.rotationTopologies.get(this.getCurrentRotation());
+        }
+        TreeViewFacilitator orphanView=topology.get(notification.orphan);
+        if(orphanView==null){
+            return;
+        }
+        if(notification.parent==null && orphanView.getParent()!=null){
+            this.failedPeers.add(orphanView.getParent());
+        }
+        if(orphanView.getParent()!=null){
+            topology.get(orphanView.getParent()).getChildren().remove(notification.orphan);
+        }
+        orphanView.setParent(notification.parent);
+        TreeViewFacilitator parentView=topology.get(notification.parent);
+        if(parentView!=null && !parentView.getChildren().contains(notification.orphan)){
+            parentView.addChild(notification.orphan);
+        }
+    }
 
+    /**
+     * Redirects an orphan peer that its backup parent has not adopted to a new
+     * parent. The topology is searched level by level from its roots for the
+     * first peer that is not reported failed, skipping the subtree of the
+     * orphan, so that the adoption does not close a cycle. The redirected
+     * peer adopts the orphan or redirects it further to one of its children.
+     * A reply without a redirect makes the orphan the root, as no other peer
+     * is left.
+     *
+     * @param request the <code>TreeRedirectRequest</code> received
+     */
+    private void runPassiveState(TreeRedirectRequest request){
+        if(this.state!=ServerState.COMPLETED){
+            return;
+        }
+        if(request.failed!=null){
+            this.failedPeers.add(request.failed);
+        }
+        Map<FingerDescriptor,TreeViewFacilitator> topology=this.topology;
+        if(this.isRotating() && this.rotationTopologies!=null){
+            topology=this.rotationTopologies.get(this.getCurrentRotation());
+        }
+        LinkedList<FingerDescriptor> queue=new LinkedList<FingerDescriptor>();
+        for(Entry<FingerDescriptor,TreeViewFacilitator> entry:topology.entrySet()){
+            if(entry.getValue().getParent()==null){
+                queue.add(entry.getKey());
+            }
+        }
+        TreeRepairReply reply=new TreeRepairReply();
+        while(!queue.isEmpty()){
+            FingerDescriptor peer=queue.removeFirst();
+            if(peer.equals(request.orphan)){
+                continue;
+            }
+            if(!this.failedPeers.contains(peer)){
+                reply.redirect=peer;
+                break;
+            }
+            queue.addAll(topology.get(peer).getChildren());
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Peer "+request.orphan+" is redirected to: "+reply.redirect);
+        }
+        getPeer().sendMessage(request.getSourceAddress(), reply);
+    }
+
+    /**
+     * Returns the topology generator, which reports the height and the degree
+     * overshoots of the built tree.
+     *
+     * @return the topology generator of the server
+     */
+    public TreeTopologyGenerator getTopologyGenerator(){
+        return this.generator;
+    }
+
+    /**
+     * Returns the shape of the last built topology: the height, the fan-out
+     * per level, the leaf ratio, the rank inversions and the critical path.
+     * With a rotating root, this is the first of the alternate topologies.
+     *
+     * @return the stats of the topology, null before it is built
+     */
+    public TreeTopologyStats getTopologyStats(){
+        return this.stats;
     }
 
     /**
@@ -185,7 +567,9 @@ public class TreeServer extends BasePeerlet{
     }
 
     /**
-     * Handling the incoming messages. Processing the <code>TreeViewRequest</code>s
+     * Handling the incoming messages. Processing the <code>TreeViewRequest</code>s,
+     * the <code>TreeViewBatchRequest</code>s, the <code>TreeRepairNotification</code>s
+     * and the <code>TreeRedirectRequest</code>s
      *
      * @param message the incoming message
      */
@@ -194,5 +578,14 @@ public class TreeServer extends BasePeerlet{
         if (message instanceof TreeViewRequest) {
                 this.runPassiveState((TreeViewRequest) message);
         }
+        if (message instanceof TreeViewBatchRequest) {
+                this.runPassiveState((TreeViewBatchRequest) message);
+        }
+        if (message instanceof TreeRepairNotification) {
+                this.runPassiveState((TreeRepairNotification) message);
+        }
+        if (message instanceof TreeRedirectRequest) {
+                this.runPassiveState((TreeRedirectRequest) message);
+        }
     }
 }
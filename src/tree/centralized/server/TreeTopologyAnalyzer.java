@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package tree.centralized.server;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Map.Entry;
+import dsutil.generic.RankPriority;
+import dsutil.protopeer.FingerDescriptor;
+import dsutil.protopeer.services.topology.trees.DescriptorType;
+
+/**
+ * Computes the <code>TreeTopologyStats</code> of a tree topology in one
+ * breadth first pass from the root, linear in the number of peers. The
+ * topology is either the map of <code>TreeViewFacilitator</code>s of the
+ * <code>TreeTopologyGenerator</code> or a <code>CompactTreeTopology</code>.
+ *
+ * The analyzer fails fast on a malformed tree: a topology without a single
+ * root, a child out of the topology, a child with a different parent in its
+ * view, a peer reached twice or peers not reachable from the root throw an
+ * <code>IllegalStateException</code>.
+ *
+ * @author Evangelos
+ */
+public class TreeTopologyAnalyzer {
+
+    private RankPriority priority;
+    private DescriptorType descrType;
+
+    /**
+     * Requires the rank priority and the descriptor type of the ranks for
+     * counting the rank inversions.
+     *
+     * @param priority the high ranks or the low ranks priority given for
+     * sorting the peers
+     * @param descrType the numeric double descriptor type of the ranks
+     */
+    public TreeTopologyAnalyzer(RankPriority priority, DescriptorType descrType){
+        this.priority=priority;
+        this.descrType=descrType;
+    }
+
+    /**
+     * Analyzes a topology of the <code>TreeTopologyGenerator</code>.
+     *
+     * @param topology the tree view of each peer
+     * @return the stats of the topology
+     */
+    public TreeTopologyStats analyze(Map<FingerDescriptor,TreeViewFacilitator> topology){
+        FingerDescriptor root=null;
+        for(Entry<FingerDescriptor,TreeViewFacilitator> entry:topology.entrySet()){
+            if(entry.getValue().getParent()==null){
+                if(root!=null){
+                    throw new IllegalStateException("The topology has more than one root: "+root+", "+entry.getKey());
+                }
+                root=entry.getKey();
+            }
+        }
+        if(root==null){
+            throw new IllegalStateException("The topology has no root.");
+        }
+        TreeTopologyStats stats=new TreeTopologyStats();
+        Set<FingerDescriptor> visited=new HashSet<FingerDescriptor>();
+        List<FingerDescriptor> level=new ArrayList<FingerDescriptor>();
+        List<Integer> loads=new ArrayList<Integer>();
+        level.add(root);
+        loads.add(0);
+        visited.add(root);
+        for(int depth=0; !level.isEmpty(); depth++){
+            List<FingerDescriptor> nextLevel=new ArrayList<FingerDescriptor>();
+            List<Integer> nextLoads=new ArrayList<Integer>();
+            for(int i=0; i<level.size(); i++){
+                FingerDescriptor peer=level.get(i);
+                TreeViewFacilitator view=topology.get(peer);
+                List<FingerDescriptor> children=view.getChildren();
+                int load=loads.get(i)+children.size();
+                stats.addPeer(depth, children.size(), view.getParent()!=null && this.outranks(peer, view.getParent()), loads.get(i));
+                for(FingerDescriptor child:children){
+                    TreeViewFacilitator childView=topology.get(child);
+                    if(childView==null){
+                        throw new IllegalStateException("Child "+child+" of "+peer+" is not in the topology.");
+                    }
+                    if(!peer.equals(childView.getParent())){
+                        throw new IllegalStateException("Child "+child+" of "+peer+" has the parent "+childView.getParent());
+                    }
+                    if(!visited.add(child)){
+                        throw new IllegalStateException("Peer "+child+" is reached twice.");
+                    }
+                    nextLevel.add(child);
+                    nextLoads.add(load);
+                }
+            }
+            level=nextLevel;
+            loads=nextLoads;
+        }
+        if(visited.size()!=topology.size()){
+            throw new IllegalStateException((topology.size()-visited.size())+" peers are not reachable from the root.");
+        }
+        return stats;
+    }
+
+    /**
+     * Analyzes a compact topology. The positions of the compact topology
+     * follow the levels of the tree, so the pass is over the positions.
+     *
+     * @param topology the compact topology
+     * @return the stats of the topology
+     */
+    public TreeTopologyStats analyze(CompactTreeTopology topology){
+        int N=topology.size();
+        TreeTopologyStats stats=new TreeTopologyStats();
+        int[] depths=new int[N];
+        int[] loads=new int[N];
+        boolean[] visited=new boolean[N];
+        int root=topology.getRoot();
+        if(topology.getParent(root)!=-1){
+            throw new IllegalStateException("The topology has no root.");
+        }
+        visited[root]=true;
+        int reached=1;
+        for(int p=0; p<N; p++){
+            int peer=topology.getPeerAt(p);
+            if(!visited[peer]){
+                throw new IllegalStateException("Peer "+peer+" is not reachable from the root.");
+            }
+            int parent=topology.getParent(peer);
+            int numOfChildren=topology.getNumOfChildren(peer);
+            stats.addPeer(depths[peer], numOfChildren, parent>=0 &&
+                    this.outranks(topology.getRank(peer), topology.getRank(parent)), loads[peer]);
+            for(int i=0; i<numOfChildren; i++){
+                int child=topology.getChild(peer, i);
+                if(topology.getParent(child)!=peer){
+                    throw new IllegalStateException("Child "+child+" of "+peer+" has the parent "+topology.getParent(child));
+                }
+                if(visited[child]){
+                    throw new IllegalStateException("Peer "+child+" is reached twice.");
+                }
+                visited[child]=true;
+                reached++;
+                depths[child]=depths[peer]+1;
+                loads[child]=loads[peer]+numOfChildren;
+            }
+        }
+        if(reached!=N){
+            throw new IllegalStateException((N-reached)+" peers are not reachable from the root.");
+        }
+        return stats;
+    }
+
+    private boolean outranks(FingerDescriptor peer, FingerDescriptor parent){
+        return this.outranks((Double)peer.getDescriptor(this.descrType), (Double)parent.getDescriptor(this.descrType));
+    }
+
+    private boolean outranks(double rank, double parentRank){
+        return this.priority==RankPriority.HIGH_RANK ? rank>parentRank : rank<parentRank;
+    }
+}
@@ -24,13 +24,18 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import org.apache.log4j.Logger;
 import dsutil.protopeer.FingerDescriptor;
 import dsutil.generic.RankPriority;
 import dsutil.generic.RankedFingerComparator;
 import dsutil.protopeer.services.topology.trees.DescriptorType;
 import dsutil.protopeer.services.topology.trees.TreeType;
+import protopeer.util.RandomnessSource;
+import protopeer.util.RandomnessSourceType;
 import tree.BalanceType;
 
 /**
@@ -42,16 +47,45 @@ import tree.BalanceType;
  * not possible as we want to use the <code>FingerDescriptor</code>. This is
  * because in this way we can build topolgies based on local ranks.
  *
+ * Optionally, the height of the tree is bounded. The generator then raises the
+ * number of children of every parent by the minimum overshoot over its node
+ * degree that keeps the height within the bound. If the bound cannot be met
+ * within the maximum overshoot allowed, the tree is built with the maximum
+ * overshoot and the violation is flagged.
+ *
+ * A generator can be reused for building again. The topology returned by
+ * <code>generateTopology</code> is owned by the generator and is valid until
+ * the next call: the tree views and the buffer of the organized peers are
+ * reset and reused, so that rebuilding a tree of the same peers allocates
+ * almost nothing. The alternate topologies of <code>generateRotations</code>
+ * are new and are kept by the caller.
+ *
+ * The peers can also be added one by one with <code>addPeer</code> while the
+ * server waits for the requests. Each peer is then inserted in its organized
+ * position in the buffer, by binary search for a sorted tree or by an
+ * incremental shuffle for a random tree, its tree view is created and the
+ * histogram of the node degrees is updated. A build of exactly the added
+ * peers then only links the views level by level.
+ *
  * @author Evangelos
  */
 public class TreeTopologyGenerator {
 
     private static final Logger logger = Logger.getLogger(TreeTopologyGenerator.class);
     private Map<FingerDescriptor,TreeViewFacilitator> topology;
+    private Map<FingerDescriptor,TreeViewFacilitator> reusableTopology;
+    private List<FingerDescriptor> buffer;
+    private boolean planned;
+    private SortedMap<Integer,Integer> degreeHistogram;
+    private RankedFingerComparator comparator;
     private RankPriority priority;
     private DescriptorType descrType;
     private TreeType treeType;
     private BalanceType balanceType;
+    private int maxHeight;
+    private int maxOvershoot;
+    private int overshoot;
+    private int height;
 
     /**
      * Requires information about the priority given to the ranks of the peers
@@ -86,61 +120,291 @@ public class TreeTopologyGenerator {
      * fully weight balanced tree, or a degenerate tree (i.e. a list)
      */
     public TreeTopologyGenerator(RankPriority priority, DescriptorType descrType, TreeType treeType, BalanceType balanceType){
+        this(priority, descrType, treeType, balanceType, 0, 0);
+    }
+
+    /**
+     * Requires the same information as above and a bound on the height of the
+     * tree.
+     *
+     * @param priority The high ranks or the low ranks priority given for
+     * shorting the peers
+     * @param descrType The numeric double descriptor type on which the ranks
+     * correspond to
+     * @param treeType The type of tree built. It can be a random tree, sorted
+     * low to high ranks, or high to low ranks.
+     * @param balanceType Describes how the tree should be balanced. It can be a
+     * fully weight balanced tree, or a degenerate tree (i.e. a list)
+     * @param maxHeight The maximum height of the tree, i.e. the maximum number
+     * of hops from the root to a leaf. The height is unbounded with 0.
+     * @param maxOvershoot The maximum number of children a parent can have
+     * over the number given by its node degree for meeting the height bound.
+     */
+    public TreeTopologyGenerator(RankPriority priority, DescriptorType descrType, TreeType treeType, BalanceType balanceType, int maxHeight, int maxOvershoot){
         this.priority=priority;
         this.descrType=descrType;
         this.treeType=treeType;
         this.balanceType=balanceType;
-        this.topology=new HashMap();
+        this.maxHeight=maxHeight;
+        this.maxOvershoot=maxOvershoot;
+        this.reusableTopology=new HashMap<FingerDescriptor,TreeViewFacilitator>();
+        this.topology=this.reusableTopology;
+        this.buffer=new ArrayList<FingerDescriptor>();
+        this.planned=false;
+        this.degreeHistogram=new TreeMap<Integer,Integer>();
+        this.comparator=new RankedFingerComparator(priority, descrType);
+    }
+
+    /**
+     * Adds a peer of the next tree before it is built. The peer is inserted in
+     * its organized position in the buffer and its tree view is created, so
+     * that the build of the added peers does not need to organize them again.
+     * The peers added must not be in the buffer already and their ranks must
+     * not change until the build.
+     *
+     * @param peer the peer added
+     */
+    public void addPeer(FingerDescriptor peer){
+        if(!this.planned){
+            this.buffer.clear();
+            this.degreeHistogram.clear();
+            this.planned=true;
+        }
+        if(treeType==TreeType.RANDOM){
+            Random random=RandomnessSource.getRandom(RandomnessSourceType.GENERAL);
+            int position=random.nextInt(this.buffer.size()+1);
+            if(position==this.buffer.size()){
+                this.buffer.add(peer);
+            }
+            else{
+                this.buffer.add(this.buffer.get(position));
+                this.buffer.set(position, peer);
+            }
+        }
+        else{
+            int position=Collections.binarySearch(this.buffer, peer, this.comparator);
+            this.buffer.add(position<0 ? -position-1 : position, peer);
+        }
+        this.addDegree(peer);
+        if(!this.reusableTopology.containsKey(peer)){
+            this.reusableTopology.put(peer, new TreeViewFacilitator());
+        }
+    }
+
+    /**
+     * Counts the node degree of a peer in the histogram.
+     *
+     * @param peer the peer
+     */
+    private void addDegree(FingerDescriptor peer){
+        Integer degree=(Integer)peer.getDescriptor(DescriptorType.NODE_DEGREE);
+        Integer count=this.degreeHistogram.get(degree);
+        this.degreeHistogram.put(degree, count==null ? 1 : count+1);
+    }
+
+    /**
+     * Returns the histogram of the node degrees of the peers in the buffer,
+     * i.e. of the added peers or the peers of the last build.
+     *
+     * @return the number of peers per node degree
+     */
+    public SortedMap<Integer,Integer> getDegreeHistogram(){
+        return Collections.unmodifiableSortedMap(this.degreeHistogram);
     }
 
     /**
+     * Computes from the histogram the number of children the peers in the
+     * buffer can have without an overshoot. A tree of n peers needs n-1.
+     *
+     * @return the total number of children allowed by the node degrees
+     */
+    public long getCapacity(){
+        long capacity=0;
+        for(Entry<Integer,Integer> entry:this.degreeHistogram.entrySet()){
+            capacity+=(long)(entry.getKey()-1)*entry.getValue();
+        }
+        return capacity;
+    }
+
     /**
      * Facilitates a cental algorithm for creating the tree topology. It is
      * based on creating a level-by-level tree based on a list of peers.
      *
+     * The returned entry set is reused by the next call. The tree views of
+     * peers that are built again are reset in place and the views of peers
+     * that are not part of the new tree are removed. If the peers are the same
+     * as in the previous call, their organized order is kept as the starting
+     * point of the sorting. If they are exactly the peers added with
+     * <code>addPeer</code>, they are not organized again.
+     *
      * @param peers The set of peers participating the tree topology.
      * @return an entry set with the tree view for each peer
+     * @throws IllegalStateException if the node degrees and the overshoot do
+     * not allow placing all the peers in the tree
      */
     public Set<Entry<FingerDescriptor,TreeViewFacilitator>> generateTopology(Set<FingerDescriptor> peers){
+        if(!this.isBuffered(peers)){
+            this.reload(peers);
+        }
+        if(!this.planned){
+            this.organizePeers(this.buffer);
+        }
+        this.planned=false;
+        this.overshoot=this.computeOvershoot(this.buffer);
+        this.checkCapacity(peers.size());
+        this.topology=this.reusableTopology;
+        this.topology.keySet().retainAll(peers);
+        for(TreeViewFacilitator view:this.topology.values()){
+            view.reset();
+        }
+        this.buildTopology(this.buffer);
+        return this.topology.entrySet();
+    }
+
+    /**
+     * Checks that the node degrees of the peers in the buffer, with the
+     * overshoot chosen for the height bound, allow the n-1 children of a tree
+     * of n peers. The build also fails when a level cannot have children,
+     * even if the total capacity is enough.
+     *
+     * @param size the number of peers of the tree
+     * @throws IllegalStateException if the capacity is too low
+     */
+    private void checkCapacity(int size){
+        if(this.getCapacity()+(long)this.overshoot*size<size-1){
+            throw new IllegalStateException("The node degrees allow "+this.getCapacity()+" children for "+size+" peers: "+this.degreeHistogram);
+        }
+    }
+
+    /**
+     * Loads the peers in the buffer and counts their node degrees.
+     *
+     * @param peers the peers of the new tree
+     */
+    private void reload(Set<FingerDescriptor> peers){
+        this.buffer.clear();
+        this.degreeHistogram.clear();
+        this.planned=false;
+        for(FingerDescriptor peer:peers){
+            this.buffer.add(peer);
+            this.addDegree(peer);
+        }
+    }
+
+    /**
+     * Checks whether the buffer already contains exactly the given peers.
+     *
+     * @param peers the peers of the new tree
+     * @return true if the buffer can be organized again without reloading it
+     */
+    private boolean isBuffered(Set<FingerDescriptor> peers){
+        if(this.buffer.size()!=peers.size()){
+            return false;
+        }
+        for(int i=0; i<this.buffer.size(); i++){
+            if(!peers.contains(this.buffer.get(i))){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates alternate topologies of the same peers, in which the root and
+     * the top interior roles rotate. The eligible peers are the best ranked
+     * peers with a node degree at least as high as the one of the root of the
+     * first topology. In the topology r, the eligible peers exchange their
+     * positions cyclically by r, so that each of them becomes the root once.
+     * The first topology is the one of <code>generateTopology</code>. The
+     * peers added with <code>addPeer</code> are not organized again.
+     *
+     * @param peers The set of peers participating the tree topology.
+     * @param rotations The number of alternate topologies.
+     * @return the topologies, a map with the tree view for each peer per
+     * topology
+     * @throws IllegalStateException if the node degrees and the overshoot do
+     * not allow placing all the peers in the tree
+     */
+    public List<Map<FingerDescriptor,TreeViewFacilitator>> generateRotations(Set<FingerDescriptor> peers, int rotations){
+        if(!this.isBuffered(peers)){
+            this.reload(peers);
+        }
+        List<FingerDescriptor> buffer=new ArrayList<FingerDescriptor>(this.buffer);
+        if(!this.planned){
+            this.organizePeers(buffer);
+        }
+        this.planned=false;
+        this.overshoot=this.computeOvershoot(buffer);
+        this.checkCapacity(peers.size());
+        List<Integer> eligible=new ArrayList<Integer>();
+        int rootDegree=this.getNumOfChildren(buffer.get(0));
+        for(int i=0; i<buffer.size() && eligible.size()<rotations; i++){
+            if(this.getNumOfChildren(buffer.get(i))>=rootDegree){
+                eligible.add(i);
+            }
+        }
+        List<Map<FingerDescriptor,TreeViewFacilitator>> topologies=new ArrayList<Map<FingerDescriptor,TreeViewFacilitator>>();
+        for(int r=0; r<rotations; r++){
+            List<FingerDescriptor> rotated=new ArrayList<FingerDescriptor>(buffer);
+            for(int i=0; i<eligible.size(); i++){
+                rotated.set(eligible.get(i), buffer.get(eligible.get((i+r)%eligible.size())));
+            }
+            this.topology=new HashMap<FingerDescriptor,TreeViewFacilitator>();
+            this.buildTopology(rotated);
+            topologies.add(this.topology);
+        }
+        this.topology=topologies.get(0);
+        return topologies;
+    }
+
+    /**
+     * The level-by-level algorithm that creates the tree topology from an
+     * organized list of peers.
+     *
+     * @param buffer the organized list of peers
+     * @throws IllegalStateException if the parents of a level cannot have
+     * children while peers are left, e.g. a root with node degree 1
+     */
+    private void buildTopology(List<FingerDescriptor> buffer){
         //1. Definition and initializtion of variables
-        List<FingerDescriptor> buffer=new ArrayList<FingerDescriptor>();
-        buffer.addAll(peers);
         boolean run=true;
         int pLeft=0;
         int pRight=0;
         int cLeft=1;
         int cRight=1;
-        //2. Organize the peers appropriatelly
-        this.organizePeers(buffer);
+        this.height=0;
+        //2. The peers are already organized appropriatelly
         //3. Intializing the topology with the root
         this.initTreeTopology(buffer.get(0));
         //4. Algorithm
-        while(run){
+        while(run && pRight<buffer.size()-1){
             int maxLevelSize=0;
             //4.1 Calculate the size of children level:
             for(int p=pLeft; p<=pRight; p++){
-                maxLevelSize+=this.getNumOfChildren(buffer.get(p));
+                maxLevelSize+=this.getNumOfChildren(buffer.get(p))+this.overshoot;
+            }
+            if(maxLevelSize<=0){
+                throw new IllegalStateException("The node degrees do not allow placing all peers in the tree: no children at height "+this.height+" for "+(buffer.size()-pRight-1)+" peers.");
             }
             //4.2 Define the size of the children level
             cLeft=pRight+1;
             cRight=cLeft+maxLevelSize-1;
+            if(cLeft<buffer.size()){
+                this.height++;
+            }
             //4.3 Create the topology (views)
             int cCounter=cLeft;
             for(int i=pLeft; i<=pRight; i++){
                 FingerDescriptor parent=buffer.get(i);
-                int numOfChildren=this.getNumOfChildren(parent);
+                int numOfChildren=this.getNumOfChildren(parent)+this.overshoot;
                 for(int j=cCounter; j<=cCounter+numOfChildren-1; j++){
                     if(j>=buffer.size()){
                         run=false;
                         break;
                     }
                     FingerDescriptor child=buffer.get(j);
-                    TreeViewFacilitator parentView=this.topology.remove(parent);
-                    parentView.addChild(child);
-                    this.topology.put(parent, parentView);
-                    TreeViewFacilitator childView=new TreeViewFacilitator();
-                    childView.setParent(parent);
-                    this.topology.put(child, childView);
+                    this.topology.get(parent).addChild(child);
+                    this.getView(child).setParent(parent);
                 }
                 if(run==false){
                     break;
@@ -157,12 +421,116 @@ public class TreeTopologyGenerator {
                 pLeft = cRight; // only the last parent can have children
             }
         }
-        return this.topology.entrySet();
+        if(this.maxHeight>0 && this.height>this.maxHeight){
+            logger.warn("The height bound "+this.maxHeight+" is not met with the maximum overshoot "+this.maxOvershoot+". Height: "+this.height);
+        }
+    }
+
+    /**
+     * Finds the minimum overshoot of children per parent that keeps the height
+     * of the tree within the bound, with a binary search over the heights of
+     * dry runs of the level-by-level algorithm.
+     *
+     * @param buffer the organized list of peers
+     * @return the overshoot, at most the maximum overshoot
+     */
+    private int computeOvershoot(List<FingerDescriptor> buffer){
+        if(this.maxHeight<=0 || this.computeHeight(buffer, 0)<=this.maxHeight){
+            return 0;
+        }
+        int low=1;
+        int high=this.maxOvershoot;
+        while(low<high){
+            int middle=(low+high)/2;
+            if(this.computeHeight(buffer, middle)<=this.maxHeight){
+                high=middle;
+            }
+            else{
+                low=middle+1;
+            }
+        }
+        return Math.max(0, high);
+    }
+
+    /**
+     * Computes the height of the tree the level-by-level algorithm builds for
+     * an overshoot, without building it.
+     *
+     * @param buffer the organized list of peers
+     * @param overshoot the additional children per parent
+     * @return the height of the tree, <code>Integer.MAX_VALUE</code> if the
+     * peers cannot all be placed
+     */
+    private int computeHeight(List<FingerDescriptor> buffer, int overshoot){
+        int pLeft=0;
+        int pRight=0;
+        int levels=0;
+        while(pRight<buffer.size()-1){
+            int levelSize=0;
+            for(int p=pLeft; p<=pRight; p++){
+                levelSize+=this.getNumOfChildren(buffer.get(p))+overshoot;
+            }
+            if(levelSize<=0){
+                return Integer.MAX_VALUE;
+            }
+            levels++;
+            int cLeft=pRight+1;
+            int cRight=cLeft+levelSize-1;
+            pLeft=(balanceType==BalanceType.LIST) ? cRight : cLeft;
+            pRight=cRight;
+        }
+        return levels;
+    }
+
+    /**
+     * Returns the height of the last generated tree.
+     *
+     * @return the maximum number of hops from the root to a leaf
+     */
+    public int getHeight(){
+        return this.height;
+    }
+
+    /**
+     * Returns the overshoot of children per parent used for the last generated
+     * tree.
+     *
+     * @return the additional children allowed per parent
+     */
+    public int getOvershoot(){
+        return this.overshoot;
+    }
+
+    /**
+     * Checks if the last generated tree meets the height bound.
+     *
+     * @return true if the height is unbounded or within the bound
+     */
+    public boolean isHeightBoundMet(){
+        return this.maxHeight<=0 || this.height<=this.maxHeight;
+    }
+
+    /**
+     * Computes, for the peers of the last generated tree having more children
+     * than their node degree allows, the number of the additional children.
+     *
+     * @return the degree overshoot per peer, only for peers with an overshoot
+     */
+    public Map<FingerDescriptor,Integer> getOvershoots(){
+        Map<FingerDescriptor,Integer> overshoots=new HashMap<FingerDescriptor,Integer>();
+        for(Entry<FingerDescriptor,TreeViewFacilitator> entry:this.topology.entrySet()){
+            int peerOvershoot=entry.getValue().getChildren().size()-this.getNumOfChildren(entry.getKey());
+            if(peerOvershoot>0){
+                overshoots.put(entry.getKey(), peerOvershoot);
+            }
+        }
+        return overshoots;
     }
 
     /**
      * Organizes a list of peers appropriatelly before the tree building
-     * algorithm applies. In the case of a random tree, the list is shuffled. In
+     * algorithm applies. In the case of a random tree, the list is shuffled
+     * with the randomness source of ProtoPeer, so that it follows the seed. In
      * the case of a sorted tree, the peers are sorted according to paramiterized
      * <code>RankFingerComparator<code>.
      *
@@ -170,11 +538,11 @@ public class TreeTopologyGenerator {
      */
     private void organizePeers(List<FingerDescriptor> buffer){
         if(treeType==treeType.RANDOM){
-            Collections.shuffle(buffer);
+            Collections.shuffle(buffer, RandomnessSource.getRandom(RandomnessSourceType.GENERAL));
         }
         else{
             if(treeType==treeType.SORTED_HtL || treeType==treeType.SORTED_LtH){
-                Collections.sort(buffer, new RankedFingerComparator(priority, descrType));
+                Collections.sort(buffer, this.comparator);
             }
             else{
                 logger.debug("Incorrect bootstrapping arguments: rank priority has not been found.");
@@ -188,8 +556,24 @@ public class TreeTopologyGenerator {
      * @param root the finger descriptor of the root node
      */
     private void initTreeTopology(FingerDescriptor root){
-        TreeViewFacilitator rootView=new TreeViewFacilitator();
-        this.topology.put(root, rootView);
+        this.getView(root);
+    }
+
+    /**
+     * Returns the tree view of a peer in the topology being built. A view
+     * reset for reuse is returned if there is one, otherwise a new view is
+     * added.
+     *
+     * @param peer the finger descriptor of the peer
+     * @return the tree view of the peer
+     */
+    private TreeViewFacilitator getView(FingerDescriptor peer){
+        TreeViewFacilitator view=this.topology.get(peer);
+        if(view==null){
+            view=new TreeViewFacilitator();
+            this.topology.put(peer, view);
+        }
+        return view;
     }
 
     /**
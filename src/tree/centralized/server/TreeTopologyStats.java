@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package tree.centralized.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The shape of a tree topology computed by the <code>TreeTopologyAnalyzer</code>:
+ * the height, the size and the fan-out of each level, the leaves, the rank
+ * inversions and the critical path of an aggregation.
+ *
+ * The critical path of an aggregation is the longest root to leaf path. Its
+ * length in messages is twice the height: the aggregates travel up and the
+ * global value travels down. Its load is the number of child messages that
+ * the parents on the path handle one after another before forwarding, the
+ * sum of the numbers of children over the path.
+ *
+ * @author Evangelos
+ */
+public class TreeTopologyStats {
+
+    private int peers;
+    private int leaves;
+    private int rankInversions;
+    private int criticalPathLoad;
+    private List<Integer> levelSizes=new ArrayList<Integer>();
+    private List<Integer> levelChildren=new ArrayList<Integer>();
+    private List<Integer> levelMaxFanOuts=new ArrayList<Integer>();
+
+    /**
+     * Adds a peer at a depth of the tree.
+     *
+     * @param depth the depth of the peer, 0 for the root
+     * @param numOfChildren the number of children of the peer
+     * @param inversion true if the peer outranks its parent
+     * @param pathLoad the load of the path from the root to the peer
+     */
+    void addPeer(int depth, int numOfChildren, boolean inversion, int pathLoad){
+        if(depth==this.levelSizes.size()){
+            this.levelSizes.add(0);
+            this.levelChildren.add(0);
+            this.levelMaxFanOuts.add(0);
+        }
+        this.peers++;
+        this.levelSizes.set(depth, this.levelSizes.get(depth)+1);
+        this.levelChildren.set(depth, this.levelChildren.get(depth)+numOfChildren);
+        this.levelMaxFanOuts.set(depth, Math.max(this.levelMaxFanOuts.get(depth), numOfChildren));
+        if(numOfChildren==0){
+            this.leaves++;
+            this.criticalPathLoad=Math.max(this.criticalPathLoad, pathLoad);
+        }
+        if(inversion){
+            this.rankInversions++;
+        }
+    }
+
+    /**
+     * @return the number of peers in the tree
+     */
+    public int getPeers(){
+        return this.peers;
+    }
+
+    /**
+     * @return the maximum number of hops from the root to a leaf
+     */
+    public int getHeight(){
+        return this.levelSizes.size()-1;
+    }
+
+    /**
+     * @return the number of peers without children
+     */
+    public int getLeaves(){
+        return this.leaves;
+    }
+
+    /**
+     * @return the fraction of peers without children
+     */
+    public double getLeafRatio(){
+        return this.peers==0 ? 0 : (double)this.leaves/this.peers;
+    }
+
+    /**
+     * @return the number of peers that outrank their parent
+     */
+    public int getRankInversions(){
+        return this.rankInversions;
+    }
+
+    /**
+     * @param depth the depth of the level, 0 for the root
+     * @return the number of peers in the level
+     */
+    public int getLevelSize(int depth){
+        return this.levelSizes.get(depth);
+    }
+
+    /**
+     * @param depth the depth of the level, 0 for the root
+     * @return the mean number of children of the peers in the level
+     */
+    public double getLevelFanOut(int depth){
+        return (double)this.levelChildren.get(depth)/this.levelSizes.get(depth);
+    }
+
+    /**
+     * @param depth the depth of the level, 0 for the root
+     * @return the maximum number of children of a peer in the level
+     */
+    public int getLevelMaxFanOut(int depth){
+        return this.levelMaxFanOuts.get(depth);
+    }
+
+    /**
+     * @return the number of messages on the critical path of an aggregation
+     */
+    public int getCriticalPathLength(){
+        return 2*this.getHeight();
+    }
+
+    /**
+     * @return the number of child messages handled along the critical path
+     */
+    public int getCriticalPathLoad(){
+        return this.criticalPathLoad;
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder levels=new StringBuilder();
+        for(int d=0; d<this.levelSizes.size(); d++){
+            levels.append(d==0 ? "" : " ").append(this.levelSizes.get(d)).append('/').append(this.levelMaxFanOuts.get(d));
+        }
+        return "peers="+this.peers+" height="+this.getHeight()+" leafRatio="+this.getLeafRatio()+
+                " rankInversions="+this.rankInversions+" criticalPath="+this.getCriticalPathLength()+
+                " criticalPathLoad="+this.criticalPathLoad+" levels(size/maxFanOut)=["+levels+"]";
+    }
+}
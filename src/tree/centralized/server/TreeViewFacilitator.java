@@ -41,6 +41,15 @@ public class TreeViewFacilitator {
         return getChildren();
     }
 
+    /**
+     * Clears the parent and the children, keeping the capacity of the
+     * children list, for reusing the view in a new topology.
+     */
+    public void reset(){
+        this.parent=null;
+        this.children.clear();
+    }
+
     /**
      * @param parent the parent to set
      */
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package tree.decentralized;
+
+/**
+ * The descriptors a <code>GossipTreeClient</code> adds in the finger
+ * descriptor it gossips: its depth in the tree, -1 if it is not attached to a
+ * root, the number of children it can still accept, the rank of its worst
+ * child, the time of the last change in the tree known to the sender and the
+ * time of the sender when the descriptor was created.
+ *
+ * @author Evangelos
+ */
+public enum GossipDescriptorType {
+    DEPTH, FREE_SLOTS, WORST_CHILD, LAST_CHANGE, TIMESTAMP
+}
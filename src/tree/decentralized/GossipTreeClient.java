@@ -0,0 +1,684 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package tree.decentralized;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.log4j.Logger;
+import protopeer.BasePeerlet;
+import dsutil.protopeer.FingerDescriptor;
+import protopeer.Peer;
+import dsutil.generic.RankPriority;
+import dsutil.generic.RankedFingerComparator;
+import protopeer.network.Message;
+import protopeer.network.NetworkAddress;
+import protopeer.servers.bootstrap.PeerIdentifierGenerator;
+import protopeer.time.Timer;
+import protopeer.time.TimerListener;
+import protopeer.util.RandomnessSource;
+import protopeer.util.RandomnessSourceType;
+import protopeer.util.quantities.Time;
+import dsutil.protopeer.services.topology.trees.DescriptorType;
+import dsutil.protopeer.services.topology.trees.TreeMiddlewareInterface;
+import dsutil.protopeer.services.topology.trees.TreeProviderInterface;
+
+/**
+ * A decentralized alternative of the <code>TreeClient</code>. The peers build a
+ * rank-sorted tree with bounded node degree without a tree server:
+ *
+ * (i) The peers exchange their finger descriptors with push-pull gossip. The
+ * view of each peer keeps the best ranked peers it knows and a random sample
+ * of the rest.
+ *
+ * (ii) Each peer selects locally as parent the better ranked peer with the
+ * lowest depth in its view. A peer with free slots accepts a better ranked
+ * child. A peer without free slots accepts it only if it is ranked better than
+ * its worst child, which is evicted. In this way, better ranked peers end up
+ * closer to the root, as in the sorted trees of the <code>TreeServer</code>.
+ *
+ * (iii) A peer that does not know any better ranked peer is a root. The best
+ * ranked peer known is gossiped along with the view, so that a single root
+ * remains. The time of the last change in the tree is gossiped too. When no
+ * peer has changed for a number of rounds, the root freezes its view and
+ * locks its children, which freeze and lock their children and so on. A
+ * peer delivers its tree view, through the same
+ * <code>TreeProviderInterface</code> as the <code>TreeClient</code>, when all
+ * its children have acknowledged the lock.
+ *
+ * @author Evangelos
+ */
+public class GossipTreeClient extends BasePeerlet implements TreeMiddlewareInterface{
+
+    private static final Logger logger = Logger.getLogger(GossipTreeClient.class);
+    private enum ClientState {
+        INIT,
+        GOSSIPING,
+        LOCKING,
+        COMPLETED
+    }
+    private ClientState state;
+    private FingerDescriptor localDescriptor;
+    private PeerIdentifierGenerator idGenerator;
+    private List<NetworkAddress> seeds;
+    private RankPriority priority;
+    private RankedFingerComparator comparator;
+    private double rank;
+    private int dMax;
+    private int gossipPeriod;
+    private int viewSize;
+    private int stableRounds;
+    private int rejectionRounds;
+
+    private Map<NetworkAddress,FingerDescriptor> view;
+    private Map<NetworkAddress,Integer> rejections;
+    private FingerDescriptor best;
+    private FingerDescriptor parent;
+    private FingerDescriptor pendingParent;
+    private List<FingerDescriptor> children;
+    private Set<NetworkAddress> pendingLocks;
+    private int depth;
+    private int round;
+    private long lastChange;
+    private boolean changed;
+
+    /**
+     * Initializes the gossip tree client.
+     *
+     * @param seeds the network addresses of a few peers for starting the gossip
+     * @param idGenerator a peer identifier generator
+     * @param priority higher or lower ranks prefered closer to the root
+     * @param rank the rank of the local peer
+     * @param dMax the node degree of the local peer
+     * @param gossipPeriod the period of the gossip rounds in milliseconds
+     * @param viewSize the maximum number of descriptors in the view
+     * @param stableRounds the number of rounds without changes in the tree
+     * before the root freezes it
+     */
+    public GossipTreeClient(List<NetworkAddress> seeds, PeerIdentifierGenerator idGenerator, RankPriority priority, double rank, int dMax, int gossipPeriod, int viewSize, int stableRounds){
+        this.seeds=seeds;
+        this.idGenerator=idGenerator;
+        this.priority=priority;
+        this.comparator=new RankedFingerComparator(priority, DescriptorType.RANK);
+        this.rank=rank;
+        this.dMax=dMax;
+        this.gossipPeriod=gossipPeriod;
+        this.viewSize=viewSize;
+        this.stableRounds=stableRounds;
+        this.rejectionRounds=stableRounds/2+1;
+        this.view=new LinkedHashMap<NetworkAddress,FingerDescriptor>();
+        this.rejections=new HashMap<NetworkAddress,Integer>();
+        this.children=new ArrayList<FingerDescriptor>();
+        this.pendingLocks=new HashSet<NetworkAddress>();
+        this.depth=-1;
+        this.state=ClientState.INIT;
+    }
+
+    /**
+     * Initializes the peer with creating the peer identifier.
+     *
+     * @param peer the local peer
+    */
+    @Override
+    public void init(Peer peer) {
+        super.init(peer);
+        getPeer().setIdentifier(idGenerator.generatePeerIdentifier(getPeer().getNetworkAddress()));
+    }
+
+    /**
+     * Starts the peer by running the active state.
+     */
+    @Override
+    public void start() {
+        super.start();
+        this.localDescriptor=new FingerDescriptor(getPeer().getFinger());
+        localDescriptor.addDescriptor(DescriptorType.RANK, rank);
+        localDescriptor.addDescriptor(DescriptorType.NODE_DEGREE, dMax);
+        this.best=this.localDescriptor;
+        this.lastChange=(long)getPeer().getClock().getCurrentTime();
+        this.state=ClientState.GOSSIPING;
+        Timer roundTimer=getPeer().getClock().createNewTimer();
+        roundTimer.addTimerListener(new TimerListener() {
+            public void timerExpired(Timer timer) {
+                if(state==ClientState.GOSSIPING){
+                    runActiveState();
+                    timer.schedule(Time.inMilliseconds(gossipPeriod));
+                }
+            }
+        });
+        roundTimer.schedule(Time.inMilliseconds(RandomnessSource.getNextGeneralDouble()*gossipPeriod));
+    }
+
+    /**
+     * A gossip round: gossips with a random peer, selects a parent and checks
+     * if the tree can be frozen. A local change in the round is stamped with
+     * the current time and gossiped, so that the root freezes the tree only
+     * when no peer has changed for a number of rounds, not only its own
+     * neighbors.
+     */
+    private void runActiveState(){
+        this.round++;
+        this.gossip();
+        if(this.pendingParent==null){
+            this.selectParent();
+        }
+        long now=(long)getPeer().getClock().getCurrentTime();
+        if(this.changed){
+            this.lastChange=now;
+            this.changed=false;
+        }
+        if(this.parent==null && this.pendingParent==null && this.compare(this.best, this.localDescriptor)>=0){
+            this.depth=0;
+            if(now-this.lastChange>=(long)this.stableRounds*this.gossipPeriod){
+                this.lock();
+            }
+        }
+    }
+
+    /**
+     * Sends the local descriptor and a sample of the view to a random peer of
+     * the view. In the first round, it is sent to all the seeds, so that the
+     * initial views are connected.
+     */
+    private void gossip(){
+        List<NetworkAddress> targets=new ArrayList<NetworkAddress>();
+        if(this.round==1 || this.view.isEmpty()){
+            targets.addAll(this.seeds);
+        }
+        else{
+            List<NetworkAddress> addresses=new ArrayList<NetworkAddress>(this.view.keySet());
+            targets.add(addresses.get((int)(RandomnessSource.getNextGeneralDouble()*addresses.size())));
+        }
+        for(NetworkAddress target:targets){
+            GossipMessage message=new GossipMessage();
+            message.descriptors=this.createSample();
+            message.reply=false;
+            getPeer().sendMessage(target, message);
+        }
+    }
+
+    /**
+     * Creates a snapshot of the local descriptor with the current depth, free
+     * slots, worst child, time of the last change known and time, followed by
+     * the view and the best ranked peer known, if it is not in the view.
+     *
+     * @return the descriptors gossiped
+     */
+    private List<FingerDescriptor> createSample(){
+        FingerDescriptor self=new FingerDescriptor(getPeer().getFinger());
+        self.addDescriptor(DescriptorType.RANK, rank);
+        self.addDescriptor(DescriptorType.NODE_DEGREE, dMax);
+        self.addDescriptor(GossipDescriptorType.DEPTH, this.depth);
+        self.addDescriptor(GossipDescriptorType.FREE_SLOTS, this.state==ClientState.LOCKING ? 0 : this.dMax-1-this.children.size());
+        if(this.state==ClientState.GOSSIPING && !this.children.isEmpty()){
+            self.addDescriptor(GossipDescriptorType.WORST_CHILD, Collections.max(this.children, this.comparator).getDescriptor(DescriptorType.RANK));
+        }
+        self.addDescriptor(GossipDescriptorType.LAST_CHANGE, this.lastChange);
+        self.addDescriptor(GossipDescriptorType.TIMESTAMP, (long)getPeer().getClock().getCurrentTime());
+        List<FingerDescriptor> sample=new ArrayList<FingerDescriptor>(this.view.size()+1);
+        sample.add(self);
+        sample.addAll(this.view.values());
+        if(this.best!=this.localDescriptor && !this.view.containsKey(this.best.getNetworkAddress())){
+            sample.add(this.best);
+        }
+        return sample;
+    }
+
+    /**
+     * Merges received descriptors in the view. Descriptors with a later
+     * timestamp replace the known ones. Half of the view keeps the better
+     * ranked peers that are closest in rank to the local peer, which are the
+     * most likely parents with free slots. The other half is a random sample
+     * of the rest.
+     *
+     * A sender that is not yet attached to a root counts as a change, so that
+     * the root does not freeze the tree while peers are still joining.
+     *
+     * The best ranked peer known is kept apart from the view, as the view
+     * keeps only the better ranked peers closest in rank. Every sample carries
+     * it, so that it spreads to all peers and no other peer considers itself
+     * a root. A better one counts as a change. The latest time of a change
+     * known to the senders is kept as well.
+     *
+     * @param descriptors the received descriptors, the first one is the sender
+     */
+    private void merge(List<FingerDescriptor> descriptors){
+        for(int i=0; i<descriptors.size(); i++){
+            FingerDescriptor descriptor=descriptors.get(i);
+            NetworkAddress address=descriptor.getNetworkAddress();
+            if(address.equals(getPeer().getNetworkAddress())){
+                continue;
+            }
+            FingerDescriptor known=this.view.get(address);
+            if(known==null || getTimestamp(descriptor)>getTimestamp(known)){
+                this.view.put(address, descriptor);
+            }
+            if(this.compare(descriptor, this.best)<0){
+                this.best=descriptor;
+                this.changed=true;
+            }
+            this.lastChange=Math.max(this.lastChange, getLastChange(descriptor));
+        }
+        if(getDepth(descriptors.get(0))<0){
+            this.changed=true;
+        }
+        if(this.view.size()<=this.viewSize){
+            return;
+        }
+        List<FingerDescriptor> better=this.getBetterPeers(false);
+        Collections.sort(better, Collections.reverseOrder(this.comparator));
+        if(better.size()>this.viewSize/2){
+            better=better.subList(0, this.viewSize/2);
+        }
+        List<FingerDescriptor> rest=new ArrayList<FingerDescriptor>(this.view.values());
+        rest.removeAll(better);
+        Collections.shuffle(rest, RandomnessSource.getRandom(RandomnessSourceType.GENERAL));
+        this.view.clear();
+        for(FingerDescriptor descriptor:better){
+            this.view.put(descriptor.getNetworkAddress(), descriptor);
+        }
+        for(FingerDescriptor descriptor:rest.subList(0, this.viewSize-this.view.size())){
+            this.view.put(descriptor.getNetworkAddress(), descriptor);
+        }
+    }
+
+    /**
+     * Finds the peers of the view that are ranked better than the local peer.
+     *
+     * @param attachedOnly only peers attached to a root and not rejecting the
+     * local peer recently
+     * @return the better ranked peers
+     */
+    private List<FingerDescriptor> getBetterPeers(boolean attachedOnly){
+        List<FingerDescriptor> better=new ArrayList<FingerDescriptor>();
+        for(FingerDescriptor descriptor:this.view.values()){
+            if(this.compare(descriptor, this.localDescriptor)>=0){
+                continue;
+            }
+            if(attachedOnly){
+                Integer rejected=this.rejections.get(descriptor.getNetworkAddress());
+                if(getDepth(descriptor)<0 || (rejected!=null && rejected>this.round)){
+                    continue;
+                }
+            }
+            better.add(descriptor);
+        }
+        return better;
+    }
+
+    /**
+     * Selects as parent the better ranked peer that would accept the local
+     * peer, with a free slot or a worse ranked child to evict, and the lowest
+     * depth, and then with the best rank. If no such peer is known, the peer
+     * with the lowest depth is requested. The request is sent if the local
+     * peer has no parent or the candidate is closer to the root than the
+     * parent. In this way, a peer moves up to a level that has room for its
+     * rank, and the levels fill up as in the balanced trees of the
+     * <code>TreeServer</code>.
+     */
+    private void selectParent(){
+        FingerDescriptor candidate=null;
+        for(FingerDescriptor descriptor:this.getBetterPeers(true)){
+            boolean accepting=this.isAccepting(descriptor);
+            if(candidate==null || (accepting && !this.isAccepting(candidate)) ||
+                    (accepting==this.isAccepting(candidate) && getDepth(descriptor)<getDepth(candidate)) ||
+                    (accepting==this.isAccepting(candidate) && getDepth(descriptor)==getDepth(candidate) && this.compare(descriptor, candidate)<0)){
+                candidate=descriptor;
+            }
+        }
+        if(candidate==null || candidate.equals(this.parent)){
+            return;
+        }
+        if(this.parent==null || this.depth<0 || getDepth(candidate)+1<this.depth){
+            ParentRequest request=new ParentRequest();
+            request.child=this.localDescriptor;
+            getPeer().sendMessage(candidate.getNetworkAddress(), request);
+            this.pendingParent=candidate;
+        }
+    }
+
+    /**
+     * Checks whether a peer would accept the local peer as a child: it has a
+     * free slot, or its worst child is ranked worse than the local peer.
+     *
+     * @param descriptor the descriptor of the peer
+     * @return true if the peer would accept the local peer
+     */
+    private boolean isAccepting(FingerDescriptor descriptor){
+        if(getFreeSlots(descriptor)>0){
+            return true;
+        }
+        Object worst=descriptor.getDescriptor(GossipDescriptorType.WORST_CHILD);
+        if(worst==null){
+            return false;
+        }
+        return this.priority==RankPriority.HIGH_RANK ? this.rank>(Double)worst : this.rank<(Double)worst;
+    }
+
+    /**
+     * Accepts a better ranked peer as a child if there is a free slot or if it
+     * is better ranked than the worst child, which is then evicted.
+     *
+     * After the tree view is delivered, a late peer is accepted only in a free
+     * slot and it is locked right away.
+     *
+     * @param request the request of the peer
+     */
+    private void runPassiveState(ParentRequest request){
+        ParentReply reply=new ParentReply();
+        reply.depth=this.depth;
+        reply.accepted=false;
+        if(this.state!=ClientState.LOCKING && this.compare(request.child, this.localDescriptor)>0 && !this.children.contains(request.child)){
+            if(this.children.size()<this.dMax-1){
+                reply.accepted=true;
+            }
+            else if(this.state==ClientState.GOSSIPING && !this.children.isEmpty()){
+                FingerDescriptor worst=Collections.max(this.children, this.comparator);
+                if(this.compare(request.child, worst)<0){
+                    this.children.remove(worst);
+                    getPeer().sendMessage(worst.getNetworkAddress(), new ChildEviction());
+                    reply.accepted=true;
+                }
+            }
+            if(reply.accepted){
+                this.children.add(request.child);
+                this.changed=true;
+            }
+        }
+        getPeer().sendMessage(request.child.getNetworkAddress(), reply);
+        if(reply.accepted && this.state==ClientState.COMPLETED){
+            this.pendingLocks.add(request.child.getNetworkAddress());
+            getPeer().sendMessage(request.child.getNetworkAddress(), new TreeLock());
+        }
+    }
+
+    /**
+     * Attaches to the new parent if accepted, leaving the previous one.
+     *
+     * @param reply the reply of the requested parent
+     */
+    private void runPassiveState(ParentReply reply){
+        NetworkAddress source=reply.getSourceAddress();
+        if(this.pendingParent==null || !this.pendingParent.getNetworkAddress().equals(source)){
+            if(reply.accepted && (this.parent==null || !this.parent.getNetworkAddress().equals(source))){
+                getPeer().sendMessage(source, new ChildLeave());
+            }
+            return;
+        }
+        FingerDescriptor candidate=this.pendingParent;
+        this.pendingParent=null;
+        if(!reply.accepted){
+            this.rejections.put(source, this.round+this.rejectionRounds);
+            return;
+        }
+        if(this.state!=ClientState.GOSSIPING){
+            getPeer().sendMessage(source, new ChildLeave());
+            return;
+        }
+        if(this.parent!=null){
+            getPeer().sendMessage(this.parent.getNetworkAddress(), new ChildLeave());
+        }
+        this.parent=candidate;
+        this.changed=true;
+        this.updateDepth(reply.depth);
+    }
+
+    /**
+     * Sets the depth from the depth of the parent and informs the children if
+     * it changes.
+     *
+     * @param parentDepth the depth of the parent, -1 if it is not attached
+     */
+    private void updateDepth(int parentDepth){
+        int newDepth=parentDepth<0 ? -1 : parentDepth+1;
+        if(newDepth==this.depth){
+            return;
+        }
+        this.depth=newDepth;
+        DepthUpdate update=new DepthUpdate();
+        update.depth=this.depth;
+        for(FingerDescriptor child:this.children){
+            getPeer().sendMessage(child.getNetworkAddress(), update);
+        }
+    }
+
+    /**
+     * Freezes the tree view and locks the children. The view is delivered
+     * when all the children have replied.
+     */
+    private void lock(){
+        this.state=ClientState.LOCKING;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Locking the tree view at depth "+this.depth+" after "+this.round+" rounds.");
+        }
+        for(FingerDescriptor child:this.children){
+            this.pendingLocks.add(child.getNetworkAddress());
+            getPeer().sendMessage(child.getNetworkAddress(), new TreeLock());
+        }
+        this.completeLock();
+    }
+
+    /**
+     * Accepts the lock of the parent, or of a pending parent that accepted the
+     * local peer, and locks the children.
+     *
+     * @param lock the lock message
+     */
+    private void runPassiveState(TreeLock lock){
+        NetworkAddress source=lock.getSourceAddress();
+        TreeLockAck ack=new TreeLockAck();
+        boolean fromParent=this.parent!=null && this.parent.getNetworkAddress().equals(source);
+        boolean fromPending=this.pendingParent!=null && this.pendingParent.getNetworkAddress().equals(source);
+        ack.accepted=this.state==ClientState.GOSSIPING && (fromParent || fromPending);
+        if(ack.accepted && fromPending){
+            if(this.parent!=null){
+                getPeer().sendMessage(this.parent.getNetworkAddress(), new ChildLeave());
+            }
+            this.parent=this.pendingParent;
+            this.pendingParent=null;
+        }
+        getPeer().sendMessage(source, ack);
+        if(ack.accepted){
+            this.lock();
+        }
+    }
+
+    /**
+     * Removes the children that did not accept the lock and delivers the tree
+     * view when all children have replied. A late child that accepts the lock
+     * is added in the delivered tree view.
+     *
+     * @param ack the reply of a child
+     */
+    private void runPassiveState(TreeLockAck ack){
+        NetworkAddress source=ack.getSourceAddress();
+        if(!this.pendingLocks.remove(source)){
+            return;
+        }
+        if(!ack.accepted){
+            this.removeChild(source);
+        }
+        else if(this.state==ClientState.COMPLETED){
+            this.deliverTreeView(this.parent, new ArrayList<FingerDescriptor>(this.children));
+        }
+        this.completeLock();
+    }
+
+    /**
+     * Delivers the tree view if the lock is acknowledged by all children.
+     */
+    private void completeLock(){
+        if(this.state==ClientState.LOCKING && this.pendingLocks.isEmpty()){
+            this.state=ClientState.COMPLETED;
+            this.deliverTreeView(this.parent, new ArrayList<FingerDescriptor>(this.children));
+        }
+    }
+
+    /**
+     * Removes a child from the children.
+     *
+     * @param address the network address of the child
+     */
+    private void removeChild(NetworkAddress address){
+        for(int i=0; i<this.children.size(); i++){
+            if(this.children.get(i).getNetworkAddress().equals(address)){
+                this.children.remove(i);
+                this.changed=true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Compares two peers by rank and, for equal ranks, by network address.
+     *
+     * @return a negative number if the first peer is better ranked
+     */
+    private int compare(FingerDescriptor d1, FingerDescriptor d2){
+        int result=this.comparator.compare(d1, d2);
+        if(result==0){
+            long a1=d1.getNetworkAddress().toLongValue();
+            long a2=d2.getNetworkAddress().toLongValue();
+            result=a1<a2 ? -1 : (a1==a2 ? 0 : 1);
+        }
+        return result;
+    }
+
+    private static int getDepth(FingerDescriptor descriptor){
+        Object depth=descriptor.getDescriptor(GossipDescriptorType.DEPTH);
+        return depth==null ? -1 : (Integer)depth;
+    }
+
+    private static long getTimestamp(FingerDescriptor descriptor){
+        Object timestamp=descriptor.getDescriptor(GossipDescriptorType.TIMESTAMP);
+        return timestamp==null ? Long.MIN_VALUE : (Long)timestamp;
+    }
+
+    private static long getLastChange(FingerDescriptor descriptor){
+        Object lastChange=descriptor.getDescriptor(GossipDescriptorType.LAST_CHANGE);
+        return lastChange==null ? Long.MIN_VALUE : (Long)lastChange;
+    }
+
+    private static int getFreeSlots(FingerDescriptor descriptor){
+        Object freeSlots=descriptor.getDescriptor(GossipDescriptorType.FREE_SLOTS);
+        return freeSlots==null ? 0 : (Integer)freeSlots;
+    }
+
+    /**
+     * Accesses the provider service responsible for setting the tree view
+     * to the application.
+     *
+     * @return the tree middleware installed in the peer
+     */
+    private TreeProviderInterface getTreeProvider(){
+        return (TreeProviderInterface) getPeer().getPeerletOfType(TreeProviderInterface.class);
+    }
+
+    /**
+     * Returns the local finger descriptor that the tree middlware uses.
+     *
+     * @return the local finger descriptor of the tree middlware
+     */
+    public FingerDescriptor getMyLocalDescriptor(){
+        return this.localDescriptor;
+    }
+
+    /**
+     * For this tree middlware interface implementation, this method is not used.
+     *
+     * @param parent the delivered parent
+     */
+    public void deliverParent(FingerDescriptor parent){
+
+    }
+
+    /**
+     * For this tree middlware interface implementation, this method is not used.
+     *
+     * @param children the delivered children
+     */
+    public void deliverChildren(List<FingerDescriptor> children){
+
+    }
+
+    /**
+     * Provides the locked tree view to the tree provider.
+     *
+     * @param parent the delivered parent
+     * @param children the delivered children
+     */
+    public void deliverTreeView(FingerDescriptor parent, List<FingerDescriptor> children){
+        this.getTreeProvider().provideTreeView(parent, children);
+    }
+
+    /**
+     * Handles the gossip, the parent selection and the lock messages.
+     *
+     * @param message the received message.
+     */
+    @Override
+    public void handleIncomingMessage(Message message) {
+        if (message instanceof GossipMessage) {
+            GossipMessage gossip=(GossipMessage) message;
+            this.merge(gossip.descriptors);
+            if(!gossip.reply){
+                GossipMessage reply=new GossipMessage();
+                reply.descriptors=this.createSample();
+                reply.reply=true;
+                getPeer().sendMessage(message.getSourceAddress(), reply);
+            }
+        }
+        if (message instanceof ParentRequest) {
+            this.runPassiveState((ParentRequest) message);
+        }
+        if (message instanceof ParentReply) {
+            this.runPassiveState((ParentReply) message);
+        }
+        if (message instanceof ChildEviction) {
+            if(this.state==ClientState.GOSSIPING && this.parent!=null && this.parent.getNetworkAddress().equals(message.getSourceAddress())){
+                this.rejections.put(this.parent.getNetworkAddress(), this.round+this.rejectionRounds);
+                this.parent=null;
+                this.changed=true;
+                this.updateDepth(-1);
+            }
+        }
+        if (message instanceof ChildLeave) {
+            this.removeChild(message.getSourceAddress());
+            if(this.pendingLocks.remove(message.getSourceAddress())){
+                this.completeLock();
+            }
+        }
+        if (message instanceof DepthUpdate) {
+            if(this.parent!=null && this.parent.getNetworkAddress().equals(message.getSourceAddress())){
+                this.updateDepth(((DepthUpdate) message).depth);
+            }
+        }
+        if (message instanceof TreeLock) {
+            this.runPassiveState((TreeLock) message);
+        }
+        if (message instanceof TreeLockAck) {
+            this.runPassiveState((TreeLockAck) message);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package tree.trace;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import tree.MessageCodec;
+import tree.centralized.TreeViewReply;
+
+/**
+ * Replays a trace of a <code>MessageTraceWriter</code> offline. The replayer
+ * rebuilds the tree from the delivered tree views, finds the critical path of
+ * the run and summarizes the messages and bytes per message type. Two traces,
+ * e.g. of two versions of the code, can be compared without simulating again.
+ *
+ * The critical path is the causal chain of messages that ends with the last
+ * received message. Backwards from it, each message is preceded by the last
+ * message its sender received before sending it.
+ *
+ * Usage: <code>MessageTraceReplayer trace [baselineTrace]</code>
+ *
+ * @author Evangelos
+ */
+public class MessageTraceReplayer {
+
+    private List<TraceRecord> records;
+
+    /**
+     * Reads a trace file.
+     *
+     * @param file the trace file
+     * @throws IOException if the file cannot be read or is not a trace
+     */
+    public MessageTraceReplayer(File file) throws IOException{
+        this.records=new ArrayList<TraceRecord>();
+        DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try{
+            if(in.readInt()!=MessageTraceWriter.MAGIC || in.readByte()!=MessageTraceWriter.VERSION){
+                throw new IOException("Not a message trace: "+file);
+            }
+            List<String> types=new ArrayList<String>();
+            List<String> addresses=new ArrayList<String>();
+            while(true){
+                int kind;
+                try{
+                    kind=in.readByte();
+                }
+                catch(EOFException e){
+                    break;
+                }
+                switch(kind){
+                    case MessageTraceWriter.TYPE:
+                        types.add(in.readUTF());
+                        break;
+                    case MessageTraceWriter.ADDRESS:
+                        addresses.add(in.readUTF());
+                        break;
+                    case MessageTraceWriter.SEND:
+                    case MessageTraceWriter.RECEIVE:
+                        TraceRecord record=new TraceRecord();
+                        record.sent=kind==MessageTraceWriter.SEND;
+                        record.time=MessageCodec.readVarLong(in)/1000.0;
+                        record.type=types.get(MessageCodec.readVarInt(in));
+                        record.source=addresses.get(MessageCodec.readVarInt(in));
+                        record.destination=addresses.get(MessageCodec.readVarInt(in));
+                        record.size=MessageCodec.readVarInt(in);
+                        int parent=MessageCodec.readVarInt(in);
+                        record.parent=parent==0 ? null : addresses.get(parent-1);
+                        this.records.add(record);
+                        break;
+                    default:
+                        throw new IOException("Unknown record kind: "+kind);
+                }
+            }
+        }
+        finally{
+            in.close();
+        }
+    }
+
+    /**
+     * @return the message events in the order they were written
+     */
+    public List<TraceRecord> getRecords(){
+        return this.records;
+    }
+
+    /**
+     * Rebuilds the tree from the last tree view each peer received.
+     *
+     * @return the parent of each peer, null for a root
+     */
+    public Map<String,String> getTree(){
+        Map<String,String> parents=new HashMap<String,String>();
+        String replyType=TreeViewReply.class.getName();
+        for(TraceRecord record:this.records){
+            if(!record.sent && record.type.equals(replyType)){
+                parents.put(record.destination, record.parent);
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * Computes the height of the rebuilt tree.
+     *
+     * @return the maximum number of hops from a root to a peer
+     */
+    public int getTreeHeight(){
+        Map<String,String> parents=this.getTree();
+        int height=0;
+        for(String peer:parents.keySet()){
+            int depth=0;
+            String ancestor=parents.get(peer);
+            while(ancestor!=null && depth<=parents.size()){
+                depth++;
+                ancestor=parents.get(ancestor);
+            }
+            height=Math.max(height, depth);
+        }
+        return height;
+    }
+
+    /**
+     * Finds the critical path of the run, backwards from the last received
+     * message.
+     *
+     * @return the received messages of the critical path, in causal order
+     */
+    public List<TraceRecord> getCriticalPath(){
+        LinkedList<TraceRecord> path=new LinkedList<TraceRecord>();
+        int i=this.records.size()-1;
+        while(i>=0 && this.records.get(i).sent){
+            i--;
+        }
+        while(i>=0){
+            TraceRecord receive=this.records.get(i);
+            path.addFirst(receive);
+            int send=i-1;
+            while(send>=0 && !this.isSendOf(this.records.get(send), receive)){
+                send--;
+            }
+            i=send-1;
+            while(i>=0 && (this.records.get(i).sent || !this.records.get(i).destination.equals(receive.source))){
+                i--;
+            }
+        }
+        return path;
+    }
+
+    private boolean isSendOf(TraceRecord send, TraceRecord receive){
+        return send.sent && send.type.equals(receive.type) && send.source.equals(receive.source) &&
+                send.destination.equals(receive.destination);
+    }
+
+    /**
+     * Counts the sent messages and their bytes per message type.
+     *
+     * @return the number of messages and bytes per message type, sorted by type
+     */
+    public Map<String,long[]> getTypeSummary(){
+        Map<String,long[]> summary=new TreeMap<String,long[]>();
+        for(TraceRecord record:this.records){
+            if(record.sent){
+                long[] counters=summary.get(record.type);
+                if(counters==null){
+                    counters=new long[2];
+                    summary.put(record.type, counters);
+                }
+                counters[0]++;
+                counters[1]+=record.size;
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * @return the time of the last event in milliseconds
+     */
+    public double getDuration(){
+        return this.records.isEmpty() ? 0 : this.records.get(this.records.size()-1).time;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length==0){
+            System.out.println("Usage: MessageTraceReplayer trace [baselineTrace]");
+            return;
+        }
+        MessageTraceReplayer trace=new MessageTraceReplayer(new File(args[0]));
+        MessageTraceReplayer baseline=args.length>1 ? new MessageTraceReplayer(new File(args[1])) : trace;
+        System.out.println("Tree: "+trace.getTree().size()+" peers, height "+trace.getTreeHeight());
+        System.out.println("Critical path:");
+        List<TraceRecord> path=trace.getCriticalPath();
+        for(TraceRecord record:path){
+            System.out.println("  "+record);
+        }
+        System.out.println("metric\ttrace\tbaseline\tdelta");
+        compare("duration(ms)", trace.getDuration(), baseline.getDuration());
+        compare("critical path(messages)", path.size(), baseline.getCriticalPath().size());
+        compare("tree height", trace.getTreeHeight(), baseline.getTreeHeight());
+        Map<String,long[]> summary=trace.getTypeSummary();
+        Map<String,long[]> baselineSummary=baseline.getTypeSummary();
+        Map<String,long[]> types=new TreeMap<String,long[]>(baselineSummary);
+        types.putAll(summary);
+        for(String type:types.keySet()){
+            long[] counters=summary.containsKey(type) ? summary.get(type) : new long[2];
+            long[] baselineCounters=baselineSummary.containsKey(type) ? baselineSummary.get(type) : new long[2];
+            String name=type.substring(type.lastIndexOf('.')+1);
+            compare(name+"(messages)", counters[0], baselineCounters[0]);
+            compare(name+"(bytes)", counters[1], baselineCounters[1]);
+        }
+    }
+
+    private static void compare(String metric, double value, double baseline){
+        System.out.println(metric+"\t"+value+"\t"+baseline+"\t"+(value-baseline));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package tree.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import protopeer.network.Message;
+import protopeer.network.NetworkAddress;
+import tree.MessageCodec;
+
+/**
+ * Writes message events in a compact binary trace that is streamed to a file.
+ * The trace starts with a magic number and a version and continues with
+ * records, each starting with its kind:
+ *
+ * (i) a type definition, the class name of a message type, (ii) an address
+ * definition, the textual form of a network address, (iii) a send or (iv) a
+ * receive event: the time in microseconds, the type, the source and the
+ * destination as positions in the definitions, the serialized size of the
+ * message and the parent of a delivered tree view, if any, as its position + 1.
+ *
+ * Types and addresses are defined once, when they first occur, and events
+ * refer to them with variable length integers. A writer can be shared by all
+ * the peers of a simulation.
+ *
+ * @author Evangelos
+ */
+public class MessageTraceWriter {
+
+    static final int MAGIC=0x54524345;
+    static final int VERSION=1;
+    static final int TYPE=1;
+    static final int ADDRESS=2;
+    static final int SEND=3;
+    static final int RECEIVE=4;
+
+    private DataOutputStream out;
+    private Map<Class<?>,Integer> types;
+    private Map<NetworkAddress,Integer> addresses;
+    private ByteArrayOutputStream buffer;
+
+    /**
+     * Creates the trace file and writes its header.
+     *
+     * @param file the trace file
+     * @throws IOException if the file cannot be written
+     */
+    public MessageTraceWriter(File file) throws IOException{
+        this.out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        this.types=new HashMap<Class<?>,Integer>();
+        this.addresses=new HashMap<NetworkAddress,Integer>();
+        this.buffer=new ByteArrayOutputStream();
+        this.out.writeInt(MAGIC);
+        this.out.writeByte(VERSION);
+    }
+
+    /**
+     * Writes a message event. The size of the message is the one of its
+     * serialization in a new object stream, as the network layer sends it.
+     *
+     * @param sent true for a sent message, false for a received one
+     * @param time the time of the event in milliseconds
+     * @param message the message
+     * @param source the sender of the message
+     * @param destination the receiver of the message
+     * @param parent the parent in a delivered tree view, can be null
+     * @throws IOException if writing fails
+     */
+    public synchronized void write(boolean sent, double time, Message message, NetworkAddress source, NetworkAddress destination, NetworkAddress parent) throws IOException{
+        int type=this.defineType(message.getClass());
+        int sourceIndex=this.defineAddress(source);
+        int destinationIndex=this.defineAddress(destination);
+        int parentIndex=parent==null ? 0 : this.defineAddress(parent)+1;
+        this.out.writeByte(sent ? SEND : RECEIVE);
+        MessageCodec.writeVarLong(this.out, (long)(time*1000));
+        MessageCodec.writeVarInt(this.out, type);
+        MessageCodec.writeVarInt(this.out, sourceIndex);
+        MessageCodec.writeVarInt(this.out, destinationIndex);
+        MessageCodec.writeVarInt(this.out, this.measureSize(message));
+        MessageCodec.writeVarInt(this.out, parentIndex);
+    }
+
+    /**
+     * Flushes and closes the trace file.
+     *
+     * @throws IOException if writing fails
+     */
+    public synchronized void close() throws IOException{
+        this.out.close();
+    }
+
+    private int defineType(Class<?> type) throws IOException{
+        Integer index=this.types.get(type);
+        if(index==null){
+            index=this.types.size();
+            this.types.put(type, index);
+            this.out.writeByte(TYPE);
+            this.out.writeUTF(type.getName());
+        }
+        return index;
+    }
+
+    private int defineAddress(NetworkAddress address) throws IOException{
+        Integer index=this.addresses.get(address);
+        if(index==null){
+            index=this.addresses.size();
+            this.addresses.put(address, index);
+            this.out.writeByte(ADDRESS);
+            this.out.writeUTF(String.valueOf(address));
+        }
+        return index;
+    }
+
+    private int measureSize(Message message) throws IOException{
+        this.buffer.reset();
+        ObjectOutputStream stream=new ObjectOutputStream(this.buffer);
+        stream.writeObject(message);
+        stream.close();
+        return this.buffer.size();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package tree.trace;
+
+import java.io.IOException;
+import org.apache.log4j.Logger;
+import protopeer.BasePeerlet;
+import protopeer.network.Message;
+import protopeer.network.NetworkAddress;
+import tree.centralized.TreeViewReply;
+
+/**
+ * Records the messages of selected types the local peer sends and receives in
+ * a <code>MessageTraceWriter</code>. For a <code>TreeViewReply</code>, the
+ * parent of the delivered view is recorded too, so that the tree can be
+ * rebuilt from the trace.
+ *
+ * The tracer only observes the messages and can be added to any peer. It
+ * should be the first peerlet of the peer, so that a received message is
+ * recorded before the messages its handling causes. If the trace cannot be
+ * written, tracing stops and the peer continues.
+ *
+ * @author Evangelos
+ */
+public class MessageTracer extends BasePeerlet{
+
+    private static final Logger logger = Logger.getLogger(MessageTracer.class);
+    private MessageTraceWriter writer;
+    private Class<?>[] types;
+
+    /**
+     * Initializes the tracer.
+     *
+     * @param writer the trace writer, can be shared by several peers
+     * @param types the message types traced, including their subtypes
+     */
+    public MessageTracer(MessageTraceWriter writer, Class<?>... types){
+        this.writer=writer;
+        this.types=types;
+    }
+
+    /**
+     * Records a received message.
+     *
+     * @param message the incoming message
+     */
+    @Override
+    public void handleIncomingMessage(Message message) {
+        this.trace(false, message, message.getSourceAddress(), getPeer().getNetworkAddress());
+    }
+
+    /**
+     * Records a sent message.
+     *
+     * @param message the outgoing message
+     */
+    @Override
+    public void handleOutgoingMessage(Message message) {
+        this.trace(true, message, getPeer().getNetworkAddress(), message.getDestinationAddress());
+    }
+
+    private void trace(boolean sent, Message message, NetworkAddress source, NetworkAddress destination){
+        if(this.writer==null || !this.isTraced(message)){
+            return;
+        }
+        NetworkAddress parent=null;
+        if(message instanceof TreeViewReply && ((TreeViewReply)message).parent!=null){
+            parent=((TreeViewReply)message).parent.getNetworkAddress();
+        }
+        try{
+            this.writer.write(sent, getPeer().getClock().getCurrentTime(), message, source, destination, parent);
+        }
+        catch(IOException e){
+            logger.error("Tracing stopped, the trace cannot be written.", e);
+            this.writer=null;
+        }
+    }
+
+    private boolean isTraced(Message message){
+        for(Class<?> type:this.types){
+            if(type.isInstance(message)){
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2016 Evangelos Pournaras
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package tree.trace;
+
+/**
+ * A message event of a trace: a message sent or received by a peer. The
+ * network addresses are kept in their textual form.
+ *
+ * @author Evangelos
+ */
+public class TraceRecord {
+
+    public boolean sent;
+    public double time;
+    public String type;
+    public String source;
+    public String destination;
+    public int size;
+    public String parent;
+
+    /**
+     * @return the peer at which the event happened
+     */
+    public String getPeer(){
+        return this.sent ? this.source : this.destination;
+    }
+
+    @Override
+    public String toString(){
+        return this.time+"\t"+(this.sent ? "send" : "receive")+"\t"+this.type.substring(this.type.lastIndexOf('.')+1)+
+                "\t"+this.source+" -> "+this.destination+"\t"+this.size+" bytes";
+    }
+}